@@ -0,0 +1,95 @@
+package sbbj_tpg;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+
+public class APIExecutionExample4 
+{
+	public static void main(String[] args)
+	{
+		// Example Code execution when evaluating all the Root Teams in parallel:
+
+		// Create a TPG instance with the parameters file and training flag
+		TPGAlgorithm tpgAlgorithm = new TPGAlgorithm("parameters.arg", "learn");
+
+		// Grab the TPG learning interface from the wrapper object
+		TPGLearn tpg = tpgAlgorithm.getTPGLearn();
+
+		// Get the action pool from the API and give it to TPG in the form of a long array (long[])
+		tpg.setActions( new long[] {1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L} );
+
+		// Run the initialize method to create Team/Learner populations and prep for beginning learning
+		tpg.initialize();
+
+		// Create a pool with one thread per core to evaluate the Teams on
+		ExecutorService executor = new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
+		
+		// Create a variable for the number of iterations
+		int numberOfIterations = 1000; 
+		
+		// Main Learning Loop
+		for( int i=0; i < numberOfIterations; i++ )
+		{
+			// Let every Root Team play the game once, all at the same time. Each Team gets its
+			// own game from the factory, seeded from the generation and the Team's index so the
+			// outcomes don't depend on how many threads are used.
+			final long generation = i;
+			
+			tpg.evaluate( new EnvironmentFactory()
+			{
+				@Override
+				public Environment create( int teamIndex )
+				{
+					return new ExampleGame( generation * 100003 + teamIndex );
+				}
+			}, "game", executor );
+			
+			// Print the current top 10 Team population outcomes and some simple environment values
+			tpg.printStats(10);
+			
+			// Tell TPG to Perform Selection
+			tpg.selection();
+			
+			// Tell TPG to Reproduce and Mutate with the current Teams
+			tpg.generateNewTeams();
+			
+			// Reset TPG so it increases the generation count and finds the new Root Teams
+			tpg.nextEpoch();
+		}
+		
+		// Shut down the evaluation threads
+		executor.shutdown();
+	}
+	
+	// Normally this class would wrap the game API. Here, each game runs for 10 "frames" and
+	// rewards the action multiplied by 1000 * a value in [0.0,1.0), like in APIExecutionExample.
+	public static class ExampleGame implements Environment
+	{
+		// Each game has its own random number generator, so games can run on any thread
+		protected Random random;
+		
+		public ExampleGame( long seed )
+		{
+			random = new Random( seed );
+		}
+		
+		@Override
+		public double play( Agent agent )
+		{
+			// Create a variable for holding reward
+			double reward = 0.0;
+			
+			for( int count=10; count > 0; count-- )
+			{
+				// Convert the gameState to a double[] somehow. This is a 5 feature space. A very small frame.
+				double[] inputFeatures = new double[]{1.0, 2.1, 3.2, 4.3, 5.4};
+				
+				// Accumulate the reward by getting the Team to choose an action
+				reward += agent.act( inputFeatures ) * 1000 * random.nextDouble();
+			}
+			
+			return reward;
+		}
+	}
+}
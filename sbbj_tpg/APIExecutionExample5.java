@@ -0,0 +1,94 @@
+package sbbj_tpg;
+
+import java.io.File;
+import java.util.ArrayList;
+
+public class APIExecutionExample5 
+{
+	// The number of worker processes to start
+	protected static final int WORKERS = 4;
+	
+	public static void main(String[] args) throws Exception
+	{
+		// Example Code execution when evaluating the Root Teams in worker processes:
+		
+		// Started as "APIExecutionExample5 worker <port>", this process is one of the workers
+		if( args.length == 2 && args[0].equals("worker") )
+		{
+			runWorker( Integer.parseInt(args[1]) );
+			return;
+		}
+
+		// Create a TPG instance with the parameters file and training flag
+		TPGAlgorithm tpgAlgorithm = new TPGAlgorithm("parameters.arg", "learn");
+
+		// Grab the TPG learning interface from the wrapper object
+		TPGLearn tpg = tpgAlgorithm.getTPGLearn();
+
+		// Get the action pool from the API and give it to TPG in the form of a long array (long[])
+		tpg.setActions( new long[] {1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L} );
+
+		// Run the initialize method to create Team/Learner populations and prep for beginning learning
+		tpg.initialize();
+
+		// Start a coordinator on any free port on this machine
+		TPGCoordinator coordinator = new TPGCoordinator( 0 );
+		
+		// Start the worker processes with the same class path as this one
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ArrayList<Process> workers = new ArrayList<Process>();
+		
+		for( int i=0; i < WORKERS; i++ )
+		{
+			ProcessBuilder builder = new ProcessBuilder( java, "-cp", System.getProperty("java.class.path"), 
+					APIExecutionExample5.class.getName(), "worker", "" + coordinator.getPort() );
+			
+			workers.add( builder.inheritIO().start() );
+		}
+		
+		// Create a variable for the number of iterations
+		int numberOfIterations = 1000; 
+		
+		// Main Learning Loop
+		for( int i=0; i < numberOfIterations; i++ )
+		{
+			// Let every Root Team play the game once on the workers. This waits for the workers to
+			// connect, and if a worker dies, its Teams are played by the others.
+			coordinator.evaluate( tpg, "game" );
+			
+			// Print the current top 10 Team population outcomes and some simple environment values
+			tpg.printStats(10);
+			
+			// Tell TPG to Perform Selection
+			tpg.selection();
+			
+			// Tell TPG to Reproduce and Mutate with the current Teams
+			tpg.generateNewTeams();
+			
+			// Reset TPG so it increases the generation count and finds the new Root Teams
+			tpg.nextEpoch();
+		}
+		
+		// Tell the workers to shut down and wait for them
+		coordinator.close();
+		
+		for( Process worker : workers )
+			worker.waitFor();
+	}
+	
+	// Play Teams for the coordinator on the given port until it shuts this worker down
+	protected static void runWorker( int port )
+	{
+		TPGWorker worker = new TPGWorker( "localhost", port, new EnvironmentFactory()
+		{
+			@Override
+			public Environment create( int teamIndex )
+			{
+				// The same game as APIExecutionExample4, seeded from the Team's index
+				return new APIExecutionExample4.ExampleGame( teamIndex );
+			}
+		});
+		
+		worker.run();
+	}
+}
@@ -1,7 +1,5 @@
 package sbbj_tpg;
 
-import java.util.*;
-
 public class Action 
 {
 	protected Long action = null;
@@ -20,11 +18,11 @@ public class Action
 	}
 	
 	// Retrieve an action from this object
-	public long getAction( HashSet<Team> visited, double[] inputFeatures )
+	public long getAction( RegisterContext context, double[] inputFeatures )
 	{
 		// If we are not storing an atomic action, then this action holds a Team.
 		// Use the provided feature set to generate an action and return it. 
-		return action == null ? team.getAction(visited, inputFeatures) : action;
+		return action == null ? team.getAction(context, inputFeatures) : action;
 	}
 	
 	// Returns true if this action is atomic.
@@ -0,0 +1,10 @@
+package sbbj_tpg;
+
+// Something which chooses actions from input feature sets, such as a Team being
+// evaluated by TPGLearn.evaluate(). An Environment asks its Agent for an action
+// every time one is needed.
+public interface Agent
+{
+	// Given an input feature set, produce an action
+	long act( double[] inputFeatures );
+}
@@ -0,0 +1,557 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// Writes the whole state of a TPGLearn population to a binary file, and reads it back, so a long
+// run can be resumed after a crash. A checkpoint holds the parameters, the generation, the seed
+// every random stream is derived from, the Team and Learner ID counters, the actions, every Team
+// and Learner with their programs, actions, outcomes and registers, and the order of the Team,
+// Learner, root Team and non-root Team populations and of the Team queue. Random streams are
+// derived from the seed and the generation, and the populations are rebuilt in the same order,
+// so a restored run carries on exactly as the original would have. A fitness cache isn't saved.
+//
+// Files are written through one FileChannel from a large buffer, first to a temporary file which
+// then replaces the checkpoint, so a crash while writing never leaves a broken checkpoint behind.
+// The layout is:
+//
+//   int MAGIC, int VERSION
+//   parameters, long epochs, long streamSeed, String outputSuffix, long start time
+//   long Team ID counter, long Learner ID counter, int actionCount, actionCount longs
+//   int labelCount, labelCount Strings
+//   int teamCount, then for each Team: long ID, long birthday, double key,
+//                                      for each label: byte present, double outcome if present
+//   int learnerCount, then for each Learner: long ID, long birthday, byte actionType,
+//                                            long action or int team position, int programSize,
+//                                            programSize longs, byte registers held,
+//                                            REGISTERS doubles if held
+//   for each Team: int size, then size ints of Learner positions
+//   int rootCount, root Team positions, int nonRootCount, non-root Team positions
+//   int queueSize, Team queue positions
+public class Checkpoint
+{
+	// Marks a checkpoint file, and the version of its layout
+	protected static final int MAGIC = 0x54504743;
+	protected static final int VERSION = 1;
+	
+	// Action types stored for each Learner
+	protected static final byte ATOMIC_ACTION = 0;
+	protected static final byte TEAM_ACTION = 1;
+	
+	// The size of the buffer used for writing
+	protected static final int BUFFER_SIZE = 1 << 20;
+	
+	// Write the state of a population to a checkpoint file. No Team may be playing through a
+	// TeamHandle while this runs.
+	public static void write( TPGLearn tpg, String file )
+	{
+		if( tpg.activeHandles.get() > 0 )
+			throw new RuntimeException("Cannot write a checkpoint while Teams are playing through TeamHandles.");
+		
+		Path path = Paths.get( file );
+		Path temporary = Paths.get( file + ".tmp" );
+		
+		try( FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) )
+		{
+			Output out = new Output( channel );
+			write( tpg, out );
+			out.flush();
+			channel.force( false );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not write the checkpoint " + file + ".", e);
+		}
+		
+		try
+		{
+			Files.move( temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not replace the checkpoint " + file + ".", e);
+		}
+	}
+	
+	// Replace the state of a population with the state held in a checkpoint file. The Teams and
+	// Learners the population held before are erased. No Team may be playing through a TeamHandle.
+	public static void read( TPGLearn tpg, String file )
+	{
+		if( tpg.activeHandles.get() > 0 )
+			throw new RuntimeException("Cannot restore a checkpoint while Teams are playing through TeamHandles.");
+		
+		ByteBuffer in = null;
+		
+		// Read the whole file at once; checkpoints are read far less often than they're written
+		try( FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ) )
+		{
+			if( channel.size() > Integer.MAX_VALUE )
+				throw new RuntimeException("The checkpoint " + file + " is too large.");
+			
+			in = ByteBuffer.allocate( (int)channel.size() );
+			
+			while( in.hasRemaining() )
+				if( channel.read(in) < 0 )
+					break;
+			
+			in.flip();
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not read the checkpoint " + file + ".", e);
+		}
+		
+		try
+		{
+			read( tpg, in );
+		}
+		catch( java.nio.BufferUnderflowException e )
+		{
+			throw new RuntimeException("The checkpoint " + file + " is cut short.", e);
+		}
+	}
+	
+	// Write every part of a population's state
+	protected static void write( TPGLearn tpg, Output out ) throws IOException
+	{
+		out.putInt( MAGIC );
+		out.putInt( VERSION );
+		
+		// Parameters
+		out.putInt( tpg.teamPopSize );
+		out.putDouble( tpg.teamGap );
+		out.putDouble( tpg.probLearnerDelete );
+		out.putDouble( tpg.probLearnerAdd );
+		out.putDouble( tpg.probMutateAction );
+		out.putDouble( tpg.probActionIsTeam );
+		out.putInt( tpg.maximumTeamSize );
+		out.putInt( tpg.maximumProgramSize );
+		out.putDouble( tpg.probProgramDelete );
+		out.putDouble( tpg.probProgramAdd );
+		out.putDouble( tpg.probProgramSwap );
+		out.putDouble( tpg.probProgramMutate );
+		out.putInt( tpg.seed );
+		
+		// Where the run is up to
+		out.putLong( tpg.epochs );
+		out.putLong( tpg.streamSeed );
+		out.putString( tpg.outputSuffix );
+		out.putLong( tpg.currentDate.getTime() );
+		
+		synchronized( Team.class )
+		{
+			out.putLong( Team.count );
+		}
+		
+		synchronized( Learner.class )
+		{
+			out.putLong( Learner.count );
+		}
+		
+		out.putInt( tpg.actions.size() );
+		
+		for( long action : tpg.actions )
+			out.putLong( action );
+		
+		// Labels, in label ID order
+		ArrayList<String> labels = tpg.outcomes.getLabels();
+		out.putInt( labels.size() );
+		
+		for( String label : labels )
+			out.putString( label );
+		
+		// Number the Teams and Learners by their position in their populations
+		HashMap<Team, Integer> teamPositions = new HashMap<Team, Integer>();
+		HashMap<Learner, Integer> learnerPositions = new HashMap<Learner, Integer>();
+		
+		for( Team team : tpg.teams )
+			teamPositions.put( team, teamPositions.size() );
+		
+		for( Learner learner : tpg.learners )
+			learnerPositions.put( learner, learnerPositions.size() );
+		
+		OpenDouble outcome = new OpenDouble(0.0);
+		out.putInt( tpg.teams.size() );
+		
+		for( Team team : tpg.teams )
+		{
+			out.putLong( team.getID() );
+			out.putLong( team.getBirthday() );
+			out.putDouble( team.getKey() );
+			
+			for( int labelID=0; labelID < labels.size(); labelID++ )
+			{
+				if( team.getOutcome(labelID, outcome) )
+				{
+					out.putByte( (byte)1 );
+					out.putDouble( outcome.getValue() );
+				}
+				else
+					out.putByte( (byte)0 );
+			}
+		}
+		
+		RegisterContext context = tpg.context;
+		out.putInt( tpg.learners.size() );
+		
+		for( Learner learner : tpg.learners )
+		{
+			out.putLong( learner.getID() );
+			out.putLong( learner.getBirthday() );
+			
+			Action action = learner.getActionObject();
+			
+			if( action.isAtomic() )
+			{
+				out.putByte( ATOMIC_ACTION );
+				out.putLong( action.action );
+			}
+			else
+			{
+				Integer position = teamPositions.get( action.team );
+				
+				if( position == null )
+					throw new RuntimeException("A Learner points to a Team outside the Team population.");
+				
+				out.putByte( TEAM_ACTION );
+				out.putInt( position );
+			}
+			
+			out.putInt( learner.programSize );
+			out.putLongs( learner.program, learner.programSize );
+			
+			// Registers only belong to the Learner if its ID still owns its slot in the context
+			int slot = learner.index;
+			
+			if( slot < context.owners.length && context.owners[slot] == learner.getID() )
+			{
+				out.putByte( (byte)1 );
+				out.putDoubles( context.registers, slot * Learner.REGISTERS, Learner.REGISTERS );
+			}
+			else
+				out.putByte( (byte)0 );
+		}
+		
+		for( Team team : tpg.teams )
+		{
+			out.putInt( team.size() );
+			
+			for( Learner learner : team.getLearners() )
+			{
+				Integer position = learnerPositions.get( learner );
+				
+				if( position == null )
+					throw new RuntimeException("A Team holds a Learner outside the Learner population.");
+				
+				out.putInt( position );
+			}
+		}
+		
+		// The root and non-root orders, which decide how Teams are sampled
+		out.putInt( tpg.teams.roots.size() );
+		
+		for( Team team : tpg.teams.roots )
+			out.putInt( teamPositions.get(team) );
+		
+		out.putInt( tpg.teams.nonRoots.size() );
+		
+		for( Team team : tpg.teams.nonRoots )
+			out.putInt( teamPositions.get(team) );
+		
+		// The Teams still waiting to play in this generation
+		ArrayList<Team> queue = new ArrayList<Team>( tpg.teamQueue );
+		out.putInt( queue.size() );
+		
+		for( Team team : queue )
+			out.putInt( teamPositions.get(team) );
+	}
+	
+	// Read every part of a population's state, replacing what the population held
+	protected static void read( TPGLearn tpg, ByteBuffer in )
+	{
+		if( in.getInt() != MAGIC )
+			throw new RuntimeException("This file is not a TPG checkpoint.");
+		
+		int version = in.getInt();
+		
+		if( version != VERSION )
+			throw new RuntimeException("Checkpoint version " + version + " is not supported.");
+		
+		// Parameters
+		tpg.teamPopSize = in.getInt();
+		tpg.teamGap = in.getDouble();
+		tpg.probLearnerDelete = in.getDouble();
+		tpg.probLearnerAdd = in.getDouble();
+		tpg.probMutateAction = in.getDouble();
+		tpg.probActionIsTeam = in.getDouble();
+		tpg.maximumTeamSize = in.getInt();
+		tpg.maximumProgramSize = in.getInt();
+		tpg.probProgramDelete = in.getDouble();
+		tpg.probProgramAdd = in.getDouble();
+		tpg.probProgramSwap = in.getDouble();
+		tpg.probProgramMutate = in.getDouble();
+		tpg.seed = in.getInt();
+		
+		// Where the run is up to
+		tpg.epochs = in.getLong();
+		tpg.streamSeed = in.getLong();
+		tpg.outputSuffix = getString( in );
+		tpg.currentDate = new Date( in.getLong() );
+		
+		long teamCount = in.getLong();
+		long learnerCount = in.getLong();
+		
+		tpg.actions.clear();
+		int actionCount = in.getInt();
+		
+		for( int i=0; i < actionCount; i++ )
+			tpg.actions.add( in.getLong() );
+		
+		String[] labels = new String[ in.getInt() ];
+		
+		for( int i=0; i < labels.length; i++ )
+			labels[i] = getString( in );
+		
+		// Erase the old populations and start new ones, with the labels interned in the same order
+		for( Team team : tpg.teams )
+			team.erase();
+		
+		for( Learner learner : tpg.learners )
+			learner.erase();
+		
+		tpg.teams = new TeamPopulation();
+		tpg.learners = new LearnerPopulation();
+		tpg.outcomes = tpg.teams.getOutcomes();
+		tpg.context = new RegisterContext();
+		tpg.teamQueue.clear();
+		
+		for( String label : labels )
+			tpg.outcomes.intern( label );
+		
+		// Teams first, so Learners can point at them. Outcomes go in once the Teams have joined
+		// the population and use its outcome matrix.
+		Team[] teams = new Team[ in.getInt() ];
+		double[][] outcomes = new double[teams.length][labels.length];
+		boolean[][] present = new boolean[teams.length][labels.length];
+		
+		for( int i=0; i < teams.length; i++ )
+		{
+			teams[i] = new Team( in.getLong(), in.getLong(), 0 );
+			teams[i].setKey( in.getDouble() );
+			
+			for( int labelID=0; labelID < labels.length; labelID++ )
+			{
+				present[i][labelID] = in.get() != 0;
+				
+				if( present[i][labelID] )
+					outcomes[i][labelID] = in.getDouble();
+			}
+		}
+		
+		Learner[] learners = new Learner[ in.getInt() ];
+		
+		for( int i=0; i < learners.length; i++ )
+		{
+			long ID = in.getLong();
+			long birthday = in.getLong();
+			byte actionType = in.get();
+			long action = 0;
+			Team team = null;
+			
+			if( actionType == ATOMIC_ACTION )
+				action = in.getLong();
+			else if( actionType == TEAM_ACTION )
+				team = teams[ in.getInt() ];
+			else
+				throw new RuntimeException("Unknown action type " + actionType + " in a checkpoint.");
+			
+			long[] program = new long[ in.getInt() ];
+			in.asLongBuffer().get( program );
+			in.position( in.position() + program.length * 8 );
+			
+			if( team == null )
+				learners[i] = new Learner( ID, birthday, action, 0, program );
+			else
+			{
+				learners[i] = new Learner( ID, birthday, team, 0, program );
+				team.increaseReferences();
+			}
+			
+			// Put the Learner's registers back in the new context
+			if( in.get() != 0 )
+			{
+				int offset = tpg.context.offset( learners[i] );
+				in.asDoubleBuffer().get( tpg.context.getRegisters(), offset, Learner.REGISTERS );
+				in.position( in.position() + Learner.REGISTERS * 8 );
+			}
+			
+			tpg.learners.add( learners[i] );
+		}
+		
+		for( Team team : teams )
+		{
+			int size = in.getInt();
+			
+			for( int j=0; j < size; j++ )
+				team.addLearner( learners[in.getInt()] );
+		}
+		
+		// Rebuild the Team population with its root and non-root orders
+		ArrayList<Team> roots = new ArrayList<Team>();
+		ArrayList<Team> nonRoots = new ArrayList<Team>();
+		int rootCount = in.getInt();
+		
+		for( int i=0; i < rootCount; i++ )
+			roots.add( teams[in.getInt()] );
+		
+		int nonRootCount = in.getInt();
+		
+		for( int i=0; i < nonRootCount; i++ )
+			nonRoots.add( teams[in.getInt()] );
+		
+		tpg.teams.addAll( Arrays.asList(teams), roots, nonRoots );
+		
+		for( int i=0; i < teams.length; i++ )
+			for( int labelID=0; labelID < labels.length; labelID++ )
+				if( present[i][labelID] )
+					teams[i].setOutcome( labelID, outcomes[i][labelID] );
+		
+		int queueSize = in.getInt();
+		
+		for( int i=0; i < queueSize; i++ )
+			tpg.teamQueue.add( teams[in.getInt()] );
+		
+		// The ID counters go back last, since nothing above draws new IDs
+		synchronized( Team.class )
+		{
+			Team.count = teamCount;
+		}
+		
+		synchronized( Learner.class )
+		{
+			Learner.count = learnerCount;
+		}
+	}
+	
+	// Read a String written by Output.putString()
+	protected static String getString( ByteBuffer in )
+	{
+		byte[] bytes = new byte[ in.getInt() ];
+		in.get( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+	
+	// Collects values in a large buffer and writes the buffer to a channel whenever it fills up
+	protected static class Output
+	{
+		// The channel being written to
+		FileChannel channel;
+		
+		// Values waiting to be written
+		ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+		
+		Output( FileChannel channel )
+		{
+			this.channel = channel;
+		}
+		
+		// Make sure the buffer has room for the given number of bytes, writing it out if it doesn't
+		void reserve( int bytes ) throws IOException
+		{
+			if( buffer.remaining() < bytes )
+				flush();
+		}
+		
+		// Write everything in the buffer to the channel
+		void flush() throws IOException
+		{
+			buffer.flip();
+			
+			while( buffer.hasRemaining() )
+				channel.write( buffer );
+			
+			buffer.clear();
+		}
+		
+		void putByte( byte value ) throws IOException
+		{
+			reserve( 1 );
+			buffer.put( value );
+		}
+		
+		void putInt( int value ) throws IOException
+		{
+			reserve( 4 );
+			buffer.putInt( value );
+		}
+		
+		void putLong( long value ) throws IOException
+		{
+			reserve( 8 );
+			buffer.putLong( value );
+		}
+		
+		void putDouble( double value ) throws IOException
+		{
+			reserve( 8 );
+			buffer.putDouble( value );
+		}
+		
+		// Write the first count values of an array, in blocks as large as the buffer allows
+		void putLongs( long[] values, int count ) throws IOException
+		{
+			int done = 0;
+			
+			while( done < count )
+			{
+				reserve( 8 );
+				int block = Math.min( count - done, buffer.remaining() / 8 );
+				
+				buffer.asLongBuffer().put( values, done, block );
+				buffer.position( buffer.position() + block * 8 );
+				done += block;
+			}
+		}
+		
+		// Write count values of an array, starting at the given offset
+		void putDoubles( double[] values, int offset, int count ) throws IOException
+		{
+			int done = 0;
+			
+			while( done < count )
+			{
+				reserve( 8 );
+				int block = Math.min( count - done, buffer.remaining() / 8 );
+				
+				buffer.asDoubleBuffer().put( values, offset + done, block );
+				buffer.position( buffer.position() + block * 8 );
+				done += block;
+			}
+		}
+		
+		void putString( String value ) throws IOException
+		{
+			byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+			putInt( bytes.length );
+			
+			if( bytes.length > buffer.capacity() )
+			{
+				flush();
+				
+				ByteBuffer large = ByteBuffer.wrap( bytes );
+				
+				while( large.hasRemaining() )
+					channel.write( large );
+				
+				return;
+			}
+			
+			reserve( bytes.length );
+			buffer.put( bytes );
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package sbbj_tpg;
+
+// A Learner program which has been compiled to JVM bytecode by the LearnerCompiler.
+// Running it must give exactly the same result as Learner.run() on the same program.
+interface CompiledProgram
+{
+	// Run the program against the registers starting at offset in the given array and the
+	// input feature set, leaving the registers updated, and return the value of the first
+	// general purpose register.
+	double run( double[] registers, int offset, double[] inputFeatures );
+}
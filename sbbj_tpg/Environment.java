@@ -0,0 +1,11 @@
+package sbbj_tpg;
+
+// A task which Teams can be evaluated on by TPGLearn.evaluate(). Every Team is given its
+// own Environment, and an Environment is only ever used by one thread at a time, so it
+// doesn't need to be thread-safe.
+public interface Environment
+{
+	// Play one episode of the task, asking the agent for an action whenever one is
+	// needed, and return the reward the agent earned over the episode
+	double play( Agent agent );
+}
@@ -0,0 +1,11 @@
+package sbbj_tpg;
+
+// Creates the Environments used by TPGLearn.evaluate(). It is called from several threads
+// at once, so it must be thread-safe. For evaluation results to be the same no matter how
+// many threads are used, the Environment created for a given team index should always
+// behave the same way, for example by seeding any randomness from the index.
+public interface EnvironmentFactory
+{
+	// Create the Environment for the Root Team at the given index in this evaluation
+	Environment create( int teamIndex );
+}
@@ -0,0 +1,12 @@
+package sbbj_tpg;
+
+// Creates the Environments used by a RacingEvaluator, which plays several episodes with every
+// Root Team. Like an EnvironmentFactory, it is called from several threads at once, so it must
+// be thread-safe. For racing results to be the same no matter how many threads are used, the
+// Environment created for a given team index and episode should always behave the same way, for
+// example by seeding any randomness from both numbers.
+public interface EpisodeFactory
+{
+	// Create the Environment for one episode of the Root Team at the given index in this evaluation
+	Environment create( int teamIndex, int episode );
+}
@@ -0,0 +1,241 @@
+package sbbj_tpg;
+
+import java.util.*;
+
+// Remembers the outcomes of Root Teams across generations, so a Team which survives selection
+// unchanged doesn't have to play again. Outcomes are keyed by the label and by a structural hash
+// of everything the Team can reach: the program and action of every Learner, and the structure
+// of every Team the Learners point to. Two Teams with the same hash behave the same way, so an
+// outcome stored for one can be reused for the other.
+//
+// The cache is only correct when the same Team always earns the same reward for a label, which
+// means the Environment must be deterministic and must not depend on the team index it was created
+// for. Outcomes can be given a maximum age, after which the Team plays again, and the whole cache
+// can be cleared whenever the set of labels being learned changes.
+public class FitnessCache
+{
+	// One remembered outcome, and the generation it was earned in
+	protected static class Entry
+	{
+		double outcome;
+		long generation;
+		
+		Entry( double outcome, long generation )
+		{
+			this.outcome = outcome;
+			this.generation = generation;
+		}
+	}
+	
+	// The remembered outcomes, by label and then by structural hash
+	protected HashMap<String, HashMap<Long, Entry>> entries = new HashMap<String, HashMap<Long, Entry>>();
+	
+	// The number of generations an outcome stays valid for, or -1 if outcomes never expire
+	protected long maximumAge = -1;
+	
+	// Whether to forget everything when the set of labels changes
+	protected boolean clearOnLabelChange = true;
+	
+	// The labels seen by the last call to labelsUsed(), or null before the first call
+	protected HashSet<String> knownLabels = null;
+	
+	// The number of lookups which found an outcome, and which didn't
+	protected long hits = 0;
+	protected long misses = 0;
+	
+	// Create a cache whose outcomes never expire
+	public FitnessCache()
+	{
+	}
+	
+	// Create a cache whose outcomes expire after the given number of generations
+	public FitnessCache( long maximumAge )
+	{
+		setMaximumAge( maximumAge );
+	}
+	
+	// Set the number of generations an outcome stays valid for, or -1 so outcomes never expire. An
+	// outcome is valid in the generation it was earned in and the maximumAge generations after it.
+	public synchronized void setMaximumAge( long maximumAge )
+	{
+		if( maximumAge < -1 )
+			throw new RuntimeException("The maximum age of a cached outcome can't be " + maximumAge + ".");
+		
+		this.maximumAge = maximumAge;
+	}
+	
+	// Choose whether to forget everything when the set of labels changes
+	public synchronized void setClearOnLabelChange( boolean clearOnLabelChange )
+	{
+		this.clearOnLabelChange = clearOnLabelChange;
+	}
+	
+	// Look up the outcome of a Team with the given structural hash for the label. Returns true and
+	// fills the OpenDouble if a valid outcome is remembered, and counts the lookup as a hit or a miss.
+	public synchronized boolean lookup( long hash, String label, long generation, OpenDouble out )
+	{
+		HashMap<Long, Entry> outcomes = entries.get( label );
+		Entry entry = outcomes == null ? null : outcomes.get( hash );
+		
+		// Forget outcomes which have grown too old
+		if( entry != null && isExpired(entry, generation) )
+		{
+			outcomes.remove( hash );
+			entry = null;
+		}
+		
+		if( entry == null )
+		{
+			misses++;
+			return false;
+		}
+		
+		hits++;
+		out.setValue( entry.outcome );
+		return true;
+	}
+	
+	// Remember the outcome a Team with the given structural hash earned for the label
+	public synchronized void store( long hash, String label, long generation, double outcome )
+	{
+		HashMap<Long, Entry> outcomes = entries.get( label );
+		
+		if( outcomes == null )
+		{
+			outcomes = new HashMap<Long, Entry>();
+			entries.put( label, outcomes );
+		}
+		
+		outcomes.put( hash, new Entry(outcome, generation) );
+	}
+	
+	// Tell the cache which labels are being learned. If the set differs from the one given last
+	// time and clearOnLabelChange is set, every remembered outcome is forgotten. Returns true if it was.
+	public synchronized boolean labelsUsed( Set<String> labels )
+	{
+		if( labels.equals(knownLabels) )
+			return false;
+		
+		boolean changed = knownLabels != null;
+		knownLabels = new HashSet<String>( labels );
+		
+		if( !changed || !clearOnLabelChange )
+			return false;
+		
+		entries.clear();
+		return true;
+	}
+	
+	// Forget every outcome which is too old to be used in the given generation
+	public synchronized void prune( long generation )
+	{
+		if( maximumAge < 0 )
+			return;
+		
+		for( HashMap<Long, Entry> outcomes : entries.values() )
+		{
+			Iterator<Entry> iterator = outcomes.values().iterator();
+			
+			while( iterator.hasNext() )
+				if( isExpired(iterator.next(), generation) )
+					iterator.remove();
+		}
+	}
+	
+	// Forget every outcome, keeping the hit and miss counts
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+	
+	// Return the number of lookups which found an outcome
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+	
+	// Return the number of lookups which didn't find an outcome
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+	
+	// Return the number of outcomes remembered, over all labels
+	public synchronized int size()
+	{
+		int size = 0;
+		
+		for( HashMap<Long, Entry> outcomes : entries.values() )
+			size += outcomes.size();
+		
+		return size;
+	}
+	
+	// Return true if an outcome is too old to be used in the given generation
+	protected boolean isExpired( Entry entry, long generation )
+	{
+		return maximumAge >= 0 && generation - entry.generation > maximumAge;
+	}
+	
+	// Return a hash of the structure of everything a root Team can reach. Teams and Learners are
+	// numbered in the order they're found, and a Team or Learner found again is hashed by its
+	// number, so shared Learners and Teams are told apart from copies. IDs, birthdays and outcomes
+	// don't change how a Team behaves, so they're left out.
+	public static long structuralHash( Team root )
+	{
+		HashMap<Team, Integer> teamNumbers = new HashMap<Team, Integer>();
+		HashMap<Learner, Integer> learnerNumbers = new HashMap<Learner, Integer>();
+		ArrayDeque<Team> queue = new ArrayDeque<Team>();
+		
+		teamNumbers.put( root, 0 );
+		queue.add( root );
+		
+		long hash = 0;
+		
+		while( !queue.isEmpty() )
+		{
+			Team team = queue.poll();
+			hash = RandomStreams.mix( hash + team.size() );
+			
+			for( Learner learner : team.getLearners() )
+			{
+				Integer number = learnerNumbers.get( learner );
+				
+				// A Learner seen before is only hashed by its number
+				if( number != null )
+				{
+					hash = RandomStreams.mix( hash + ~number.longValue() );
+					continue;
+				}
+				
+				learnerNumbers.put( learner, learnerNumbers.size() );
+				
+				hash = RandomStreams.mix( hash + learner.programSize );
+				
+				for( int i=0; i < learner.programSize; i++ )
+					hash = RandomStreams.mix( hash + learner.program[i] );
+				
+				Action action = learner.getActionObject();
+				
+				if( action.isAtomic() )
+					hash = RandomStreams.mix( hash + 2 * action.action );
+				else
+				{
+					// Number the Team the first time it's found and hash it when its turn in the queue comes
+					Integer target = teamNumbers.get( action.team );
+					
+					if( target == null )
+					{
+						target = teamNumbers.size();
+						teamNumbers.put( action.team, target );
+						queue.add( action.team );
+					}
+					
+					hash = RandomStreams.mix( hash + 2 * target.longValue() + 1 );
+				}
+			}
+		}
+		
+		return hash;
+	}
+}
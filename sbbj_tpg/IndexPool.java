@@ -0,0 +1,49 @@
+package sbbj_tpg;
+
+import java.util.Arrays;
+
+// Hands out small, dense int indices to objects such as Teams and Learners, so that
+// per-object data can be kept in flat arrays instead of sets and maps. Released indices
+// are reused before new ones are created, which keeps the largest index close to the
+// number of live objects.
+public class IndexPool
+{
+	// Indices which have been released and can be handed out again
+	protected int[] freeIndices = new int[64];
+	
+	// The number of indices currently in the free list
+	protected int freeCount = 0;
+	
+	// The next index to hand out once the free list is empty
+	protected int nextIndex = 0;
+	
+	// Hand out an index, reusing a released one if possible
+	public synchronized int acquire()
+	{
+		if( freeCount > 0 )
+			return freeIndices[--freeCount];
+		
+		return nextIndex++;
+	}
+	
+	// Give back an index which is no longer in use
+	public synchronized void release( int index )
+	{
+		if( freeCount == freeIndices.length )
+			freeIndices = Arrays.copyOf( freeIndices, freeCount * 2 );
+		
+		freeIndices[freeCount++] = index;
+	}
+	
+	// Return one more than the largest index handed out so far
+	public synchronized int capacity()
+	{
+		return nextIndex;
+	}
+	
+	// Return the number of indices handed out and not yet released
+	public synchronized int inUse()
+	{
+		return nextIndex - freeCount;
+	}
+}
@@ -0,0 +1,174 @@
+package sbbj_tpg;
+
+// Orders the indices 0..n-1 of a population, best ranked first. Subclasses decide which of
+// two indices ranks ahead of the other, and that decision must be a strict total order (ties
+// broken by index, for example) so that a full sort, a partial top-k sort and a truncation
+// all agree with each other.
+public abstract class IndexRanking
+{
+	// The number of indices being ranked
+	protected int size;
+	
+	// Working space for merge sorting
+	protected int[] buffer = null;
+	
+	// Create a ranking over the indices 0..size-1
+	protected IndexRanking( int size )
+	{
+		this.size = size;
+	}
+	
+	// Return true if index a ranks ahead of index b
+	public abstract boolean ahead( int a, int b );
+	
+	// Return every index, best ranked first. Takes O(n log n) time.
+	public int[] sort()
+	{
+		int[] order = identity();
+		sort( order, 0, order.length );
+		
+		return order;
+	}
+	
+	// Return every index with the best k first, in rank order. The remaining indices
+	// follow in no particular order. Finding the best k takes O(n) expected time with
+	// quickselect, and ordering them takes O(k log k), so this is much faster than sort()
+	// when only the top of the ranking is needed.
+	public int[] top( int k )
+	{
+		int[] order = identity();
+		k = Math.max( 0, Math.min(k, order.length) );
+		
+		// Move the best k indices to the front, then put them in order
+		if( k < order.length )
+			select( order, k );
+		
+		sort( order, 0, k );
+		
+		return order;
+	}
+	
+	// Return the indices in their original order
+	protected int[] identity()
+	{
+		int[] order = new int[size];
+		
+		for( int i=0; i < order.length; i++ )
+			order[i] = i;
+		
+		return order;
+	}
+	
+	// Rearrange order so that the best k indices come before position k (quickselect)
+	protected void select( int[] order, int k )
+	{
+		int low = 0;
+		int high = order.length - 1;
+		
+		while( low < high )
+		{
+			int pivot = partition( order, low, high );
+			
+			if( pivot == k )
+				return;
+			
+			if( pivot < k )
+				low = pivot + 1;
+			else
+				high = pivot - 1;
+		}
+	}
+	
+	// Partition order[low..high] around a median-of-three pivot, so that every index ranked
+	// ahead of the pivot comes before it, and return the pivot's final position
+	protected int partition( int[] order, int low, int high )
+	{
+		int middle = (low + high) >>> 1;
+		
+		// Sort the low, middle and high entries so the median ends up in the middle
+		if( ahead(order[middle], order[low]) )
+			swap( order, middle, low );
+		if( ahead(order[high], order[low]) )
+			swap( order, high, low );
+		if( ahead(order[high], order[middle]) )
+			swap( order, high, middle );
+		
+		// Park the pivot at the end while partitioning
+		swap( order, middle, high );
+		int pivot = order[high];
+		int store = low;
+		
+		for( int i=low; i < high; i++ )
+			if( ahead(order[i], pivot) )
+				swap( order, i, store++ );
+		
+		swap( order, store, high );
+		return store;
+	}
+	
+	// Merge sort order[from..to) into rank order
+	protected void sort( int[] order, int from, int to )
+	{
+		if( to - from < 2 )
+			return;
+		
+		if( buffer == null || buffer.length < to )
+			buffer = new int[Math.max(to, order.length)];
+		
+		mergeSort( order, from, to );
+	}
+	
+	// Recursively merge sort order[from..to), using the buffer for merging
+	protected void mergeSort( int[] order, int from, int to )
+	{
+		// Short runs are faster with an insertion sort
+		if( to - from <= 16 )
+		{
+			for( int i=from + 1; i < to; i++ )
+			{
+				int index = order[i];
+				int j = i - 1;
+				
+				while( j >= from && ahead(index, order[j]) )
+				{
+					order[j + 1] = order[j];
+					j--;
+				}
+				
+				order[j + 1] = index;
+			}
+			
+			return;
+		}
+		
+		int middle = (from + to) >>> 1;
+		
+		mergeSort( order, from, middle );
+		mergeSort( order, middle, to );
+		
+		// If the two halves are already in order there's nothing to merge
+		if( !ahead(order[middle], order[middle - 1]) )
+			return;
+		
+		System.arraycopy( order, from, buffer, from, to - from );
+		
+		int left = from;
+		int right = middle;
+		
+		for( int i=from; i < to; i++ )
+		{
+			if( right >= to || (left < middle && !ahead(buffer[right], buffer[left])) )
+				order[i] = buffer[left++];
+			else
+				order[i] = buffer[right++];
+		}
+	}
+	
+	// Swap two entries of the order array
+	protected static void swap( int[] order, int i, int j )
+	{
+		int temp = order[i];
+		order[i] = order[j];
+		order[j] = temp;
+	}
+}
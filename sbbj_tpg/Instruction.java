@@ -1,6 +1,7 @@
 package sbbj_tpg;
 
 import java.util.BitSet;
+import java.util.random.RandomGenerator;
 
 /**
  * This class is designed to add SBB-specific functionality to the existing BitSet class.
@@ -53,9 +54,11 @@ public class Instruction extends BitSet
 	// Modes
 	// Rx <- op Rx Ry
 	public static final Instruction mode0 = new Instruction( 0x0 ); 
+	public static final int mode0_VALUE = 0;
 	
 	// Rx <- op Rx Iy
 	public static final Instruction mode1 = new Instruction( 0x1 ); 
+	public static final int mode1_VALUE = 1;
 	
 	// Operations
 	public static final Instruction SUM = new Instruction( 0x0 );
@@ -66,6 +69,21 @@ public class Instruction extends BitSet
 	public static final Instruction LOG = new Instruction( 0x5 );
 	public static final Instruction EXP = new Instruction( 0x6 );
 	public static final Instruction COND = new Instruction( 0x7 );
+	public static final int SUM_VALUE = 0;
+	public static final int DIFF_VALUE = 1;
+	public static final int PROD_VALUE = 2;
+	public static final int DIV_VALUE = 3;
+	public static final int COS_VALUE = 4;
+	public static final int LOG_VALUE = 5;
+	public static final int EXP_VALUE = 6;
+	public static final int COND_VALUE = 7;
+	
+	// Mask values as primitive longs. These match the Instruction masks above and are
+	// used to decode an Instruction's long value without creating any new objects.
+	public static final long MODE_MASK_VALUE = 0x1L;
+	public static final long OP_MASK_VALUE = 0xEL;
+	public static final long DEST_MASK_VALUE = 0x70L;
+	public static final long SRC_MASK_VALUE = 0x7FFFFF80L;
 	
 	// Shift Amounts
 	public static final short MODE_SHIFT = 0;
@@ -170,6 +188,46 @@ public class Instruction extends BitSet
 		return this.getRegister( srcMask, SRC_SHIFT );
 	}
 
+	/**
+	 * Retrieves the Mode section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Mode section of the binary string as an int.
+	 */
+	public static int getMode( long value )
+	{
+		return (int)( (value & MODE_MASK_VALUE) >>> MODE_SHIFT );
+	}
+	
+	/**
+	 * Retrieves the Operation section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Operation section of the binary string as an int.
+	 */
+	public static int getOperation( long value )
+	{
+		return (int)( (value & OP_MASK_VALUE) >>> OP_SHIFT );
+	}
+	
+	/**
+	 * Retrieves the Destination section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Destination section of the binary string as an int.
+	 */
+	public static int getDestination( long value )
+	{
+		return (int)( (value & DEST_MASK_VALUE) >>> DEST_SHIFT );
+	}
+	
+	/**
+	 * Retrieves the Source section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Source section of the binary string as an int.
+	 */
+	public static int getSource( long value )
+	{
+		return (int)( (value & SRC_MASK_VALUE) >>> SRC_SHIFT );
+	}
+
 	/**
 	 * Returns this instruction in its binary string representation.
 	 * @return the binary string representation of this object.
@@ -190,15 +248,29 @@ public class Instruction extends BitSet
 	 */
 	public static Instruction newRandom()
 	{
-		Instruction instruction = new Instruction();
-		
-		for( int j=0; j < INSTRUCTION_SIZE; j++ )
-		{
-			if( TPGAlgorithm.RNG.nextDouble() < 0.5 )
-				instruction.flip(j);
-		}
-		
-		return instruction;		
+		return new Instruction( newRandomValue() );
+	}
+	
+	/**
+	 * Returns the long value of a randomly created Instruction of size INSTRUCTION_SIZE,
+	 * using the shared TPGAlgorithm.RNG generator.
+	 * @return the long value of a randomly created Instruction.
+	 */
+	public static long newRandomValue()
+	{
+		return newRandomValue( TPGAlgorithm.RNG );
+	}
+	
+	/**
+	 * Returns the long value of a randomly created Instruction of size INSTRUCTION_SIZE.
+	 * Each bit has a 50% chance of being set to 1, so all the bits are taken from a single
+	 * random long rather than drawing once per bit.
+	 * @param rng the random number generator to draw from.
+	 * @return the long value of a randomly created Instruction.
+	 */
+	public static long newRandomValue( RandomGenerator rng )
+	{
+		return rng.nextLong() & ((1L << INSTRUCTION_SIZE) - 1);
 	}
 	
 	/**
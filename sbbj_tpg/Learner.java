@@ -1,61 +1,114 @@
 package sbbj_tpg;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.random.RandomGenerator;
 
 public class Learner
 {
 	// The number of general purpose registers held by all Learners
 	public static final int REGISTERS = 8;
 	
-	// An array representing the general purpose registers for this Learner
-	public double[] registers = null;
+	// The number of input rows evaluated together by the batch version of bid()
+	public static final int BATCH_SIZE = 256;
+	
+	// The number of lane arrays used by the batch version of bid(). There is one array of
+	// BATCH_SIZE lanes for every general purpose register, followed by one for a source value.
+	public static final int BATCH_LANES = REGISTERS + 1;
+	
+	// The exponent bits of a double, and the lowest of them. A value is infinite or not a number
+	// exactly when all of its exponent bits are set.
+	protected static final long EXPONENT_BITS = 0x7FF0000000000000L;
+	protected static final long EXPONENT_LOW_BIT = 0x0010000000000000L;
 	
 	// Static variable holding the next ID to be used for a new Learner
 	protected static long count = 0;
 	
+	// The pool of compact indices shared by all Learners
+	protected static final IndexPool indices = new IndexPool();
+	
 	// Unique ID of this Learner
 	protected long ID = 0;
 	
+	// A compact index for this Learner, locating its registers in a RegisterContext.
+	// Learners hold no register state of their own, so they can be shared across threads.
+	protected int index = indices.acquire();
+	
 	// Time step at which this Learner was generated
 	protected long birthday = 0;
 	
 	// The action held by this Learner
 	protected Action action = null;
 	
-	// The number of Teams currently referencing this Learner
-	protected int teamReferenceCount = 0;
+	// The number of Teams currently referencing this Learner. Teams built on different threads
+	// can share a Learner, so increases and decreases go through the updater below.
+	protected volatile int teamReferenceCount = 0;
+	
+	// Updates teamReferenceCount atomically
+	protected static final AtomicIntegerFieldUpdater<Learner> references = AtomicIntegerFieldUpdater.newUpdater( Learner.class, "teamReferenceCount" );
+	
+	// This Learner's program for calculating a bid based on an input. Every Instruction is
+	// stored as its long value in a single array, of which the first programSize entries are used.
+	long[] program = null;
+	
+	// The number of Instructions in this Learner's program
+	protected int programSize = 0;
 	
-	// This Learner's program for calculating a bid based on an input
-	ArrayList<Instruction> program = new ArrayList<Instruction>();
+	// The number of primitive fields stored for each Instruction in a decoded program
+	protected static final int DECODED_FIELDS = 4;
+	
+	// This Learner's program decoded into operation, mode, destination and source fields,
+	// stored one Instruction after another. It is rebuilt the next time the program runs
+	// after a mutation has changed the program, and null until then.
+	protected volatile int[] decodedProgram = null;
+	
+	// The number of runs after which a Learner's program is compiled to bytecode by the
+	// LearnerCompiler. Compiling and warming up a program is expensive, so only programs
+	// that run very often should be compiled. Setting this to 0 or less keeps every program
+	// in the interpreter.
+	public static int compileThreshold = 100000;
+	
+	// The number of times this Learner's program has been run by the interpreter. Threads sharing
+	// this Learner may lose increments or step over the threshold together, so the count is only
+	// compared with >= and compile() makes sure the program is compiled at most once.
+	protected int invocationCount = 0;
+	
+	// True once compiling this Learner's program has been tried, whether or not it worked
+	protected volatile boolean compileAttempted = false;
+	
+	// This Learner's program compiled to bytecode, or null if it hasn't been compiled
+	protected volatile CompiledProgram compiledProgram = null;
 	
 	// Reconstruct a learner with an atomic action: we can build it, we have the technology
-	public Learner( long ID, long birthday, long action, int nRefs, ArrayList<Instruction> program )
+	public Learner( long ID, long birthday, long action, int nRefs, long[] program )
 	{
 		this.ID = ID;
 		this.birthday = birthday;
 		this.action = new Action(action);
 		this.teamReferenceCount = nRefs;
 		this.program = program;
-		
-		// Initialize a new set of general purpose registers
-		registers = new double[REGISTERS];
+		this.programSize = program.length;
 	}
 	
 	// Reconstruct a learner with a Team action: we can build it, we have the technology
-	public Learner( long ID, long birthday, Team action, int nRefs, ArrayList<Instruction> program )
+	public Learner( long ID, long birthday, Team action, int nRefs, long[] program )
 	{
 		this.ID = ID;
 		this.birthday = birthday;
 		this.action = new Action(action);
 		this.teamReferenceCount = nRefs;
 		this.program = program;
-		
-		// Initialize a new set of general purpose registers
-		registers = new double[REGISTERS];
+		this.programSize = program.length;
 	}
 	
 	// Create a new learner, storing the time it was made, the action, and its maximum program size
 	public Learner( long gtime, long action, int maxProgSize )
+	{
+		this( gtime, action, maxProgSize, TPGAlgorithm.RNG );
+	}
+	
+	// Create a new learner as above, drawing its random program from the given generator
+	public Learner( long gtime, long action, int maxProgSize, RandomGenerator rng )
 	{
 		// Grab a unique ID and increment the counter
 		ID = count++;
@@ -69,37 +122,27 @@ public class Learner
 		// This Learner doesn't belong to any Teams yet
 		this.teamReferenceCount = 0;
 		
-		// Initialize a new set of general purpose registers
-		registers = new double[REGISTERS];
-		
-		// Create a new Instruction variable and make sure it's initialized to null
-		Instruction in = null;
-		
 		// Generate a program up to maxProgSize, with a minimum of 1 instruction.
-		int progSize = 1 + ((int)(TPGAlgorithm.RNG.nextDouble() * maxProgSize));
+		programSize = 1 + ((int)(rng.nextDouble() * maxProgSize));
+		program = new long[programSize];
 		
-		// Randomize progSize many instructions and store them as the current Learner's program
-		for( int i=0; i < progSize; i++ )
-		{
-			// Create a new empty Instruction (binary string of all 0's.
-			in = new Instruction();
-			
-			// There's a 50% chance for each bit to be set to 1.
-			// See the Instruction class for default lengths.
-			for( int j=0; j < in.size(); j++ )
-				if( TPGAlgorithm.RNG.nextDouble() < 0.5 )
-					in.flip(j);
-			
-			// Add the randomly generated instruction to the Learner's program
-			program.add(in);
-		}
+		// Randomize progSize many instructions and store them as the current Learner's program.
+		// See the Instruction class for default lengths.
+		for( int i=0; i < programSize; i++ )
+			program[i] = Instruction.newRandomValue( rng );
 	}
 		
 	// Create a new uniquely ID'd Learner which is otherwise a copy of another Learner
 	public Learner( long gtime, Learner other )
 	{
 		// Grab a unique ID and increment the counter
-		ID = count++;
+		this( count++, gtime, other );
+	}
+	
+	// Create a copy of another Learner with an ID which has already been reserved (see reserveIDs())
+	public Learner( long ID, long gtime, Learner other )
+	{
+		this.ID = ID;
 		
 		// Today is this Learner's birthday!
 		this.birthday = gtime;
@@ -110,12 +153,13 @@ public class Learner
 		// This Learner doesn't belong to any Teams yet
 		this.teamReferenceCount = 0;
 		
-		// Initialize a new set of general purpose registers
-		registers = new double[REGISTERS];
-		
-		// Copy the other Learner's program
-		for( Instruction in : other.program )
-			program.add( new Instruction(in) );
+		// Copy the other Learner's program. The decoded and compiled programs are never
+		// modified in place, so they can be shared until this copy is mutated.
+		program = Arrays.copyOf( other.program, other.programSize );
+		programSize = other.programSize;
+		decodedProgram = other.decodedProgram;
+		compiledProgram = other.compiledProgram;
+		compileAttempted = other.compileAttempted;
 		
 		// If the Learner we're copying is holding a pointer to a Team,
 		// we have to increment it here because this new Learner is
@@ -124,74 +168,260 @@ public class Learner
 			this.action.team.increaseReferences();
 	}
 	
-	// Calculate a bird from the feature set 
-	public double bid( double[] inputFeatures )
+	// Calculate a bird from the feature set, using this Learner's registers in the given context
+	public double bid( RegisterContext context, double[] inputFeatures )
 	{
-		// Make sure all the general purpose registers are set to 0.
-		// If you want to add simple memory, comment this for loop out!
-		//for( int i=0; i < registers.length; i++ )
-		//	registers[i] = 0;
+		// Registers are kept between bids, which gives Learners a simple memory.
+		// If you want every bid to start from zeroed registers, call context.reset() first!
+		int offset = context.offset( this );
 		
 		// Use the Learner's program to generate a bid and return it.
 		// Uses the formula: bid = 1/(1+e^x), where x is the program output.
 		// Throw the formula into Wolfram Alpha if you don't know what it looks like.
-		return 1 / ( 1 + Math.exp( -run( inputFeatures ) ) );
+		return 1 / ( 1 + Math.exp( -run( context.getRegisters(), offset, inputFeatures ) ) );
 	}
 	
-	// Run the program on the given input feature set and return a pre-bid output
-	protected double run( double[] inputFeatures )
+	// Calculate bids for a batch of input rows at once. The batch is made up of the rows
+	// rows[rowIndices[k]] for k < count, where count is at most BATCH_SIZE, and the bid
+	// for each of those rows is stored in bids[k]. The lanes are working space of
+	// BATCH_LANES arrays of length BATCH_SIZE.
+	//
+	// Every row starts from zeroed registers and no RegisterContext is touched, so each
+	// bid is what bid() would return for that row on fresh registers.
+	public void bid( double[][] rows, int[] rowIndices, int count, double[][] lanes, double[] bids )
 	{
-		Instruction mode;
-		Instruction operation;
+		runBatch( rows, rowIndices, count, lanes );
+		
+		// Register 0 holds the program output, so apply the bid formula to its lanes
+		for( int k=0; k < count; k++ )
+			bids[k] = 1 / ( 1 + Math.exp( -lanes[0][k] ) );
+	}
+	
+	// Run the program over a batch of input rows, one lane per row. Register r of row k is
+	// held in lanes[r][k]. Every operation is applied across all of the lanes before moving to
+	// the next instruction. Each register has an array of its own and the arithmetic loops have
+	// no branches, so the JIT can vectorize them. Results which are infinite or not a number are
+	// zeroed afterwards by zeroNonFinite(), just like in run().
+	protected void runBatch( double[][] rows, int[] rowIndices, int count, double[][] lanes )
+	{
+		// Retrieve the decoded program, decoding it first if the program has changed
+		int[] code = decodedProgram;
+		
+		if( code == null )
+			decodedProgram = code = decode();
+		
+		// Every row starts with zeroed registers
+		for( int r=0; r < REGISTERS; r++ )
+			Arrays.fill( lanes[r], 0, count, 0.0 );
+		
+		double[] destination;
+		double[] source;
+		double value;
+		
+		// For every decoded instruction in this Learner's program:
+		for( int i=0; i < code.length; i += DECODED_FIELDS )
+		{
+			// Find the lanes of the destination register
+			destination = lanes[ code[i+2] ];
+			
+			// Mode0 reads the source straight from a register's lanes. Otherwise the input
+			// feature of every row is gathered into the source lanes after the registers.
+			if( code[i+1] == Instruction.mode0_VALUE )
+			{
+				source = lanes[ code[i+3] ];
+			}
+			else
+			{
+				source = lanes[REGISTERS];
+				
+				for( int k=0; k < count; k++ )
+				{
+					double[] row = rows[ rowIndices[k] ];
+					source[k] = row[ code[i+3] % row.length ];
+				}
+			}
+			
+			// Perform the appropriate operation across every lane, zeroing
+			// any lane whose result is infinite or not a number
+			switch( code[i] )
+			{
+				case Instruction.SUM_VALUE:
+					for( int k=0; k < count; k++ )
+						destination[k] = destination[k] + source[k];
+					
+					zeroNonFinite( destination, count );
+					break;
+				case Instruction.DIFF_VALUE:
+					for( int k=0; k < count; k++ )
+						destination[k] = destination[k] - source[k];
+					
+					zeroNonFinite( destination, count );
+					break;
+				case Instruction.PROD_VALUE:
+					for( int k=0; k < count; k++ )
+						destination[k] = destination[k] * source[k];
+					
+					zeroNonFinite( destination, count );
+					break;
+				case Instruction.DIV_VALUE:
+					for( int k=0; k < count; k++ )
+						destination[k] = destination[k] / source[k];
+					
+					zeroNonFinite( destination, count );
+					break;
+				case Instruction.COS_VALUE:
+					for( int k=0; k < count; k++ )
+					{
+						value = Math.cos( source[k] );
+						destination[k] = Double.isInfinite(value) || Double.isNaN(value) ? 0 : value;
+					}
+					break;
+				case Instruction.LOG_VALUE:
+					for( int k=0; k < count; k++ )
+					{
+						value = Math.log( Math.abs(source[k]) );
+						destination[k] = Double.isInfinite(value) || Double.isNaN(value) ? 0 : value;
+					}
+					break;
+				case Instruction.EXP_VALUE:
+					for( int k=0; k < count; k++ )
+					{
+						value = Math.exp( source[k] );
+						destination[k] = Double.isInfinite(value) || Double.isNaN(value) ? 0 : value;
+					}
+					break;
+				case Instruction.COND_VALUE:
+					for( int k=0; k < count; k++ )
+					{
+						value = destination[k];
+						
+						if( value < source[k] )
+							destination[k] = value * -1;
+					}
+					break;
+				default:
+					throw new RuntimeException("Invalid Operation found in Learner.runBatch()");
+			}
+		}
+	}
+	
+	// Zero every lane which is infinite or not a number. Such lanes are rare, so the lanes are
+	// first checked without branching: adding the lowest exponent bit to the exponent bits of a
+	// lane only carries into the sign bit when every exponent bit is set, so the check is one OR
+	// per lane and the zeroing loop only runs when it finds a lane to zero.
+	protected static void zeroNonFinite( double[] lanes, int count )
+	{
+		long check = 0;
+		
+		for( int k=0; k < count; k++ )
+			check |= (Double.doubleToRawLongBits(lanes[k]) & EXPONENT_BITS) + EXPONENT_LOW_BIT;
+		
+		if( check >= 0 )
+			return;
+		
+		for( int k=0; k < count; k++ )
+			if( Double.isInfinite(lanes[k]) || Double.isNaN(lanes[k]) )
+				lanes[k] = 0;
+	}
+	
+	// Decode this Learner's program into a flat array of primitive fields. Each Instruction
+	// is stored as its operation, mode, destination register and source, in that order.
+	protected int[] decode()
+	{
+		int[] decoded = new int[programSize * DECODED_FIELDS];
+		
+		long value;
+		int mode;
+		int i = 0;
 		
-		int destinationRegister;
-		double sourceValue;
-
 		// For every instruction in this Learner's program:
-		for( Instruction instruction : program )
+		for( int j=0; j < programSize; j++ )
 		{
-			// Retrieve the mode register
-			mode = instruction.getModeRegister();
+			// Split the instruction into its sections once, so they never have to be extracted during a run
+			value = program[j];
+			mode = Instruction.getMode(value);
 			
-			// Retrieve the operation register
-			operation = instruction.getOperationRegister();
+			decoded[i++] = Instruction.getOperation(value);
+			decoded[i++] = mode;
+			decoded[i++] = Instruction.getDestination(value);
 			
+			// A register source can be reduced to a register index once here,
+			// but an input source depends on the size of the input feature set.
+			if( mode == Instruction.mode0_VALUE )
+				decoded[i++] = Instruction.getSource(value) % REGISTERS;
+			else
+				decoded[i++] = Instruction.getSource(value);
+		}
+		
+		return decoded;
+	}
+	
+	// Run the program on the given input feature set and return a pre-bid output. The
+	// registers are the REGISTERS doubles starting at offset in the registers array.
+	protected double run( double[] registers, int offset, double[] inputFeatures )
+	{
+		// If this program has been compiled, run the compiled version instead
+		CompiledProgram compiled = compiledProgram;
+		
+		if( compiled != null )
+			return compiled.run( registers, offset, inputFeatures );
+		
+		// Retrieve the decoded program, decoding it first if the program has changed
+		int[] code = decodedProgram;
+		
+		if( code == null )
+			decodedProgram = code = decode();
+		
+		// Once the program has been interpreted often enough, compile it for the runs after this one.
+		// If compilation fails, the program simply stays in the interpreter.
+		if( compileThreshold > 0 && !compileAttempted && ++invocationCount >= compileThreshold )
+			compile( code );
+		
+		int destinationRegister;
+		double sourceValue;
+
+		// For every decoded instruction in this Learner's program:
+		for( int i=0; i < code.length; i += DECODED_FIELDS )
+		{
 			// Retrieve the destination register
-			destinationRegister = (int) instruction.getDestinationRegister().getLongValue();
+			destinationRegister = offset + code[i+2];
 			
 			// Mode0 lets an instruction decide between using the input feature set or the general purpose registers
-			if( mode.equals( Instruction.mode0 ) )
-			{
-				sourceValue = registers[ (int) instruction.getSourceRegister().getLongValue() % REGISTERS ];
-			}
+			if( code[i+1] == Instruction.mode0_VALUE )
+				sourceValue = registers[ offset + code[i+3] ];
 			else
-			{
-				sourceValue = inputFeatures[ (int) (instruction.getSourceRegister().getLongValue() % inputFeatures.length) ];
-			}
+				sourceValue = inputFeatures[ code[i+3] % inputFeatures.length ];
 			
 			// Perform the appropriate operation
-			if( operation.equals( Instruction.SUM ) )
-				registers[destinationRegister] += sourceValue;
-			else if( operation.equals( Instruction.DIFF ) )
-				registers[destinationRegister] -= sourceValue;
-			else if( operation.equals( Instruction.PROD ) )
-				registers[destinationRegister] *= sourceValue;
-			else if( operation.equals( Instruction.DIV ) )
-				registers[destinationRegister] /= sourceValue;
-			else if( operation.equals( Instruction.COS ) )
-				registers[destinationRegister] = Math.cos( sourceValue );
-			else if( operation.equals( Instruction.LOG ) )
-				registers[destinationRegister] = Math.log( Math.abs(sourceValue) );
-			else if( operation.equals( Instruction.EXP ) )
-				registers[destinationRegister] = Math.exp( sourceValue );
-			else if( operation.equals( Instruction.COND ) )
-			{	
-				if( registers[destinationRegister] < sourceValue )
-					registers[destinationRegister] *= -1;
-			}					
-			else
-			{	
-				throw new RuntimeException("Invalid Operation found in Learner.run()");
+			switch( code[i] )
+			{
+				case Instruction.SUM_VALUE:
+					registers[destinationRegister] += sourceValue;
+					break;
+				case Instruction.DIFF_VALUE:
+					registers[destinationRegister] -= sourceValue;
+					break;
+				case Instruction.PROD_VALUE:
+					registers[destinationRegister] *= sourceValue;
+					break;
+				case Instruction.DIV_VALUE:
+					registers[destinationRegister] /= sourceValue;
+					break;
+				case Instruction.COS_VALUE:
+					registers[destinationRegister] = Math.cos( sourceValue );
+					break;
+				case Instruction.LOG_VALUE:
+					registers[destinationRegister] = Math.log( Math.abs(sourceValue) );
+					break;
+				case Instruction.EXP_VALUE:
+					registers[destinationRegister] = Math.exp( sourceValue );
+					break;
+				case Instruction.COND_VALUE:
+					if( registers[destinationRegister] < sourceValue )
+						registers[destinationRegister] *= -1;
+					break;
+				default:
+					throw new RuntimeException("Invalid Operation found in Learner.run()");
 			}
 			
 			// If the value of registers[destination] is infinite or not a number, zero it
@@ -200,12 +430,12 @@ public class Learner
 		}
 		
 		// Return the value of the first general purpose register
-		return registers[0];		
+		return registers[offset];		
 	}
 	
 	public int size()
 	{
-		return program.size();
+		return programSize;
 	}
 	
 	public long getID()
@@ -242,76 +472,136 @@ public class Learner
 	
 	// Perform various mutation operations to this Learner's program
 	public boolean mutateProgram( double programDelete, double programAdd, double programSwap, double programMutate, int maxProgramSize )
+	{
+		return mutateProgram( programDelete, programAdd, programSwap, programMutate, maxProgramSize, TPGAlgorithm.RNG );
+	}
+	
+	// Perform various mutation operations to this Learner's program, drawing from the given generator
+	public boolean mutateProgram( double programDelete, double programAdd, double programSwap, double programMutate, int maxProgramSize, RandomGenerator rng )
 	{
 		boolean changed = false;
 		int i = 0;
 		int j = 0;
 		
 		// Choose a random instruction from the program set and remove it.
-		if( program.size() > 1 && TPGAlgorithm.RNG.nextDouble() < programDelete )
+		if( programSize > 1 && rng.nextDouble() < programDelete )
 		{
-			i = (int) (TPGAlgorithm.RNG.nextDouble() * program.size());
-			program.remove(i);
+			i = (int) (rng.nextDouble() * programSize);
+			
+			// Shift every instruction after i down by one
+			System.arraycopy( program, i+1, program, i, programSize-i-1 );
+			programSize--;
 			
 			changed = true;
 		}
 		
 		// Insert a random instruction into the program set.
-		if( program.size() < maxProgramSize && TPGAlgorithm.RNG.nextDouble() < programAdd )
+		if( programSize < maxProgramSize && rng.nextDouble() < programAdd )
 		{
-			Instruction instruction = Instruction.newRandom();
+			long instruction = Instruction.newRandomValue( rng );
 			
-			i = (int) (TPGAlgorithm.RNG.nextDouble() * (program.size()+1) );
-			program.add( i, instruction );
+			i = (int) (rng.nextDouble() * (programSize+1) );
+			
+			// Grow the program array if it's full, then shift every instruction from i up by one
+			if( programSize == program.length )
+				program = Arrays.copyOf( program, programSize + (programSize >> 1) + 1 );
+			
+			System.arraycopy( program, i, program, i+1, programSize-i );
+			program[i] = instruction;
+			programSize++;
 			
 			changed = true;
 		}
 		
 		// Flip a single bit of a random instruction from the program set.
-		if( TPGAlgorithm.RNG.nextDouble() < programMutate )
+		if( rng.nextDouble() < programMutate )
 		{
-			i = (int) TPGAlgorithm.RNG.nextDouble() * program.size();
-			j = (int) TPGAlgorithm.RNG.nextDouble() * Instruction.INSTRUCTION_SIZE;
+			i = (int) rng.nextDouble() * programSize;
+			j = (int) rng.nextDouble() * Instruction.INSTRUCTION_SIZE;
 			
-			program.get(i).flip(j);
+			program[i] ^= 1L << j;
 			
 			changed = true;
 		}
 		
 		// Swap the positions of two instructions in the bid se.
-		if( program.size() > 1 && TPGAlgorithm.RNG.nextDouble() < programSwap )
+		if( programSize > 1 && rng.nextDouble() < programSwap )
 		{
-			i = (int) (TPGAlgorithm.RNG.nextDouble() * program.size());
+			i = (int) (rng.nextDouble() * programSize);
 			
 			// Keep randomizing a second integer until it's not equal to the first
 			do
 			{
-				j = (int) (TPGAlgorithm.RNG.nextDouble() * program.size());
+				j = (int) (rng.nextDouble() * programSize);
 			}
 			while( i == j );
 			
 			// Swap the two instructions
-			Instruction temp = program.get(i);
-			program.set(i, program.get(j));
-			program.set(j, temp);
+			long temp = program[i];
+			program[i] = program[j];
+			program[j] = temp;
 				
 			changed = true;
 		}
 		
+		// A changed program has to be decoded again before it next runs,
+		// and it starts over in the interpreter
+		if( changed )
+		{
+			decodedProgram = null;
+			discardCompiledProgram();
+		}
+		
 		// If this Learner's program was mutated, return true
 		return changed;		
 	}
 	
+	// Compile the decoded program, unless another thread already has or compiling it failed
+	protected synchronized void compile( int[] code )
+	{
+		if( compileAttempted )
+			return;
+		
+		compileAttempted = true;
+		compiledProgram = LearnerCompiler.compile( code );
+	}
+	
+	// Throw away the compiled version of this Learner's program, if there is one,
+	// and send the program back to the interpreter
+	public synchronized void discardCompiledProgram()
+	{
+		compiledProgram = null;
+		compileAttempted = false;
+		invocationCount = 0;
+	}
+	
+	// Release the resources held by a Learner which has been removed from the population:
+	// its compiled program and its compact index, which may then be given to a new Learner
+	public void erase()
+	{
+		discardCompiledProgram();
+		indices.release( index );
+	}
+	
 	// Increase the number of references to this Learner and return the new value
 	public int increaseReferences()
 	{
-		return ++teamReferenceCount;
+		return references.incrementAndGet( this );
 	}
 	
 	// Decrease the number of references to this Learner and return the new value
 	public int decreaseReferences()
 	{
-		return --teamReferenceCount;
+		return references.decrementAndGet( this );
+	}
+	
+	// Reserve a range of consecutive Learner IDs and return the first one, so that Learners
+	// created on other threads can be given IDs which don't depend on the order they're made in
+	public static synchronized long reserveIDs( int amount )
+	{
+		long first = count;
+		count += amount;
+		return first;
 	}
 	
 	// Return the number of references to this Team
@@ -329,21 +619,34 @@ public class Learner
 	// Return a string representation of this Learner,
 	// designed to be stored in a file.
 	public String storageOutput()
+	{
+		return storageOutput( teamReferenceCount );
+	}
+	
+	// Return the same representation with the given reference count in its place. The count
+	// changes as the population changes even though the Learner doesn't, so ModelStore stores 0.
+	public String storageOutput( int references )
 	{
 		// Provide the basic Learner information as the first line,
 		// followed by a single empty line
-		String out = ID + " " + birthday + " " + teamReferenceCount + " ";
-		out += (action.isAtomic() ? action.action : "T" + action.team.getID() );
-		out += "\n\n";
+		StringBuilder out = new StringBuilder();
+		out.append( ID ).append( ' ' ).append( birthday ).append( ' ' ).append( references ).append( ' ' );
+		
+		if( action.isAtomic() )
+			out.append( action.action );
+		else
+			out.append( 'T' ).append( action.team.getID() );
+		
+		out.append( "\n\n" );
 		
 		// For each Instruction in this Learner's program list,
 		// store the long value representation of the Instruction
 		// on its own line.
-		for( Instruction I: program )
-			out += I.getLongValue() + "\n";
+		for( int i=0; i < programSize; i++ )
+			out.append( program[i] ).append( '\n' );
 		
 		// Return the representative string
-		return out;
+		return out.toString();
 	}
 	
  	// Override of the Object.equals(Object) method.
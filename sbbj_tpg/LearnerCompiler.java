@@ -0,0 +1,402 @@
+package sbbj_tpg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+
+// Compiles decoded Learner programs into hidden classes, so that hot programs can run as
+// straight-line bytecode which HotSpot optimizes like any other method. The eight general
+// purpose registers are held in local variables and there is no per-instruction dispatch.
+//
+// The generated code contains no branches: conditional operations and the NaN/Infinity
+// zeroing are done by the small static helpers at the bottom of this class, which the JIT
+// inlines. This keeps the class files simple enough to write by hand without StackMapTables.
+public class LearnerCompiler
+{
+	// The number of Instructions compiled into each chunk method. HotSpot won't compile methods
+	// above 8000 bytes of bytecode, and large straight-line methods optimize poorly, so programs
+	// are split into chunks which each load the registers into locals, run their Instructions,
+	// and store the registers back. 64 Instructions per chunk was the fastest in our measurements.
+	protected static final int INSTRUCTIONS_PER_CHUNK = 64;
+	
+	// Internal names used by the generated classes
+	protected static final String CLASS_NAME = "sbbj_tpg/CompiledLearnerProgram";
+	protected static final String INTERFACE_NAME = "sbbj_tpg/CompiledProgram";
+	protected static final String COMPILER_NAME = "sbbj_tpg/LearnerCompiler";
+	protected static final String RUN_DESCRIPTOR = "([DI[D)D";
+	protected static final String CHUNK_DESCRIPTOR = "([DI[D)V";
+	
+	// JVM opcodes used by the generated code
+	protected static final int BIPUSH = 0x10;
+	protected static final int LDC_W = 0x13;
+	protected static final int DLOAD = 0x18;
+	protected static final int ILOAD_1 = 0x1b;
+	protected static final int ILOAD_2 = 0x1c;
+	protected static final int ALOAD_0 = 0x2a;
+	protected static final int ALOAD_1 = 0x2b;
+	protected static final int ALOAD_2 = 0x2c;
+	protected static final int ALOAD_3 = 0x2d;
+	protected static final int DALOAD = 0x31;
+	protected static final int DSTORE = 0x39;
+	protected static final int DASTORE = 0x52;
+	protected static final int DADD = 0x63;
+	protected static final int DSUB = 0x67;
+	protected static final int IADD = 0x60;
+	protected static final int DMUL = 0x6b;
+	protected static final int DDIV = 0x6f;
+	protected static final int IREM = 0x70;
+	protected static final int DRETURN = 0xaf;
+	protected static final int RETURN = 0xb1;
+	protected static final int INVOKESPECIAL = 0xb7;
+	protected static final int INVOKESTATIC = 0xb8;
+	protected static final int ARRAYLENGTH = 0xbe;
+	
+	// The Lookup used to define the hidden classes in this package
+	protected static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+	
+	// Compile a decoded program (see Learner.decode()) into a CompiledProgram. If the
+	// program can't be compiled for any reason, this returns null and the caller should
+	// keep using the interpreter.
+	public static CompiledProgram compile( int[] decodedProgram )
+	{
+		try
+		{
+			// Generate the class file and define it as a hidden class. Hidden classes are
+			// not strongly reachable from their class loader, so the class is unloaded as
+			// soon as the CompiledProgram instance is no longer referenced.
+			byte[] classFile = new LearnerCompiler().generate( decodedProgram );
+			MethodHandles.Lookup hidden = LOOKUP.defineHiddenClass( classFile, true );
+			
+			// Create the single instance of the new class
+			return (CompiledProgram) hidden.findConstructor( hidden.lookupClass(), MethodType.methodType(void.class) ).invoke();
+		}
+		catch( Throwable e )
+		{
+			return null;
+		}
+	}
+	
+	// The constant pool of the class file being generated, along with an index of its
+	// entries so that each constant is only stored once.
+	protected ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	protected DataOutputStream pool = new DataOutputStream( poolBytes );
+	protected HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+	protected int poolCount = 1;
+	
+	// Generate the class file for a decoded program
+	protected byte[] generate( int[] decodedProgram ) throws IOException
+	{
+		int instructions = decodedProgram.length / Learner.DECODED_FIELDS;
+		int chunks = Math.max( 1, (instructions + INSTRUCTIONS_PER_CHUNK - 1) / INSTRUCTIONS_PER_CHUNK );
+		
+		// Write the methods first, since they fill in the constant pool as they go
+		ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+		DataOutputStream methods = new DataOutputStream( methodBytes );
+		
+		// public <init>() { super(); }
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		code.write( ALOAD_0 );
+		writeMethodInstruction( code, INVOKESPECIAL, "java/lang/Object", "<init>", "()V" );
+		code.write( RETURN );
+		writeMethod( methods, 0x0001, "<init>", "()V", 1, 1, code );
+		
+		// public double run( double[] registers, int offset, double[] inputFeatures ) calls every chunk in order
+		code = new ByteArrayOutputStream();
+		for( int chunk=0; chunk < chunks; chunk++ )
+		{
+			code.write( ALOAD_1 );
+			code.write( ILOAD_2 );
+			code.write( ALOAD_3 );
+			writeMethodInstruction( code, INVOKESTATIC, CLASS_NAME, "chunk" + chunk, CHUNK_DESCRIPTOR );
+		}
+		
+		// Return the value of the first general purpose register
+		code.write( ALOAD_1 );
+		code.write( ILOAD_2 );
+		code.write( DALOAD );
+		code.write( DRETURN );
+		writeMethod( methods, 0x0001, "run", RUN_DESCRIPTOR, 4, 4, code );
+		
+		// private static void chunk#( double[] registers, int offset, double[] inputFeatures )
+		for( int chunk=0; chunk < chunks; chunk++ )
+		{
+			int start = chunk * INSTRUCTIONS_PER_CHUNK;
+			int end = Math.min( instructions, start + INSTRUCTIONS_PER_CHUNK );
+			
+			code = generateChunk( decodedProgram, start, end );
+			writeMethod( methods, 0x000A, "chunk" + chunk, CHUNK_DESCRIPTOR, 6, 3 + 2 * Learner.REGISTERS, code );
+		}
+		
+		// Resolve the class names before the constant pool is written out
+		int thisClass = classConstant( CLASS_NAME );
+		int superClass = classConstant( "java/lang/Object" );
+		int interfaceClass = classConstant( INTERFACE_NAME );
+		
+		// Put the class file together
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( classBytes );
+		
+		out.writeInt( 0xCAFEBABE );
+		out.writeShort( 0 );
+		out.writeShort( 52 );
+		out.writeShort( poolCount );
+		pool.flush();
+		poolBytes.writeTo( out );
+		
+		// final class CompiledLearnerProgram implements CompiledProgram
+		out.writeShort( 0x0030 );
+		out.writeShort( thisClass );
+		out.writeShort( superClass );
+		out.writeShort( 1 );
+		out.writeShort( interfaceClass );
+		
+		// No fields, 2 + chunks methods, no attributes
+		out.writeShort( 0 );
+		out.writeShort( 2 + chunks );
+		methods.flush();
+		methodBytes.writeTo( out );
+		out.writeShort( 0 );
+		
+		out.flush();
+		return classBytes.toByteArray();
+	}
+	
+	// Generate the body of a chunk method covering Instructions [start,end) of a decoded program.
+	// The registers array is local 0, the offset of the first register in it is local 1, the input
+	// features are local 2, and register i is held in the double local at slot 3+2i.
+	protected ByteArrayOutputStream generateChunk( int[] decodedProgram, int start, int end ) throws IOException
+	{
+		ByteArrayOutputStream code = new ByteArrayOutputStream();
+		
+		// Load every register into its local
+		for( int register=0; register < Learner.REGISTERS; register++ )
+		{
+			code.write( ALOAD_0 );
+			code.write( ILOAD_1 );
+			code.write( BIPUSH );
+			code.write( register );
+			code.write( IADD );
+			code.write( DALOAD );
+			code.write( DSTORE );
+			code.write( local(register) );
+		}
+		
+		for( int i=start * Learner.DECODED_FIELDS; i < end * Learner.DECODED_FIELDS; i += Learner.DECODED_FIELDS )
+		{
+			int operation = decodedProgram[i];
+			int mode = decodedProgram[i+1];
+			int destination = local( decodedProgram[i+2] );
+			int source = decodedProgram[i+3];
+			
+			// Operations that combine the destination with the source need the destination first
+			if( operation <= Instruction.DIV_VALUE || operation == Instruction.COND_VALUE )
+			{
+				code.write( DLOAD );
+				code.write( destination );
+			}
+			
+			// Push the source value, from the registers in mode 0 and from the input features otherwise
+			if( mode == Instruction.mode0_VALUE )
+			{
+				code.write( DLOAD );
+				code.write( local(source) );
+			}
+			else
+			{
+				code.write( ALOAD_2 );
+				writeShortInstruction( code, LDC_W, integerConstant(source) );
+				code.write( ALOAD_2 );
+				code.write( ARRAYLENGTH );
+				code.write( IREM );
+				code.write( DALOAD );
+			}
+			
+			// Perform the appropriate operation
+			switch( operation )
+			{
+				case Instruction.SUM_VALUE:
+					code.write( DADD );
+					break;
+				case Instruction.DIFF_VALUE:
+					code.write( DSUB );
+					break;
+				case Instruction.PROD_VALUE:
+					code.write( DMUL );
+					break;
+				case Instruction.DIV_VALUE:
+					code.write( DDIV );
+					break;
+				case Instruction.COS_VALUE:
+					writeMethodInstruction( code, INVOKESTATIC, "java/lang/Math", "cos", "(D)D" );
+					break;
+				case Instruction.LOG_VALUE:
+					writeMethodInstruction( code, INVOKESTATIC, "java/lang/Math", "abs", "(D)D" );
+					writeMethodInstruction( code, INVOKESTATIC, "java/lang/Math", "log", "(D)D" );
+					break;
+				case Instruction.EXP_VALUE:
+					writeMethodInstruction( code, INVOKESTATIC, "java/lang/Math", "exp", "(D)D" );
+					break;
+				case Instruction.COND_VALUE:
+					writeMethodInstruction( code, INVOKESTATIC, COMPILER_NAME, "condition", "(DD)D" );
+					break;
+				default:
+					throw new RuntimeException("Invalid Operation found in LearnerCompiler.generateChunk()");
+			}
+			
+			// If the result is infinite or not a number, zero it, then store it in the destination
+			writeMethodInstruction( code, INVOKESTATIC, COMPILER_NAME, "sanitize", "(D)D" );
+			code.write( DSTORE );
+			code.write( destination );
+		}
+		
+		// Store every register back into the registers array
+		for( int register=0; register < Learner.REGISTERS; register++ )
+		{
+			code.write( ALOAD_0 );
+			code.write( ILOAD_1 );
+			code.write( BIPUSH );
+			code.write( register );
+			code.write( IADD );
+			code.write( DLOAD );
+			code.write( local(register) );
+			code.write( DASTORE );
+		}
+		
+		code.write( RETURN );
+		return code;
+	}
+	
+	// The local variable slot holding a register inside a chunk method
+	protected static int local( int register )
+	{
+		return 3 + 2 * register;
+	}
+	
+	// Write a method_info structure with a single Code attribute
+	protected void writeMethod( DataOutputStream out, int access, String name, String descriptor, int maxStack, int maxLocals, ByteArrayOutputStream code ) throws IOException
+	{
+		out.writeShort( access );
+		out.writeShort( utf8Constant(name) );
+		out.writeShort( utf8Constant(descriptor) );
+		out.writeShort( 1 );
+		
+		// The Code attribute: stack and local sizes, the bytecode, no exception table, no attributes
+		out.writeShort( utf8Constant("Code") );
+		out.writeInt( 2 + 2 + 4 + code.size() + 2 + 2 );
+		out.writeShort( maxStack );
+		out.writeShort( maxLocals );
+		out.writeInt( code.size() );
+		code.writeTo( out );
+		out.writeShort( 0 );
+		out.writeShort( 0 );
+	}
+	
+	// Write an instruction which takes a two byte constant pool index
+	protected static void writeShortInstruction( ByteArrayOutputStream code, int opcode, int index )
+	{
+		code.write( opcode );
+		code.write( index >> 8 );
+		code.write( index );
+	}
+	
+	// Write a method invocation instruction
+	protected void writeMethodInstruction( ByteArrayOutputStream code, int opcode, String owner, String name, String descriptor ) throws IOException
+	{
+		writeShortInstruction( code, opcode, methodConstant(owner, name, descriptor) );
+	}
+	
+	// Return the constant pool index of a UTF8 constant, adding it if needed
+	protected int utf8Constant( String value ) throws IOException
+	{
+		Integer index = poolIndex.get( "U" + value );
+		
+		if( index == null )
+		{
+			pool.writeByte( 1 );
+			pool.writeUTF( value );
+			poolIndex.put( "U" + value, index = poolCount++ );
+		}
+		
+		return index;
+	}
+	
+	// Return the constant pool index of an Integer constant, adding it if needed
+	protected int integerConstant( int value ) throws IOException
+	{
+		Integer index = poolIndex.get( "I" + value );
+		
+		if( index == null )
+		{
+			pool.writeByte( 3 );
+			pool.writeInt( value );
+			poolIndex.put( "I" + value, index = poolCount++ );
+		}
+		
+		return index;
+	}
+	
+	// Return the constant pool index of a Class constant, adding it if needed
+	protected int classConstant( String name ) throws IOException
+	{
+		Integer index = poolIndex.get( "C" + name );
+		
+		if( index == null )
+		{
+			int nameIndex = utf8Constant( name );
+			pool.writeByte( 7 );
+			pool.writeShort( nameIndex );
+			poolIndex.put( "C" + name, index = poolCount++ );
+		}
+		
+		return index;
+	}
+	
+	// Return the constant pool index of a Methodref constant, adding it if needed
+	protected int methodConstant( String owner, String name, String descriptor ) throws IOException
+	{
+		String key = "M" + owner + "." + name + descriptor;
+		Integer index = poolIndex.get( key );
+		
+		if( index == null )
+		{
+			int classIndex = classConstant( owner );
+			int nameIndex = utf8Constant( name );
+			int descriptorIndex = utf8Constant( descriptor );
+			
+			// The NameAndType entry the Methodref points to
+			pool.writeByte( 12 );
+			pool.writeShort( nameIndex );
+			pool.writeShort( descriptorIndex );
+			int nameAndType = poolCount++;
+			
+			pool.writeByte( 10 );
+			pool.writeShort( classIndex );
+			pool.writeShort( nameAndType );
+			poolIndex.put( key, index = poolCount++ );
+		}
+		
+		return index;
+	}
+	
+	// Helper called by compiled code for the COND operation
+	static double condition( double destination, double source )
+	{
+		if( destination < source )
+			return destination * -1;
+		
+		return destination;
+	}
+	
+	// Helper called by compiled code after every Instruction:
+	// if the value is infinite or not a number, zero it.
+	static double sanitize( double value )
+	{
+		if( Double.isInfinite(value) || Double.isNaN(value) )
+			return 0;
+		
+		return value;
+	}
+}
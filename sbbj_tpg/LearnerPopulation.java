@@ -0,0 +1,11 @@
+package sbbj_tpg;
+
+// A population of Learners, indexed by each Learner's compact index
+public class LearnerPopulation extends Population<Learner>
+{
+	@Override
+	protected int indexOf( Learner learner )
+	{
+		return learner.index;
+	}
+}
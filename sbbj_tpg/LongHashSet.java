@@ -0,0 +1,140 @@
+package sbbj_tpg;
+
+import java.util.Arrays;
+
+// A set of long values, such as Learner or Team IDs, stored in an open addressing hash table.
+// Unlike a HashSet<Long>, nothing is boxed, so adding and checking values allocates nothing
+// once the set is large enough.
+public class LongHashSet
+{
+	// The value marking an empty slot in the table. The value itself is tracked separately.
+	protected static final long EMPTY = Long.MIN_VALUE;
+	
+	// The hash table, whose length is always a power of two
+	protected long[] keys;
+	
+	// The number of bits used to index the hash table
+	protected int bits;
+	
+	// The number of values in the set, including EMPTY if it has been added
+	protected int size = 0;
+	
+	// Whether the EMPTY value itself has been added to the set
+	protected boolean containsEmpty = false;
+	
+	// Create an empty set
+	public LongHashSet()
+	{
+		this( 16 );
+	}
+	
+	// Create an empty set with room for the expected number of values. It grows as needed.
+	public LongHashSet( int expectedSize )
+	{
+		// Keep the table at most half full, so probe sequences stay short
+		bits = 32 - Integer.numberOfLeadingZeros( Math.max(4, expectedSize * 2 - 1) );
+		keys = new long[1 << bits];
+		Arrays.fill( keys, EMPTY );
+	}
+	
+	// Add a value to the set. Returns true if it wasn't already in the set.
+	public boolean add( long value )
+	{
+		if( value == EMPTY )
+		{
+			if( containsEmpty )
+				return false;
+			
+			containsEmpty = true;
+			size++;
+			return true;
+		}
+		
+		// Find the value's slot, or the empty slot where it belongs
+		int mask = keys.length - 1;
+		int slot = hash( value );
+		
+		while( keys[slot] != EMPTY )
+		{
+			if( keys[slot] == value )
+				return false;
+			
+			slot = (slot + 1) & mask;
+		}
+		
+		keys[slot] = value;
+		size++;
+		
+		// Grow the table once it's half full
+		if( size * 2 > keys.length )
+			grow();
+		
+		return true;
+	}
+	
+	// Return true if the value is in the set
+	public boolean contains( long value )
+	{
+		if( value == EMPTY )
+			return containsEmpty;
+		
+		int mask = keys.length - 1;
+		int slot = hash( value );
+		
+		while( keys[slot] != EMPTY )
+		{
+			if( keys[slot] == value )
+				return true;
+			
+			slot = (slot + 1) & mask;
+		}
+		
+		return false;
+	}
+	
+	// Return the number of values in the set
+	public int size()
+	{
+		return size;
+	}
+	
+	// Remove every value from the set, keeping the table for reuse
+	public void clear()
+	{
+		Arrays.fill( keys, EMPTY );
+		containsEmpty = false;
+		size = 0;
+	}
+	
+	// Return the slot a value hashes to. Multiplying by the golden ratio spreads
+	// consecutive IDs over the table, and the top bits are the best mixed.
+	protected int hash( long value )
+	{
+		return (int)( (value * 0x9E3779B97F4A7C15L) >>> (64 - bits) );
+	}
+	
+	// Double the size of the hash table and put every value back into it
+	protected void grow()
+	{
+		long[] oldKeys = keys;
+		
+		bits++;
+		keys = new long[1 << bits];
+		Arrays.fill( keys, EMPTY );
+		
+		int mask = keys.length - 1;
+		
+		for( long value : oldKeys )
+		{
+			if( value == EMPTY )
+				continue;
+			
+			int slot = hash( value );
+			
+			while( keys[slot] != EMPTY )
+				slot = (slot + 1) & mask;
+			
+			keys[slot] = value;
+		}
+	}
+}
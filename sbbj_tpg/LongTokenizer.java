@@ -0,0 +1,89 @@
+package sbbj_tpg;
+
+// Reads whitespace separated long values straight out of the bytes of a file, such as the Team
+// and Learner files of a saved model. Unlike a Scanner, it doesn't use regular expressions or
+// build a String for every value, so parsing a file costs one pass over its bytes.
+public class LongTokenizer
+{
+	// The bytes being read, and the position of the next one
+	protected byte[] bytes;
+	protected int position = 0;
+	
+	// The name of what's being read, used in error messages
+	protected String source;
+	
+	// Read values from the given bytes
+	public LongTokenizer( byte[] bytes, String source )
+	{
+		this.bytes = bytes;
+		this.source = source;
+	}
+	
+	// Return true if there's another value to read
+	public boolean hasNext()
+	{
+		skipWhitespace();
+		return position < bytes.length;
+	}
+	
+	// Read a single character before the next value, such as the T marking a Team action.
+	// Returns true and moves past it if it's there, and returns false otherwise.
+	public boolean skip( char prefix )
+	{
+		skipWhitespace();
+		
+		if( position < bytes.length && bytes[position] == prefix )
+		{
+			position++;
+			return true;
+		}
+		
+		return false;
+	}
+	
+	// Read the next value. Like Long.parseLong(), the digits are added up as a negative value, so
+	// Long.MIN_VALUE can be read, and a value outside the range of a long is an error.
+	public long next()
+	{
+		skipWhitespace();
+		
+		boolean negative = position < bytes.length && bytes[position] == '-';
+		
+		if( negative )
+			position++;
+		
+		int start = position;
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		boolean overflow = false;
+		
+		while( position < bytes.length && bytes[position] >= '0' && bytes[position] <= '9' )
+		{
+			int digit = bytes[position++] - '0';
+			
+			// Keep reading the digits, so the error below points at the start of the value
+			if( value < limit / 10 || value * 10 < limit + digit )
+				overflow = true;
+			else
+				value = value * 10 - digit;
+		}
+		
+		if( overflow || position == start || (position < bytes.length && !isWhitespace(bytes[position])) )
+			throw new RuntimeException("Expected a number at byte " + start + " of " + source + ".");
+		
+		return negative ? value : -value;
+	}
+	
+	// Move past any whitespace
+	protected void skipWhitespace()
+	{
+		while( position < bytes.length && isWhitespace(bytes[position]) )
+			position++;
+	}
+	
+	// Return true for the whitespace found in model files
+	protected static boolean isWhitespace( byte b )
+	{
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+	}
+}
@@ -0,0 +1,38 @@
+package sbbj_tpg;
+
+// Decides which islands receive the migrants of each island when TPGIslands migrates Teams
+public interface MigrationTopology
+{
+	// Return the islands which receive copies of the given island's migrants
+	int[] destinations( int island, int islandCount );
+	
+	// Every island sends its migrants to the next island, and the last island sends them to the first
+	MigrationTopology RING = new MigrationTopology()
+	{
+		@Override
+		public int[] destinations( int island, int islandCount )
+		{
+			if( islandCount < 2 )
+				return new int[0];
+			
+			return new int[]{ (island + 1) % islandCount };
+		}
+	};
+	
+	// Every island sends its migrants to every other island
+	MigrationTopology FULLY_CONNECTED = new MigrationTopology()
+	{
+		@Override
+		public int[] destinations( int island, int islandCount )
+		{
+			int[] destinations = new int[Math.max(islandCount - 1, 0)];
+			int j = 0;
+			
+			for( int i=0; i < islandCount; i++ )
+				if( i != island )
+					destinations[j++] = i;
+			
+			return destinations;
+		}
+	};
+}
@@ -1,11 +1,20 @@
 package sbbj_tpg;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
 
 public class Miscellaneous
 {
 	public static final double EPSILON = 1/100000; // 1e-5
 	
+	// Shuffle a list in place with the Fisher-Yates algorithm, drawing from the given generator.
+	// Unlike Collections.shuffle( list ), the order depends only on the generator's state.
+	public static <T> void shuffle( List<T> list, RandomGenerator rng )
+	{
+		for( int i=list.size() - 1; i > 0; i-- )
+			Collections.swap( list, i, rng.nextInt( i + 1 ) );
+	}
+	
 	// Get Euclidean Distance Squared between two double arrays
 	public static double euclideanDistSqrd( Double[] x, Double[] y, int dim )
 	{
@@ -72,42 +81,41 @@ public class Miscellaneous
 		return true;
 	}
 	
-	// Get the intersection of two Learner array lists
+	// Get the intersection of two Learner array lists. Learners are compared by ID (see Learner.equals()),
+	// so the IDs are kept in primitive hash sets and the lists are only walked once each.
 	public static ArrayList<Learner> intersectionLearner( ArrayList<Learner> first, ArrayList<Learner> second )
 	{
 		ArrayList<Learner> newList = new ArrayList<Learner>();
 		
+		LongHashSet secondIDs = learnerIDs( second );
+		LongHashSet added = new LongHashSet( first.size() );
+		
+		// Keep every Learner from the first list which is also in the second, in the first list's order
 		for( Learner learner : first )
-			if( second.contains(learner) && !newList.contains(learner) )
+			if( secondIDs.contains(learner.ID) && added.add(learner.ID) )
 				newList.add(learner);
 		
 		return newList;
 	}
 	
-	// Get the difference of two Learner array lists
+	// Get the difference of two Learner array lists. That is, every Learner found in only one of
+	// the lists, in the order they first appear in the first list followed by the second.
 	public static ArrayList<Learner> symmetricDifferenceLearner( ArrayList<Learner> first, ArrayList<Learner> second )
 	{
 		ArrayList<Learner> newList = new ArrayList<Learner>();
-		ArrayList<Learner> newList2 = null;
 		
-		newList.addAll(first);
-		newList.addAll(second);
+		LongHashSet firstIDs = learnerIDs( first );
+		LongHashSet secondIDs = learnerIDs( second );
+		LongHashSet added = new LongHashSet( first.size() + second.size() );
 		
-		newList2  = new ArrayList<Learner>(newList);
-		
-		for( Learner learner : newList )
-		{
-			if( first.contains(learner) && second.contains( learner ) )
-			{
-				while( newList2.contains(learner) )
-					newList2.remove(learner);
-			}			
-		}
-		
-		newList = new ArrayList<Learner>();
+		// Keep the Learners from the first list which aren't in the second
+		for( Learner learner : first )
+			if( !secondIDs.contains(learner.ID) && added.add(learner.ID) )
+				newList.add(learner);
 		
-		for( Learner learner : newList2 )
-			if( !newList.contains(learner) )
+		// Then the Learners from the second list which aren't in the first
+		for( Learner learner : second )
+			if( !firstIDs.contains(learner.ID) && added.add(learner.ID) )
 				newList.add(learner);
 		
 		return newList;
@@ -128,28 +136,45 @@ public class Miscellaneous
 		if( one.isEmpty() && two.isEmpty() )
 			return true;
 		
-		// We first make a copy of the lists because Collections.sort() works in-place (modifies the original list)
-		one = new ArrayList<Learner>(one);
-		two = new ArrayList<Learner>(two);
-		
-		// Sort the first list with a custom comparator
-	    Collections.sort(one, new Comparator<Learner>() {
-	    	@Override
-	    	public int compare( Learner a, Learner b ) {
-	    		return ( a.ID == b.ID ? 0 : ( a.ID < b.ID ? -1 : 1 )); 
-	    	}
-	    });
-	    
-	    // Sort the second list with a custom comparator
-	    Collections.sort(two, new Comparator<Learner>() {
-	    	@Override
-	    	public int compare( Learner a, Learner b ) {
-	    		return ( a.ID == b.ID ? 0 : ( a.ID < b.ID ? -1 : 1 )); 
-	    	}
-	    });
-	    
-	    // Return true if the lists are equal to each other
-	    return one.equals(two);
+		LongHashSet oneIDs = learnerIDs( one );
+		
+		// Team Learner lists never hold the same Learner twice. If one of these does, compare
+		// the sorted IDs instead, so that repeated Learners are counted properly.
+		if( oneIDs.size() < one.size() )
+			return Arrays.equals( sortedLearnerIDs(one), sortedLearnerIDs(two) );
+		
+		// Otherwise the lists are equal if every Learner in the second list is in the first and
+		// none of them repeats, since then both lists hold the same number of distinct Learners.
+		LongHashSet twoIDs = new LongHashSet( two.size() );
+		
+		for( Learner learner : two )
+			if( !oneIDs.contains(learner.ID) || !twoIDs.add(learner.ID) )
+				return false;
+		
+		return true;
+	}
+	
+	// Return a set holding the IDs of every Learner in a list
+	public static LongHashSet learnerIDs( List<Learner> list )
+	{
+		LongHashSet ids = new LongHashSet( list.size() );
+		
+		for( Learner learner : list )
+			ids.add( learner.ID );
+		
+		return ids;
+	}
+	
+	// Return the IDs of every Learner in a list, sorted in ascending order
+	public static long[] sortedLearnerIDs( List<Learner> list )
+	{
+		long[] ids = new long[list.size()];
+		
+		for( int i=0; i < ids.length; i++ )
+			ids[i] = list.get(i).ID;
+		
+		Arrays.sort( ids );
+		return ids;
 	}
 
 	// Return true if there is an atomic action present in the list
@@ -205,42 +230,24 @@ public class Miscellaneous
 		if( teams.size() <= 1 )
 			return true;
 			
-		// Create a list to store the individual values
-		ArrayList<Double> outcomeValues = new ArrayList<Double>();
-
 		// Since we're working with single outcomes per Team, extract the single values from the map
+		double[] scores = new double[teams.size()];
+		
 		for( int i=0; i < teams.size(); i++ )
-		{
-			outcomeValues.add( outcomes.get(teams.get(i)).get(0) );
-		}
-		
-		// Now do a shitty bubble sort! You can change this to something else, but for 450 elements it's still fast and easy to write.
-		// Want to know why I do this? Here:
-		//		1. 	Sorting a map with built-in things sucks. We can use a Tree Map by taking our outcomes map and swapping the key/value pair.
-		//			So in the hash map we take key->value and switch it in the tree map to value->key. That would auto-sort it for us.
-		//		   	However, if two keys have the same value then one will get overwritten and lost. Bad idea.
-		//		2.	We could sort using built-in list algorithms, but they'll never keep the connection between key and value so that's out.
-		//		3.	I'm lazy and don't feel like writing a better sorting algorithm. Sue me. This will probably happen twice per "generation"
-		//			and only really slows down if you're using thousands and thousands of Teams, which rarely happens.		
-	    Team tempTeam = null;
-		double tempDouble = 0;
-
-	    for( int i=0; i < outcomeValues.size(); i++ ) 
-	    {
-	        for( int j=1; j < (outcomeValues.size() - i); j++ ) 
-	        {
-	            if( (tempDouble = outcomeValues.get(j-1)) < outcomeValues.get(j) ) 
-	            {
-	            	outcomeValues.set(j-1,outcomeValues.get(j));
-	            	outcomeValues.set(j,tempDouble);
-	            	
-	            	tempTeam = teams.get(j-1);
-	            	teams.set(j-1,teams.get(j));
-	            	teams.set(j,tempTeam);
-	            }
-	        }
-	    }
-	    
+			scores[i] = outcomes.get(teams.get(i)).get(0);
+		
+		// Rank the Teams, highest outcome first, keeping Teams with equal outcomes in their current order
+		int[] order = new TeamRanking( scores ).sort();
+		
+		ArrayList<Team> ranked = new ArrayList<Team>( teams.size() );
+		
+		for( int i=0; i < order.length; i++ )
+			ranked.add( teams.get(order[i]) );
+		
+		// Put the Teams back into the list in rank order
+		for( int i=0; i < ranked.size(); i++ )
+			teams.set( i, ranked.get(i) );
+		
 	    // We finished, so return true
 	    return true;
 	}
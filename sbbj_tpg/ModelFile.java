@@ -0,0 +1,293 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+
+// Stores a whole model in one binary file, so TPGPlay can start from a single memory-mapped
+// read instead of opening and tokenizing a text file for every Team and Learner. Every record
+// has a fixed size and every reference is a position in a table rather than an ID, so loading
+// needs no lookups: Teams are created first, then every Learner takes its program from the
+// packed instruction section with one bulk read and points straight to its Team, and finally
+// every Team takes its Learners from the member table.
+//
+// The layout is, with every offset counted in bytes from the start of the file:
+//
+//   header:        int MAGIC, int VERSION, int teamCount, int learnerCount, int memberCount,
+//                  int root Team position, long instructionCount, long team table offset,
+//                  long learner table offset, long member table offset, long instruction offset
+//   team table:    for each Team: long ID, long birthday, int first member, int memberCount
+//   learner table: for each Learner: long ID, long birthday, long action, int Team position
+//                  or -1 for an atomic action, int programSize, long first instruction
+//   member table:  for each Team in turn, the positions of its Learners as ints
+//   instructions:  every Learner's program, one after the other, as longs
+//
+// Files are written with write() or converted from a model folder with convert(), which is also
+// run by main(), and read with read(). TPGPlay reads a model file whenever it's given a file
+// rather than a folder.
+public class ModelFile
+{
+	// Marks a model file, and the version of its layout
+	protected static final int MAGIC = 0x5450474D;
+	protected static final int VERSION = 1;
+	
+	// The size of the header and of every Team and Learner record
+	protected static final int HEADER_SIZE = 64;
+	protected static final int TEAM_SIZE = 24;
+	protected static final int LEARNER_SIZE = 40;
+	
+	// Convert a model folder to a model file: java sbbj_tpg.ModelFile <model folder> <model file>
+	public static void main( String[] args )
+	{
+		if( args.length != 2 )
+		{
+			System.err.println("Usage: java sbbj_tpg.ModelFile <model folder> <model file>");
+			System.exit(1);
+		}
+		
+		convert( args[0], args[1] );
+	}
+	
+	// Read the model in a folder, saved either by saveBestTeam() or in a ModelStore, and write it
+	// to a model file
+	public static void convert( String modelFolder, String file )
+	{
+		Team root = new TPGPlay( modelFolder ).team;
+		
+		if( root == null )
+			throw new RuntimeException("Could not read the model in " + modelFolder + ".");
+		
+		write( root, file );
+	}
+	
+	// Write a root Team and everything it reaches to a model file. The file is written to a
+	// temporary file first, so a model file being read is never left half written.
+	public static void write( Team root, String file )
+	{
+		// Number every Team and Learner attached to the root Team, which comes first
+		LinkedHashSet<Team> teamSet = new LinkedHashSet<Team>();
+		LinkedHashSet<Learner> learnerSet = new LinkedHashSet<Learner>();
+		
+		root.findAllTeams( teamSet );
+		
+		HashMap<Team, Integer> teamPositions = new HashMap<Team, Integer>();
+		HashMap<Learner, Integer> learnerPositions = new HashMap<Learner, Integer>();
+		long memberCount = 0;
+		long instructionCount = 0;
+		
+		for( Team team : teamSet )
+		{
+			teamPositions.put( team, teamPositions.size() );
+			memberCount += team.size();
+			
+			for( Learner learner : team.getLearners() )
+				if( learnerSet.add(learner) )
+				{
+					learnerPositions.put( learner, learnerPositions.size() );
+					instructionCount += learner.programSize;
+				}
+		}
+		
+		long teamTable = HEADER_SIZE;
+		long learnerTable = teamTable + (long)TEAM_SIZE * teamSet.size();
+		long memberTable = learnerTable + (long)LEARNER_SIZE * learnerSet.size();
+		long instructions = memberTable + 4 * memberCount;
+		long size = instructions + 8 * instructionCount;
+		
+		if( size > Integer.MAX_VALUE )
+			throw new RuntimeException("The model is too large for a model file.");
+		
+		ByteBuffer out = ByteBuffer.allocate( (int)size );
+		
+		out.putInt( MAGIC );
+		out.putInt( VERSION );
+		out.putInt( teamSet.size() );
+		out.putInt( learnerSet.size() );
+		out.putInt( (int)memberCount );
+		out.putInt( 0 );
+		out.putLong( instructionCount );
+		out.putLong( teamTable );
+		out.putLong( learnerTable );
+		out.putLong( memberTable );
+		out.putLong( instructions );
+		
+		int firstMember = 0;
+		
+		for( Team team : teamSet )
+		{
+			out.putLong( team.getID() );
+			out.putLong( team.getBirthday() );
+			out.putInt( firstMember );
+			out.putInt( team.size() );
+			
+			firstMember += team.size();
+		}
+		
+		long firstInstruction = 0;
+		
+		for( Learner learner : learnerSet )
+		{
+			Action action = learner.getActionObject();
+			
+			out.putLong( learner.getID() );
+			out.putLong( learner.getBirthday() );
+			out.putLong( action.isAtomic() ? action.action : 0 );
+			out.putInt( action.isAtomic() ? -1 : teamPositions.get(action.team) );
+			out.putInt( learner.programSize );
+			out.putLong( firstInstruction );
+			
+			firstInstruction += learner.programSize;
+		}
+		
+		for( Team team : teamSet )
+			for( Learner learner : team.getLearners() )
+				out.putInt( learnerPositions.get(learner) );
+		
+		for( Learner learner : learnerSet )
+			for( int i=0; i < learner.programSize; i++ )
+				out.putLong( learner.program[i] );
+		
+		out.flip();
+		
+		Path path = Paths.get( file );
+		Path temporary = Paths.get( file + ".tmp" );
+		
+		try( FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) )
+		{
+			while( out.hasRemaining() )
+				channel.write( out );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not write the model file " + file + ".", e);
+		}
+		
+		try
+		{
+			Files.move( temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not replace the model file " + file + ".", e);
+		}
+	}
+	
+	// Map a model file into memory and build its Teams and Learners, returning the root Team
+	public static Team read( String file )
+	{
+		MappedByteBuffer in = null;
+		
+		// The mapping stays valid after the channel is closed
+		try( FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ) )
+		{
+			if( channel.size() > Integer.MAX_VALUE )
+				throw new RuntimeException("The model file " + file + " is too large.");
+			
+			in = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not read the model file " + file + ".", e);
+		}
+		
+		try
+		{
+			return read( in );
+		}
+		catch( IndexOutOfBoundsException | IllegalArgumentException e )
+		{
+			throw new RuntimeException("The model file " + file + " is cut short.", e);
+		}
+	}
+	
+	// Build the Teams and Learners held in a model file's bytes, returning the root Team
+	protected static Team read( ByteBuffer in )
+	{
+		if( in.getInt(0) != MAGIC )
+			throw new RuntimeException("This file is not a TPG model file.");
+		
+		int version = in.getInt( 4 );
+		
+		if( version != VERSION )
+			throw new RuntimeException("Model file version " + version + " is not supported.");
+		
+		int teamCount = in.getInt( 8 );
+		int learnerCount = in.getInt( 12 );
+		int memberCount = in.getInt( 16 );
+		int root = in.getInt( 20 );
+		long instructionCount = in.getLong( 24 );
+		int teamTable = (int)in.getLong( 32 );
+		int learnerTable = (int)in.getLong( 40 );
+		int memberTable = (int)in.getLong( 48 );
+		int instructionOffset = (int)in.getLong( 56 );
+		
+		if( root < 0 || root >= teamCount )
+			throw new RuntimeException("The root Team of a model file is outside its Team table.");
+		
+		// A view of the instruction section, so every program is copied with one bulk read
+		LongBuffer instructions = in.duplicate().position( instructionOffset ).slice().asLongBuffer();
+		
+		if( instructions.capacity() < instructionCount )
+			throw new IndexOutOfBoundsException();
+		
+		Team[] teams = new Team[teamCount];
+		
+		for( int i=0; i < teamCount; i++ )
+		{
+			int record = teamTable + i * TEAM_SIZE;
+			teams[i] = new Team( in.getLong(record), in.getLong(record + 8), 0 );
+		}
+		
+		Learner[] learners = new Learner[learnerCount];
+		
+		for( int i=0; i < learnerCount; i++ )
+		{
+			int record = learnerTable + i * LEARNER_SIZE;
+			
+			long id = in.getLong( record );
+			long birthday = in.getLong( record + 8 );
+			int team = in.getInt( record + 24 );
+			int programSize = in.getInt( record + 28 );
+			long firstInstruction = in.getLong( record + 32 );
+			
+			if( programSize < 0 || firstInstruction < 0 || firstInstruction + programSize > instructionCount )
+				throw new RuntimeException("The program of Learner " + id + " is outside the instruction section.");
+			
+			long[] program = new long[programSize];
+			instructions.get( (int)firstInstruction, program );
+			
+			if( team < 0 )
+				learners[i] = new Learner( id, birthday, in.getLong(record + 16), 0, program );
+			else if( team < teamCount )
+				learners[i] = new Learner( id, birthday, teams[team], 0, program );
+			else
+				throw new RuntimeException("Learner " + id + " points to a Team outside the Team table.");
+		}
+		
+		for( int i=0; i < teamCount; i++ )
+		{
+			int record = teamTable + i * TEAM_SIZE;
+			int firstMember = in.getInt( record + 16 );
+			int size = in.getInt( record + 20 );
+			
+			if( firstMember < 0 || size < 0 || (long)firstMember + size > memberCount )
+				throw new RuntimeException("The Learners of Team " + teams[i].getID() + " are outside the member table.");
+			
+			for( int j=0; j < size; j++ )
+			{
+				int learner = in.getInt( memberTable + 4 * (firstMember + j) );
+				
+				if( learner < 0 || learner >= learnerCount )
+					throw new RuntimeException("Team " + teams[i].getID() + " holds a Learner outside the Learner table.");
+				
+				teams[i].addLearner( learners[learner] );
+			}
+		}
+		
+		return teams[root];
+	}
+}
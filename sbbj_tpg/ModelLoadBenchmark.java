@@ -0,0 +1,151 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class ModelLoadBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		// A child JVM started below, which loads one model and prints how long it took
+		if( args.length == 2 && args[0].equals("load") )
+		{
+			long start = System.nanoTime();
+			TPGPlay play = new TPGPlay( args[1] );
+			long time = System.nanoTime() - start;
+			
+			if( play.team == null )
+				throw new RuntimeException("Could not load " + args[1] + ".");
+			
+			System.out.println(time);
+			return;
+		}
+		
+		// The size of the model to load
+		int teamCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int teamSize = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int runs = 5;
+		
+		Team root = buildModel( teamCount, teamSize, new Random(1) );
+		
+		Path directory = Files.createTempDirectory( "tpg-model" );
+		String folder = directory + "/folder/";
+		String file = directory + "/model.tpg";
+		
+		long start = System.nanoTime();
+		new ModelWriter.Model( root, folder ).write();
+		System.out.println("Folder written in " + ((System.nanoTime() - start) / 1000000.0) + " ms");
+		
+		start = System.nanoTime();
+		ModelFile.write( root, file );
+		System.out.println("Model file written in " + ((System.nanoTime() - start) / 1000000.0) + " ms, " + new File(file).length() + " bytes");
+		
+		// Cold start: every load runs in a fresh JVM, as when a serving replica starts up
+		System.out.println("Teams: " + teamCount + ", Learners: " + (teamCount * teamSize) + ", cold start over " + runs + " JVMs");
+		System.out.println("  Folder: " + coldStart(folder, runs));
+		System.out.println("  Model file: " + coldStart(file, runs));
+		
+		// Warm: load repeatedly in this JVM once the loading code has been compiled
+		System.out.println("Warm, mean of 10 loads after 5 warm-up loads");
+		System.out.println("  Folder: " + warm(folder) + " ms");
+		System.out.println("  Model file: " + warm(file) + " ms");
+		
+		// Both formats must give back a model which plays the same way
+		TPGPlay fromFolder = new TPGPlay( folder );
+		TPGPlay fromFile = new TPGPlay( file );
+		Random random = new Random( 2 );
+		int mismatches = 0;
+		
+		for( int i=0; i < 1000; i++ )
+		{
+			double[] features = new double[10];
+			
+			for( int j=0; j < features.length; j++ )
+				features[j] = random.nextGaussian();
+			
+			if( fromFolder.participate(features) != fromFile.participate(features) )
+				mismatches++;
+		}
+		
+		System.out.println("Mismatched actions: " + mismatches);
+		
+		delete( directory.toFile() );
+	}
+	
+	// Build a root Team and a chain of Teams below it. Every Team has one Learner with an atomic
+	// action, one pointing to the next Team, and a mix of both for the rest.
+	public static Team buildModel( int teamCount, int teamSize, Random random )
+	{
+		Team[] teams = new Team[teamCount];
+		
+		for( int i=teamCount - 1; i >= 0; i-- )
+		{
+			teams[i] = new Team( 0 );
+			
+			for( int j=0; j < teamSize; j++ )
+			{
+				Learner learner = new Learner( 0, random.nextInt(10), 96, random );
+				
+				if( i + 1 < teamCount && (j == 1 || (j > 1 && random.nextInt(10) < 3)) )
+				{
+					int target = j == 1 ? i + 1 : i + 1 + random.nextInt(teamCount - i - 1);
+					learner.mutateAction( new Action(teams[target]) );
+				}
+				
+				teams[i].addLearner( learner );
+			}
+		}
+		
+		return teams[0];
+	}
+	
+	// Load a model in fresh JVMs and describe the fastest and median load times
+	public static String coldStart( String model, int runs ) throws Exception
+	{
+		long[] times = new long[runs];
+		
+		for( int i=0; i < runs; i++ )
+		{
+			Process process = new ProcessBuilder( System.getProperty("java.home") + "/bin/java", "-cp", System.getProperty("java.class.path"), "sbbj_tpg.ModelLoadBenchmark", "load", model ).redirectErrorStream( true ).start();
+			
+			BufferedReader reader = new BufferedReader( new InputStreamReader(process.getInputStream()) );
+			String output = reader.readLine();
+			
+			if( process.waitFor() != 0 )
+				throw new RuntimeException("Loading " + model + " failed: " + output);
+			
+			times[i] = Long.parseLong( output.trim() );
+		}
+		
+		Arrays.sort( times );
+		
+		return "fastest " + (times[0] / 1000000.0) + " ms, median " + (times[runs / 2] / 1000000.0) + " ms";
+	}
+	
+	// Return the mean time in milliseconds of loading a model in this JVM
+	public static double warm( String model )
+	{
+		for( int i=0; i < 5; i++ )
+			new TPGPlay( model );
+		
+		long start = System.nanoTime();
+		
+		for( int i=0; i < 10; i++ )
+			new TPGPlay( model );
+		
+		return (System.nanoTime() - start) / 10 / 1000000.0;
+	}
+	
+	// Delete a file, or a folder and everything in it
+	public static void delete( File file )
+	{
+		File[] children = file.listFiles();
+		
+		if( children != null )
+			for( File child : children )
+				delete( child );
+		
+		file.delete();
+	}
+}
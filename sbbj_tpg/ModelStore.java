@@ -0,0 +1,374 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+// Saves the best Team of every generation into a content-addressed store, so a Team or Learner
+// which is part of many saved models is only written once. Every Team and Learner is stored in
+// objects/<hash>.txt under the run folder, where the hash is the SHA-1 of the object's file text,
+// and each saved generation gets a small manifest, generation_<N>/manifest.txt, which lists the
+// root Team's ID followed by the ID and hash of every Team and Learner it reaches. Objects which
+// are already stored are never written again, and when the champion is the same as in the last
+// saved generation nothing is written at all, so the disk space and time used by saving grow
+// with how much of the champion is new rather than with the number of generations.
+//
+// Object files hold the same text as the files read by TPGPlay.loadModel(), except that reference
+// counts are stored as 0, since they change while the Team or Learner itself doesn't. A model is
+// read back with load(), which TPGPlay uses whenever a folder holds a manifest.
+public class ModelStore
+{
+	// The run folder, ending with a separator
+	protected String folder;
+	
+	// The hash of every object known to be on disk. An object only counts once its file has
+	// been written, so one whose write failed is written again by the next save needing it.
+	protected HashSet<String> stored = new HashSet<String>();
+	
+	// The text of the last manifest saved, or null if nothing has been saved yet
+	protected String lastManifest = null;
+	
+	// The number of objects written, the number found already stored, and the number of saves skipped
+	protected long objectsWritten = 0;
+	protected long objectsReused = 0;
+	protected long savesSkipped = 0;
+	
+	// Hashes the text of every object
+	protected MessageDigest digest;
+	
+	// Create a store in the given run folder. Objects stored there by an earlier run, such as
+	// the one a checkpoint was written in, are reused rather than written again.
+	public ModelStore( String folder )
+	{
+		this.folder = folder.endsWith("/") ? folder : folder + "/";
+		
+		try
+		{
+			digest = MessageDigest.getInstance( "SHA-1" );
+		}
+		catch( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException("SHA-1 is needed to hash the objects of a model store.", e);
+		}
+		
+		File[] objects = new File( this.folder + "objects" ).listFiles();
+		
+		if( objects != null )
+			for( File object : objects )
+				if( object.getName().endsWith(".txt") )
+					stored.add( object.getName().substring(0, object.getName().length() - 4) );
+	}
+	
+	// Return the run folder, ending with a separator
+	public String getFolder()
+	{
+		return folder;
+	}
+	
+	// Return the files needed to save a root Team as the model of the given generation: the
+	// objects which aren't stored yet, followed by the manifest, so a manifest never reaches the
+	// disk before its objects. Returns null, and saves nothing, if the model is the same as the
+	// last one saved. The files are only text, so they can be written later by a ModelWriter.
+	// Objects still waiting to be written by an earlier save are included again, and skipped
+	// when this save is written if the earlier one wrote them.
+	public synchronized ModelWriter.Model snapshot( Team root, long generation )
+	{
+		// Find every Team and Learner attached to the root Team
+		LinkedHashSet<Team> teamSet = new LinkedHashSet<Team>();
+		LinkedHashSet<Learner> learnerSet = new LinkedHashSet<Learner>();
+		
+		root.findAllTeams( teamSet );
+		
+		for( Team team : teamSet )
+			learnerSet.addAll( team.getLearners() );
+		
+		// The text and hash of every object, in manifest order
+		ArrayList<String> texts = new ArrayList<String>( teamSet.size() + learnerSet.size() );
+		ArrayList<String> hashes = new ArrayList<String>( teamSet.size() + learnerSet.size() );
+		
+		StringBuilder manifest = new StringBuilder();
+		manifest.append( root.getID() ).append( '\n' );
+		
+		for( Team team : teamSet )
+		{
+			texts.add( team.storageOutput(0) );
+			hashes.add( hash(texts.get(texts.size() - 1)) );
+			manifest.append( "T " ).append( team.getID() ).append( ' ' ).append( hashes.get(hashes.size() - 1) ).append( '\n' );
+		}
+		
+		for( Learner learner : learnerSet )
+		{
+			texts.add( learner.storageOutput(0) );
+			hashes.add( hash(texts.get(texts.size() - 1)) );
+			manifest.append( "L " ).append( learner.getID() ).append( ' ' ).append( hashes.get(hashes.size() - 1) ).append( '\n' );
+		}
+		
+		// An unchanged champion needs nothing new on disk
+		if( manifest.toString().equals(lastManifest) )
+		{
+			savesSkipped++;
+			return null;
+		}
+		
+		lastManifest = manifest.toString();
+		
+		StoreModel model = new StoreModel( generation );
+		
+		for( int i=0; i < texts.size(); i++ )
+		{
+			if( stored.contains(hashes.get(i)) )
+			{
+				objectsReused++;
+				continue;
+			}
+			
+			model.addObject( hashes.get(i), texts.get(i) );
+		}
+		
+		model.add( "generation_" + generation + "/manifest.txt", lastManifest );
+		
+		return model;
+	}
+	
+	// Return the number of objects written to the store so far
+	public synchronized long getObjectsWritten()
+	{
+		return objectsWritten;
+	}
+	
+	// Return the number of objects saved models shared with objects already in the store
+	public synchronized long getObjectsReused()
+	{
+		return objectsReused;
+	}
+	
+	// Return the number of saves skipped because the champion was unchanged
+	public synchronized long getSavesSkipped()
+	{
+		return savesSkipped;
+	}
+	
+	// Return true if an object's file is known to be on disk
+	protected synchronized boolean isStored( String hash )
+	{
+		return stored.contains( hash );
+	}
+	
+	// Record that an object's file has been written
+	protected synchronized void markStored( String hash )
+	{
+		if( stored.add(hash) )
+			objectsWritten++;
+	}
+	
+	// Forget the last manifest saved if it's the given one, whose save failed
+	protected synchronized void forgetManifest( String manifest )
+	{
+		if( manifest != null && manifest.equals(lastManifest) )
+			lastManifest = null;
+	}
+	
+	// Return the SHA-1 of some text as a hexadecimal string
+	protected String hash( String text )
+	{
+		byte[] bytes = digest.digest( text.getBytes() );
+		StringBuilder out = new StringBuilder( bytes.length * 2 );
+		
+		for( byte b : bytes )
+			out.append( Character.forDigit((b >> 4) & 15, 16) ).append( Character.forDigit(b & 15, 16) );
+		
+		return out.toString();
+	}
+	
+	// Return the generation folder holding the model saved for the given generation. A
+	// generation whose champion was unchanged has no manifest of its own, so the closest
+	// earlier generation with one is used.
+	public static String findGeneration( String folder, long generation )
+	{
+		File[] generations = new File( folder ).listFiles();
+		long best = -1;
+		
+		if( generations != null )
+		{
+			for( File candidate : generations )
+			{
+				String name = candidate.getName();
+				
+				if( !name.matches("generation_[0-9]+") || !new File(candidate, "manifest.txt").exists() )
+					continue;
+				
+				long saved = Long.parseLong( name.substring(11) );
+				
+				if( saved <= generation && saved > best )
+					best = saved;
+			}
+		}
+		
+		if( best < 0 )
+			throw new RuntimeException("No model is stored in " + folder + " for generation " + generation + " or earlier.");
+		
+		return new File( folder, "generation_" + best ).getPath() + File.separator;
+	}
+	
+	// Load the model saved in a generation folder of a store and return its root Team
+	public static Team load( String generationFolder )
+	{
+		Path manifestFile = Paths.get( generationFolder, "manifest.txt" );
+		Path objects = manifestFile.toAbsolutePath().getParent().resolveSibling( "objects" );
+		
+		try
+		{
+			String[] manifest = tokens( manifestFile );
+			long rootID = Long.parseLong( manifest[0] );
+			
+			if( manifest.length % 3 != 1 )
+				throw new RuntimeException("The manifest " + manifestFile + " is cut short.");
+			
+			// Read every object, creating the Teams straight away so Learners can point to them
+			HashMap<Long, Team> teams = new HashMap<Long, Team>();
+			HashMap<Long, Learner> learners = new HashMap<Long, Learner>();
+			ArrayList<String[]> teamObjects = new ArrayList<String[]>();
+			ArrayList<String[]> learnerObjects = new ArrayList<String[]>();
+			
+			for( int i=1; i < manifest.length; i += 3 )
+			{
+				String[] object = tokens( objects.resolve(manifest[i + 2] + ".txt") );
+				
+				if( manifest[i].equals("T") )
+				{
+					long id = Long.parseLong( object[0] );
+					teams.put( id, new Team(id, Long.parseLong(object[1]), 0) );
+					teamObjects.add( object );
+				}
+				else
+					learnerObjects.add( object );
+			}
+			
+			// Create the Learners, with the program following the ID, birthday, references and action
+			for( String[] object : learnerObjects )
+			{
+				long id = Long.parseLong( object[0] );
+				long birthday = Long.parseLong( object[1] );
+				long[] program = new long[object.length - 4];
+				
+				for( int i=0; i < program.length; i++ )
+					program[i] = Long.parseLong( object[i + 4] );
+				
+				if( object[3].charAt(0) == 'T' )
+				{
+					Team team = teams.get( Long.valueOf(object[3].substring(1)) );
+					
+					if( team == null )
+						throw new RuntimeException("Learner " + id + " points to Team " + object[3].substring(1) + ", which isn't in the model.");
+					
+					learners.put( id, new Learner(id, birthday, team, 0, program) );
+				}
+				else
+					learners.put( id, new Learner(id, birthday, Long.parseLong(object[3]), 0, program) );
+			}
+			
+			// Give every Team its Learners, which follow the ID, birthday and references
+			for( String[] object : teamObjects )
+			{
+				Team team = teams.get( Long.valueOf(object[0]) );
+				
+				for( int i=3; i < object.length; i++ )
+				{
+					Learner learner = learners.get( Long.valueOf(object[i]) );
+					
+					if( learner == null )
+						throw new RuntimeException("Team " + object[0] + " holds Learner " + object[i] + ", which isn't in the model.");
+					
+					team.addLearner( learner );
+				}
+			}
+			
+			if( !teams.containsKey(rootID) )
+				throw new RuntimeException("The root Team " + rootID + " isn't in the model.");
+			
+			return teams.get( rootID );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not read the model in " + generationFolder + ".", e);
+		}
+	}
+	
+	// The files of one save into the store. Every object is written to a temporary file which
+	// then takes its place, so a file named after a hash always holds the whole object, and it's
+	// only marked as stored once it's there. Objects an earlier save wrote in the meantime are
+	// skipped. If a write fails, the manifest isn't written, the next save of the same champion
+	// isn't skipped, and the error reaches the ModelWriter.
+	protected class StoreModel extends ModelWriter.Model
+	{
+		// The hash of every object file in the model, by file name
+		protected HashMap<String, String> objectHashes = new HashMap<String, String>();
+		
+		// The generation the model is saved for
+		protected long generation;
+		
+		protected StoreModel( long generation )
+		{
+			super( ModelStore.this.folder );
+			this.generation = generation;
+		}
+		
+		// Add the file of an object
+		protected void addObject( String hash, String text )
+		{
+			add( "objects/" + hash + ".txt", text );
+			objectHashes.put( "objects/" + hash + ".txt", hash );
+		}
+		
+		@Override
+		public void write() throws IOException
+		{
+			try
+			{
+				writeFiles();
+			}
+			catch( IOException e )
+			{
+				// The next save of the same champion mustn't be skipped
+				forgetManifest( files.get("generation_" + generation + "/manifest.txt") );
+				throw e;
+			}
+		}
+		
+		// Write the objects which aren't stored yet, then the manifest
+		protected void writeFiles() throws IOException
+		{
+			for( Map.Entry<String, String> file : files.entrySet() )
+			{
+				String hash = objectHashes.get( file.getKey() );
+				Path path = Paths.get( folder + file.getKey() );
+				
+				// The manifest comes last and is written as it is
+				if( hash == null )
+				{
+					Files.createDirectories( path.getParent() );
+					Files.write( path, file.getValue().getBytes() );
+					continue;
+				}
+				
+				if( isStored(hash) )
+					continue;
+				
+				Path temporary = Paths.get( folder + file.getKey() + ".tmp" );
+				
+				Files.createDirectories( path.getParent() );
+				Files.write( temporary, file.getValue().getBytes() );
+				Files.move( temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+				
+				markStored( hash );
+			}
+		}
+	}
+	
+	// Return the whitespace separated values in a file
+	protected static String[] tokens( Path file ) throws IOException
+	{
+		return new String( Files.readAllBytes(file) ).trim().split( "\\s+" );
+	}
+}
@@ -0,0 +1,204 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Saves models to disk on a background thread, so learning never waits for the file system.
+// A model is turned into the text of its files on the calling thread, which only takes a walk
+// over the Team's subgraph, and the files are written later by the writer thread. At most
+// capacity models wait to be written at once; beyond that, saving a model waits for room, so a
+// slow disk can never build up an unbounded backlog.
+//
+// The writer thread stops after a second without work and starts again when needed. It isn't a
+// daemon thread, so models still waiting when the program ends are written before it exits. The
+// first model which fails to be written is remembered, and flush() and close() throw its error,
+// so code waiting for the models can tell that some of them were lost.
+public class ModelWriter
+{
+	// The most models waiting to be written at once
+	protected int capacity;
+	
+	// One permit for every model which may still be submitted without waiting
+	protected Semaphore slots;
+	
+	// Runs the writes, one at a time, in the order the models were submitted
+	protected ThreadPoolExecutor executor;
+	
+	// The error of the first model which couldn't be written since the last flush(), or null
+	protected IOException failure = null;
+	
+	// Create a writer which holds at most capacity models waiting to be written
+	public ModelWriter( int capacity )
+	{
+		if( capacity < 1 )
+			throw new RuntimeException("A model writer needs room for at least one model.");
+		
+		this.capacity = capacity;
+		this.slots = new Semaphore( capacity );
+		
+		executor = new ThreadPoolExecutor( 1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( Runnable runnable )
+			{
+				return new Thread( runnable, "TPGLearn-writer" );
+			}
+		});
+		
+		executor.allowCoreThreadTimeOut( true );
+	}
+	
+	// Queue a model to be written, waiting first if capacity models are already waiting
+	public void submit( final Model model )
+	{
+		slots.acquireUninterruptibly();
+		
+		try
+		{
+			executor.execute( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						model.write();
+					}
+					catch( IOException e )
+					{
+						System.err.println(e);
+						
+						synchronized( ModelWriter.this )
+						{
+							if( failure == null )
+								failure = e;
+						}
+					}
+					finally
+					{
+						slots.release();
+					}
+				}
+			});
+		}
+		catch( RejectedExecutionException e )
+		{
+			slots.release();
+			throw new RuntimeException("Tried to save a model after the model writer was closed.", e);
+		}
+	}
+	
+	// Wait until every model submitted so far has been written. If any of them couldn't be
+	// written since the last flush, the first error is thrown, and then forgotten.
+	public void flush()
+	{
+		slots.acquireUninterruptibly( capacity );
+		slots.release( capacity );
+		
+		IOException error;
+		
+		synchronized( this )
+		{
+			error = failure;
+			failure = null;
+		}
+		
+		if( error != null )
+			throw new RuntimeException("A model could not be saved.", error);
+	}
+	
+	// Write every waiting model, then stop the writer. No models can be submitted afterwards.
+	// Like flush(), this throws the error of the first model which couldn't be written.
+	public void close()
+	{
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	// The files of one saved model, held as text so the Teams and Learners can go on changing
+	// while the model waits to be written
+	public static class Model
+	{
+		// The folder the files are written to, ending with a separator
+		protected String folder;
+		
+		// The name and text of every file, in the order they're written
+		protected LinkedHashMap<String, String> files = new LinkedHashMap<String, String>();
+		
+		// Start an empty model, whose files are added with add()
+		protected Model( String folder )
+		{
+			this.folder = folder;
+		}
+		
+		// Take a snapshot of a root Team and everything it reaches, in the folder layout read by
+		// TPGPlay: root.txt holds the root Team's ID, every Team and Learner gets a file of its
+		// own, and teamIDs.txt and learnerIDs.txt list the IDs one per line.
+		public Model( Team root, String folder )
+		{
+			this.folder = folder;
+			
+			// Find every Team and Learner attached to the root Team. Since Learners and Teams
+			// have custom hashes and equals methods, no duplicates will be stored.
+			LinkedHashSet<Team> teamSet = new LinkedHashSet<Team>();
+			LinkedHashSet<Learner> learnerSet = new LinkedHashSet<Learner>();
+			
+			root.findAllTeams( teamSet );
+			
+			for( Team team : teamSet )
+				learnerSet.addAll( team.getLearners() );
+			
+			files.put( "root.txt", "" + root.getID() );
+			
+			// The team files are named team_#.txt, where # is the team's ID
+			for( Team team : teamSet )
+				files.put( "team_" + team.getID() + ".txt", team.storageOutput() );
+			
+			// The learner files are named learner_#.txt, where # is the learner's ID
+			for( Learner learner : learnerSet )
+				files.put( "learner_" + learner.getID() + ".txt", learner.storageOutput() );
+			
+			StringBuilder teamIDs = new StringBuilder();
+			
+			for( Team team : teamSet )
+				teamIDs.append( team.getID() ).append( '\n' );
+			
+			files.put( "teamIDs.txt", teamIDs.toString() );
+			
+			StringBuilder learnerIDs = new StringBuilder();
+			
+			for( Learner learner : learnerSet )
+				learnerIDs.append( learner.getID() ).append( '\n' );
+			
+			files.put( "learnerIDs.txt", learnerIDs.toString() );
+		}
+		
+		// Add a file to the model, named relative to its folder
+		protected void add( String name, String text )
+		{
+			files.put( name, text );
+		}
+		
+		// Write every file of the model, creating any folders which don't exist
+		public void write() throws IOException
+		{
+			Files.createDirectories( Paths.get(folder) );
+			
+			for( Map.Entry<String, String> file : files.entrySet() )
+			{
+				Path path = Paths.get( folder + file.getKey() );
+				
+				Files.createDirectories( path.getParent() );
+				Files.write( path, file.getValue().getBytes() );
+			}
+		}
+	}
+}
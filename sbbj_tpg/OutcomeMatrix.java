@@ -0,0 +1,277 @@
+package sbbj_tpg;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Holds the outcomes of a whole population of Teams in flat primitive arrays. Labels are interned
+// into dense label IDs the first time an outcome is stored for them, and every label gets a column
+// of doubles indexed by the compact index of the Team (see IndexPool), along with a column of bits
+// telling which Teams have an outcome for it. Gathering one label's outcomes for many Teams, as
+// selection does, is then a scan over a few arrays with no boxing.
+//
+// Every Team stores its outcomes in the matrix of the population it belongs to. Teams which don't
+// belong to a population share the DETACHED matrix. Teams are rewarded from many threads at once,
+// such as one per TeamHandle, but each row only ever belongs to one Team, so storing and reading
+// outcomes takes no lock. A value is written before its presence bit is set atomically, so a
+// reader which sees the bit sees the value. Columns are split into chunks which never move once
+// made, so growing a column never loses a write. Only adding a label or a chunk takes the lock, and
+// the new arrays are published through volatile fields.
+public class OutcomeMatrix
+{
+	// The matrix used by Teams which don't belong to a population
+	public static final OutcomeMatrix DETACHED = new OutcomeMatrix();
+	
+	// The number of Teams in each chunk of a column, a multiple of 64
+	protected static final int CHUNK_ROWS = 256;
+	
+	// Reads and updates single words of a presence bitset atomically
+	protected static final VarHandle BITS = MethodHandles.arrayElementVarHandle( long[].class );
+	
+	// The outcomes of every Team for one label, in chunks of CHUNK_ROWS Teams
+	protected static class Column
+	{
+		// The outcomes, by chunk and then by row within the chunk
+		volatile double[][] values;
+		
+		// One bit per Team, set if the Team has an outcome, by chunk and then by word
+		volatile long[][] present;
+		
+		Column( int chunks )
+		{
+			values = new double[chunks][CHUNK_ROWS];
+			present = new long[chunks][CHUNK_ROWS / 64];
+		}
+	}
+	
+	// The ID of every label. Labels are only added by intern(), after their column exists.
+	protected ConcurrentHashMap<String, Integer> labelIDs = new ConcurrentHashMap<String, Integer>();
+	
+	// The label and the column of every label ID, replaced whole whenever a label is added
+	protected volatile String[] labels = new String[0];
+	protected volatile Column[] columns = new Column[0];
+	
+	// The number of Teams every column has room for, always a multiple of CHUNK_ROWS. Only
+	// changed while holding the lock.
+	protected int rows = CHUNK_ROWS;
+	
+	// Return the ID of a label, giving it the next free ID if it doesn't have one yet
+	public int intern( String label )
+	{
+		Integer labelID = labelIDs.get( label );
+		
+		if( labelID != null )
+			return labelID;
+		
+		return add( label );
+	}
+	
+	// Give a label the next free ID, unless another thread just did
+	protected synchronized int add( String label )
+	{
+		Integer labelID = labelIDs.get( label );
+		
+		if( labelID != null )
+			return labelID;
+		
+		int id = labels.length;
+		
+		Column[] newColumns = Arrays.copyOf( columns, id + 1 );
+		newColumns[id] = new Column( rows / CHUNK_ROWS );
+		
+		String[] newLabels = Arrays.copyOf( labels, id + 1 );
+		newLabels[id] = label;
+		
+		// Publish the column before the ID can be found
+		columns = newColumns;
+		labels = newLabels;
+		labelIDs.put( label, id );
+		
+		return id;
+	}
+	
+	// Return the ID of a label, or -1 if no outcome has ever been stored for it
+	public int labelID( String label )
+	{
+		Integer labelID = labelIDs.get( label );
+		return labelID == null ? -1 : labelID;
+	}
+	
+	// Return the label with the given ID
+	public String label( int labelID )
+	{
+		return labels[labelID];
+	}
+	
+	// Return the number of labels interned so far
+	public int labelCount()
+	{
+		return labels.length;
+	}
+	
+	// Return a copy of the interned labels, in label ID order
+	public ArrayList<String> getLabels()
+	{
+		return new ArrayList<String>( Arrays.asList(labels) );
+	}
+	
+	// Return true if the Team with the given index has an outcome for the label ID
+	public boolean has( int row, int labelID )
+	{
+		Column[] current = columns;
+		
+		if( labelID < 0 || labelID >= current.length )
+			return false;
+		
+		long[][] present = current[labelID].present;
+		int chunk = row / CHUNK_ROWS;
+		
+		return chunk < present.length && ((long)BITS.getAcquire( present[chunk], (row % CHUNK_ROWS) >>> 6 ) & (1L << row)) != 0;
+	}
+	
+	// Put a Team's outcome for the label ID in the OpenDouble. Returns false if it has none.
+	public boolean get( int row, int labelID, OpenDouble out )
+	{
+		if( !has(row, labelID) )
+			return false;
+		
+		// The values are published before the presence bits, so the chunk is there
+		out.setValue( columns[labelID].values[row / CHUNK_ROWS][row % CHUNK_ROWS] );
+		return true;
+	}
+	
+	// Store a Team's outcome for the label ID. A Team can only have one outcome per label.
+	public void set( int row, int labelID, double outcome )
+	{
+		if( has(row, labelID) )
+			throw new RuntimeException("Tried to add a duplicate activity label to an outcomes map.");
+		
+		Column column = columns[labelID];
+		int chunk = row / CHUNK_ROWS;
+		
+		// Make room for Teams with larger indices
+		if( chunk >= column.present.length )
+			grow( row );
+		
+		// Write the value first, so it's there for anyone who sees the bit
+		column.values[chunk][row % CHUNK_ROWS] = outcome;
+		BITS.getAndBitwiseOrRelease( column.present[chunk], (row % CHUNK_ROWS) >>> 6, 1L << row );
+	}
+	
+	// Remove a Team's outcome for the label ID, returning false if it had none
+	public boolean remove( int row, int labelID )
+	{
+		if( !has(row, labelID) )
+			return false;
+		
+		BITS.getAndBitwiseAndRelease( columns[labelID].present[row / CHUNK_ROWS], (row % CHUNK_ROWS) >>> 6, ~(1L << row) );
+		return true;
+	}
+	
+	// Return the number of outcomes a Team has
+	public int count( int row )
+	{
+		int count = 0;
+		
+		for( int labelID=0; labelID < labels.length; labelID++ )
+			if( has(row, labelID) )
+				count++;
+		
+		return count;
+	}
+	
+	// Remove every outcome of one Team
+	public void clearRow( int row )
+	{
+		int chunk = row / CHUNK_ROWS;
+		
+		for( Column column : columns )
+		{
+			long[][] present = column.present;
+			
+			if( chunk < present.length )
+				BITS.getAndBitwiseAndRelease( present[chunk], (row % CHUNK_ROWS) >>> 6, ~(1L << row) );
+		}
+	}
+	
+	// Remove every outcome of every Team, keeping the interned labels
+	public void clear()
+	{
+		for( Column column : columns )
+			for( long[] bits : column.present )
+				for( int i=0; i < bits.length; i++ )
+					BITS.setRelease( bits, i, 0L );
+	}
+	
+	// Move every outcome of a Team from another matrix into this one, interning its labels here
+	public void moveRow( OutcomeMatrix other, int row )
+	{
+		if( other == this )
+			return;
+		
+		OpenDouble outcome = new OpenDouble(0.0);
+		
+		for( int labelID=0; labelID < other.labelCount(); labelID++ )
+			if( other.get(row, labelID, outcome) )
+				set( row, intern(other.label(labelID)), outcome.getValue() );
+		
+		other.clearRow( row );
+	}
+	
+	// Fill the scores with the outcome of every Team in the list for the label ID, in list order.
+	// Returns the position of the first Team without an outcome, or -1 if every Team has one.
+	public int column( int labelID, List<Team> teams, double[] scores )
+	{
+		Column[] current = columns;
+		
+		if( labelID < 0 || labelID >= current.length )
+			return teams.isEmpty() ? -1 : 0;
+		
+		// Read the bits before the values, which are published first
+		long[][] present = current[labelID].present;
+		double[][] values = current[labelID].values;
+		
+		for( int i=0; i < teams.size(); i++ )
+		{
+			int row = teams.get(i).index;
+			int chunk = row / CHUNK_ROWS;
+			
+			if( chunk >= present.length || ((long)BITS.getAcquire( present[chunk], (row % CHUNK_ROWS) >>> 6 ) & (1L << row)) == 0 )
+				return i;
+			
+			scores[i] = values[chunk][row % CHUNK_ROWS];
+		}
+		
+		return -1;
+	}
+	
+	// Add chunks to every column so it has room for the given Team index. Existing chunks are
+	// kept, so outcomes being stored in them at the same time aren't lost.
+	protected synchronized void grow( int row )
+	{
+		if( row < rows )
+			return;
+		
+		while( rows <= row )
+			rows *= 2;
+		
+		int chunks = rows / CHUNK_ROWS;
+		
+		for( Column column : columns )
+		{
+			double[][] values = Arrays.copyOf( column.values, chunks );
+			long[][] present = Arrays.copyOf( column.present, chunks );
+			
+			for( int chunk=column.values.length; chunk < chunks; chunk++ )
+			{
+				values[chunk] = new double[CHUNK_ROWS];
+				present[chunk] = new long[CHUNK_ROWS / 64];
+			}
+			
+			// Publish the values before the bits, so a reader which finds a chunk's bits finds its values
+			column.values = values;
+			column.present = present;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package sbbj_tpg;
+
+import java.util.SplittableRandom;
+
+public class ParetoBenchmark
+{
+	public static void main(String[] args)
+	{
+		// Population sizes and label counts to benchmark
+		int[] teamCounts = { 1000, 2000, 5000, 10000 };
+		int[] labelCounts = { 2, 5, 10, 20 };
+		
+		// The naive sort compares every pair of Teams, so only check it on the smaller populations
+		int naiveLimit = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		
+		SplittableRandom random = new SplittableRandom( 1 );
+		
+		for( int teams : teamCounts )
+		{
+			for( int labels : labelCounts )
+			{
+				// Generate outcomes which trade off against each other, like Teams specializing on
+				// different games, with some ties and a few outcomes that are not numbers
+				double[][] columns = new double[labels][teams];
+				
+				for( int i=0; i < teams; i++ )
+				{
+					double skill = random.nextDouble();
+					
+					for( int j=0; j < labels; j++ )
+					{
+						double value = skill * random.nextDouble() + (1 - skill) * (j % 2 == 0 ? random.nextDouble() : 1 - random.nextDouble());
+						
+						if( random.nextInt(100) == 0 )
+							value = Math.floor( value * 10 );
+						else if( random.nextInt(1000) == 0 )
+							value = Double.NaN;
+						
+						columns[j][i] = value * 1000;
+					}
+				}
+				
+				// Warm up, then time the full selection ranking: fronts, crowding and ordering
+				for( int k=0; k < 3; k++ )
+					new ParetoRanking( columns ).sort();
+				
+				long start = System.nanoTime();
+				ParetoRanking ranking = new ParetoRanking( columns );
+				ranking.sort();
+				long time = System.nanoTime() - start;
+				
+				String line = "Teams: " + teams + ", Labels: " + labels + ", Fronts: " + ranking.getFrontCount() + ", ENS: " + (time / 1000000.0) + " ms";
+				
+				// Check the fronts against the naive sort and time it
+				if( teams <= naiveLimit )
+				{
+					start = System.nanoTime();
+					int[] naive = naiveFronts( ranking, teams );
+					time = System.nanoTime() - start;
+					
+					int mismatches = 0;
+					
+					for( int i=0; i < teams; i++ )
+						if( naive[i] != ranking.getFront(i) )
+							mismatches++;
+					
+					line += ", Naive: " + (time / 1000000.0) + " ms, Mismatches: " + mismatches;
+				}
+				
+				System.out.println(line);
+			}
+		}
+	}
+	
+	// Find the fronts by repeatedly peeling off the Teams which no remaining Team dominates,
+	// checking every pair of remaining Teams each time
+	public static int[] naiveFronts( ParetoRanking ranking, int teams )
+	{
+		int[] fronts = new int[teams];
+		boolean[] assigned = new boolean[teams];
+		boolean[] current = new boolean[teams];
+		int remaining = teams;
+		
+		for( int front=0; remaining > 0; front++ )
+		{
+			for( int a=0; a < teams; a++ )
+			{
+				current[a] = false;
+				
+				if( assigned[a] )
+					continue;
+				
+				boolean dominated = false;
+				
+				for( int b=0; b < teams && !dominated; b++ )
+					dominated = !assigned[b] && ranking.dominates(b, a);
+				
+				current[a] = !dominated;
+			}
+			
+			for( int a=0; a < teams; a++ )
+			{
+				if( current[a] )
+				{
+					fronts[a] = front;
+					assigned[a] = true;
+					remaining--;
+				}
+			}
+		}
+		
+		return fronts;
+	}
+}
@@ -0,0 +1,289 @@
+package sbbj_tpg;
+
+import java.util.Arrays;
+
+// Ranks Teams on several outcomes at once, for selection when Teams are rewarded on more than
+// one label. Higher outcomes are better. Teams are first split into Pareto fronts: front 0 holds
+// every Team which no other Team dominates, front 1 every Team dominated only by Teams in front 0,
+// and so on. Within a front, Teams with a larger crowding distance rank ahead, which keeps the
+// Teams spread out along the front, as in NSGA-II. Remaining ties keep their original order.
+//
+// The fronts are found with the Efficient Non-dominated Sort (ENS-SS) of Zhang et al. Teams are
+// visited in lexicographic order of their outcomes, so a Team can only be dominated by Teams
+// visited before it, and each Team is placed in the first front with no member dominating it.
+// This needs far fewer dominance checks than comparing every pair of Teams.
+public class ParetoRanking extends IndexRanking
+{
+	// The number of outcomes per Team
+	protected int objectives;
+	
+	// Every Team's outcomes stored one Team after another, with outcomes that are not a
+	// number replaced by negative infinity so they lose to everything
+	protected double[] values;
+	
+	// The front each Team belongs to, where front 0 is the non-dominated front
+	protected int[] fronts;
+	
+	// The crowding distance of each Team within its front
+	protected double[] crowding;
+	
+	// The number of fronts found
+	protected int frontCount = 0;
+	
+	// Rank Teams given one column of outcomes per label, each indexed by Team index
+	public ParetoRanking( double[][] columns )
+	{
+		super( columns.length == 0 ? 0 : columns[0].length );
+		
+		objectives = columns.length;
+		values = new double[size * objectives];
+		
+		// Store the outcomes row by row, so each Team's outcomes sit next to each other
+		for( int j=0; j < objectives; j++ )
+		{
+			for( int i=0; i < size; i++ )
+			{
+				double value = columns[j][i];
+				values[i * objectives + j] = Double.isNaN(value) ? Double.NEGATIVE_INFINITY : value;
+			}
+		}
+		
+		fronts = new int[size];
+		crowding = new double[size];
+		
+		sortFronts();
+		measureCrowding();
+	}
+	
+	// Return true if Team a ranks ahead of Team b
+	@Override
+	public boolean ahead( int a, int b )
+	{
+		if( fronts[a] != fronts[b] )
+			return fronts[a] < fronts[b];
+		
+		if( crowding[a] != crowding[b] )
+			return crowding[a] > crowding[b];
+		
+		return a < b;
+	}
+	
+	// Return true if Team a dominates Team b: it's at least as good on every outcome and
+	// better on at least one
+	public boolean dominates( int a, int b )
+	{
+		int rowA = a * objectives;
+		int rowB = b * objectives;
+		boolean better = false;
+		
+		for( int j=0; j < objectives; j++ )
+		{
+			double x = values[rowA + j];
+			double y = values[rowB + j];
+			
+			if( x < y )
+				return false;
+			
+			if( x > y )
+				better = true;
+		}
+		
+		return better;
+	}
+	
+	// Return the front a Team belongs to, where front 0 is the non-dominated front
+	public int getFront( int team )
+	{
+		return fronts[team];
+	}
+	
+	// Return the crowding distance of a Team within its front
+	public double getCrowding( int team )
+	{
+		return crowding[team];
+	}
+	
+	// Return the number of fronts
+	public int getFrontCount()
+	{
+		return frontCount;
+	}
+	
+	// Return a single sort key for a Team, where a lower key ranks ahead (see Team.sortListByKey()).
+	// The whole part is the Team's front and the fraction shrinks as the crowding distance grows.
+	public double getKey( int team )
+	{
+		return fronts[team] + 1.0 / ( 1.0 + crowding[team] );
+	}
+	
+	// Assign every Team to a front with ENS-SS
+	protected void sortFronts()
+	{
+		// Visit the Teams in lexicographic order of their outcomes, best first
+		int[] order = new IndexRanking( size )
+		{
+			@Override
+			public boolean ahead( int a, int b )
+			{
+				int rowA = a * objectives;
+				int rowB = b * objectives;
+				
+				for( int j=0; j < objectives; j++ )
+				{
+					if( values[rowA + j] != values[rowB + j] )
+						return values[rowA + j] > values[rowB + j];
+				}
+				
+				return a < b;
+			}
+		}.sort();
+		
+		// Copy the outcomes into visiting order, so the members of a front, which are always
+		// added in visiting order, sit in increasing positions in memory while they're checked
+		double[] visited = new double[values.length];
+		
+		for( int p=0; p < size; p++ )
+			System.arraycopy( values, order[p] * objectives, visited, p * objectives, objectives );
+		
+		// The visiting positions of the members of every front, stored as one array per front with its member count
+		int[][] members = new int[4][];
+		int[] memberCounts = new int[4];
+		
+		for( int p=0; p < size; p++ )
+		{
+			// Find the first front with no member dominating this Team. Members visited most
+			// recently are the most similar, so they're the most likely to dominate and are
+			// checked first.
+			int front = 0;
+			
+			while( front < frontCount && dominatedByFront(visited, p, members[front], memberCounts[front]) )
+				front++;
+			
+			// Open a new front if every existing front dominates this Team
+			if( front == frontCount )
+			{
+				if( frontCount == members.length )
+				{
+					members = Arrays.copyOf( members, frontCount * 2 );
+					memberCounts = Arrays.copyOf( memberCounts, frontCount * 2 );
+				}
+				
+				members[frontCount] = new int[8];
+				frontCount++;
+			}
+			
+			// Add the Team to the front
+			if( memberCounts[front] == members[front].length )
+				members[front] = Arrays.copyOf( members[front], memberCounts[front] * 2 );
+			
+			members[front][memberCounts[front]++] = p;
+			fronts[order[p]] = front;
+		}
+	}
+	
+	// Return true if any of the first count members of a front dominates the Team at a visiting
+	// position. Positions index rows of the outcomes copied into visiting order.
+	protected boolean dominatedByFront( double[] visited, int position, int[] front, int count )
+	{
+		int row = position * objectives;
+		
+		for( int k=count - 1; k >= 0; k-- )
+		{
+			int memberRow = front[k] * objectives;
+			boolean better = false;
+			int j = 1;
+			
+			// The member was visited first, so it's at least as good on the first outcome.
+			// It dominates if it's also at least as good on every other outcome and better on one.
+			for( ; j < objectives; j++ )
+			{
+				double x = visited[memberRow + j];
+				double y = visited[row + j];
+				
+				if( x < y )
+					break;
+				
+				if( x > y )
+					better = true;
+			}
+			
+			if( j == objectives && (better || visited[memberRow] > visited[row]) )
+				return true;
+		}
+		
+		return false;
+	}
+	
+	// Measure the crowding distance of every Team within its front. For every outcome, the
+	// Teams at either end of the front get an infinite distance, and the others add the gap
+	// between their neighbours on that outcome, relative to the front's range on it.
+	protected void measureCrowding()
+	{
+		if( size == 0 )
+			return;
+		
+		// Group the Team indices by front, in index order
+		int[] frontStarts = new int[frontCount + 1];
+		
+		for( int i=0; i < size; i++ )
+			frontStarts[fronts[i] + 1]++;
+		
+		for( int f=0; f < frontCount; f++ )
+			frontStarts[f + 1] += frontStarts[f];
+		
+		int[] grouped = new int[size];
+		int[] next = Arrays.copyOf( frontStarts, frontCount );
+		
+		for( int i=0; i < size; i++ )
+			grouped[next[fronts[i]]++] = i;
+		
+		// Sorts Team indices by the current outcome, best first
+		final int[] objective = new int[1];
+		
+		IndexRanking byObjective = new IndexRanking( size )
+		{
+			@Override
+			public boolean ahead( int a, int b )
+			{
+				double x = values[a * objectives + objective[0]];
+				double y = values[b * objectives + objective[0]];
+				
+				if( x != y )
+					return x > y;
+				
+				return a < b;
+			}
+		};
+		
+		int[] sorted = new int[size];
+		
+		for( int f=0; f < frontCount; f++ )
+		{
+			int from = frontStarts[f];
+			int to = frontStarts[f + 1];
+			
+			for( int j=0; j < objectives; j++ )
+			{
+				// Sort the front's members by this outcome
+				System.arraycopy( grouped, from, sorted, from, to - from );
+				objective[0] = j;
+				byObjective.sort( sorted, from, to );
+				
+				double best = values[sorted[from] * objectives + j];
+				double worst = values[sorted[to - 1] * objectives + j];
+				double range = best - worst;
+				
+				// The ends of the front are always kept
+				crowding[sorted[from]] = Double.POSITIVE_INFINITY;
+				crowding[sorted[to - 1]] = Double.POSITIVE_INFINITY;
+				
+				// If the front doesn't spread out on this outcome, it can't tell its members apart
+				if( !(range > 0) || Double.isInfinite(range) )
+					continue;
+				
+				for( int k=from + 1; k < to - 1; k++ )
+					crowding[sorted[k]] += ( values[sorted[k - 1] * objectives + j] - values[sorted[k + 1] * objectives + j] ) / range;
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package sbbj_tpg;
+
+import java.util.*;
+import java.util.random.RandomGenerator;
+
+// A population of Teams or Learners kept in a dense list. Every member's position in the list
+// is stored in an array indexed by the member's compact index (see IndexPool), so checking
+// membership and removing a member both take constant time. A removed member is replaced by
+// the last member of the list, which means removal changes the order of the remaining members.
+public abstract class Population<T> implements Iterable<T>
+{
+	// The members of the population, with no gaps
+	protected ArrayList<T> members = new ArrayList<T>();
+	
+	// The position of each member in the members list, indexed by compact index
+	protected int[] positions = new int[64];
+	
+	// Return the compact index of a member
+	protected abstract int indexOf( T member );
+	
+	// Add a member to the end of the population. Returns false if it was already a member.
+	public boolean add( T member )
+	{
+		if( contains(member) )
+			return false;
+		
+		int index = indexOf( member );
+		
+		// Make room for the member's index if it's newer than any seen so far
+		if( index >= positions.length )
+			positions = Arrays.copyOf( positions, Math.max(index + 1, positions.length * 2) );
+		
+		positions[index] = members.size();
+		members.add( member );
+		
+		return true;
+	}
+	
+	// Remove a member by moving the last member into its place. Returns false if it wasn't a member.
+	public boolean remove( T member )
+	{
+		if( !contains(member) )
+			return false;
+		
+		int position = positions[ indexOf(member) ];
+		T last = members.remove( members.size() - 1 );
+		
+		// Unless the member was the last one, the last member takes its position
+		if( last != member )
+		{
+			members.set( position, last );
+			positions[ indexOf(last) ] = position;
+		}
+		
+		return true;
+	}
+	
+	// Return true if the given object is a member of this population. Compact indices are reused,
+	// so a stale position is caught by checking the member actually stored there.
+	public boolean contains( T member )
+	{
+		int index = indexOf( member );
+		
+		if( index >= positions.length )
+			return false;
+		
+		int position = positions[index];
+		
+		return position < members.size() && members.get(position) == member;
+	}
+	
+	// Return the member at the given position
+	public T get( int position )
+	{
+		return members.get( position );
+	}
+	
+	// Return the number of members
+	public int size()
+	{
+		return members.size();
+	}
+	
+	// Return true if the population has no members
+	public boolean isEmpty()
+	{
+		return members.isEmpty();
+	}
+	
+	// Remove every member
+	public void clear()
+	{
+		members.clear();
+	}
+	
+	// Return a uniformly random member, or null if the population is empty
+	public T sample( RandomGenerator rng )
+	{
+		if( members.isEmpty() )
+			return null;
+		
+		return members.get( (int)(rng.nextDouble() * members.size()) );
+	}
+	
+	// Return a read-only view of the members in their current order
+	public List<T> asList()
+	{
+		return Collections.unmodifiableList( members );
+	}
+	
+	// Iterate over the members in their current order. The population must not change during iteration.
+	public Iterator<T> iterator()
+	{
+		return asList().iterator();
+	}
+}
@@ -0,0 +1,148 @@
+package sbbj_tpg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// A mark-and-sweep collector for a Team and Learner population. Everything reachable from the
+// root Teams is marked, then every Team and Learner which wasn't marked is removed and erased,
+// in a single pass over the graph. Unlike reference counting, this also reclaims Teams which
+// only reference each other. The reference counts and root Team flags of the survivors are
+// recomputed along the way, so they can't drift from the actual graph.
+public class PopulationCollector
+{
+	// Marks for reached Teams and Learners, indexed by compact index
+	protected boolean[] teamMarks = new boolean[0];
+	protected boolean[] learnerMarks = new boolean[0];
+	
+	// The Teams whose Learners still have to be visited
+	protected ArrayDeque<Team> pending = new ArrayDeque<Team>();
+	
+	// The number of Team and Learner indices still handed out after the last collection. Every
+	// index belongs to a live Team or Learner, so these stay close to the population sizes, summed
+	// over every population sharing the pools, instead of creeping up over a long run.
+	protected int teamIndicesInUse = 0;
+	protected int learnerIndicesInUse = 0;
+	
+	// Collect every Team and Learner which can't be reached from the root Teams, and return
+	// the number of Teams and Learners reclaimed
+	public int collect( TeamPopulation teams, LearnerPopulation learners )
+	{
+		// Start with clear marks large enough for every compact index handed out so far
+		teamMarks = clearedMarks( teamMarks, Team.indices.capacity() );
+		learnerMarks = clearedMarks( learnerMarks, Learner.indices.capacity() );
+		
+		// Mark phase: walk the graph from every root Team
+		for( Team root : teams.getRoots() )
+			mark( root, teams );
+		
+		while( !pending.isEmpty() )
+		{
+			for( Learner learner : pending.pop().learners )
+			{
+				if( learnerMarks[learner.index] )
+					continue;
+				
+				learnerMarks[learner.index] = true;
+				
+				// Follow the Learner to its Team, if it has one
+				if( !learner.getActionObject().isAtomic() )
+					mark( learner.getActionObject().team, teams );
+			}
+		}
+		
+		int reclaimed = 0;
+		
+		// Sweep phase: go from the back, since removing a member moves the last member into its place
+		for( int i=teams.size() - 1; i >= 0; i-- )
+		{
+			Team team = teams.get(i);
+			
+			if( !teamMarks[team.index] )
+			{
+				// Remove the Team while its compact index still belongs to it
+				teams.remove( team );
+				team.erase();
+				reclaimed++;
+			}
+		}
+		
+		for( int i=learners.size() - 1; i >= 0; i-- )
+		{
+			Learner learner = learners.get(i);
+			
+			if( !learnerMarks[learner.index] )
+			{
+				learners.remove( learner );
+				learner.erase();
+				reclaimed++;
+			}
+		}
+		
+		teamIndicesInUse = Team.indices.inUse();
+		learnerIndicesInUse = Learner.indices.inUse();
+		
+		// Recount the references between the surviving Teams and Learners
+		for( Team team : teams )
+			team.learnerReferenceCount = 0;
+		
+		for( Learner learner : learners )
+			learner.teamReferenceCount = 0;
+		
+		for( Team team : teams )
+			for( Learner learner : team.learners )
+				learner.teamReferenceCount++;
+		
+		for( Learner learner : learners )
+			if( !learner.getActionObject().isAtomic() )
+				learner.getActionObject().team.learnerReferenceCount++;
+		
+		// A Team with no references to it (aka an in-degree of zero) is a root Team. Teams which
+		// were root Teams already keep their order at the front, so a ranking survives collection.
+		ArrayList<Team> previousRoots = new ArrayList<Team>( teams.getRoots() );
+		teams.clearRoots();
+		
+		for( Team team : previousRoots )
+			if( teams.contains(team) && team.learnerReferenceCount == 0 )
+				teams.setRoot( team, true );
+		
+		for( Team team : teams )
+			if( team.learnerReferenceCount == 0 )
+				teams.setRoot( team, true );
+		
+		return reclaimed;
+	}
+	
+	// Return the number of Team indices handed out and not released after the last collection
+	public int getTeamIndicesInUse()
+	{
+		return teamIndicesInUse;
+	}
+	
+	// Return the number of Learner indices handed out and not released after the last collection
+	public int getLearnerIndicesInUse()
+	{
+		return learnerIndicesInUse;
+	}
+	
+	// Mark a Team as reached and queue its Learners, unless it was reached already. Teams
+	// outside the population have already been deleted, so they aren't brought back.
+	protected void mark( Team team, TeamPopulation teams )
+	{
+		if( teamMarks[team.index] || !teams.contains(team) )
+			return;
+		
+		teamMarks[team.index] = true;
+		pending.push( team );
+	}
+	
+	// Return an array of cleared marks with room for the given number of indices
+	protected static boolean[] clearedMarks( boolean[] marks, int capacity )
+	{
+		if( marks.length < capacity )
+			return new boolean[capacity];
+		
+		Arrays.fill( marks, false );
+		return marks;
+	}
+}
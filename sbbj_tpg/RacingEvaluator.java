@@ -0,0 +1,270 @@
+package sbbj_tpg;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Evaluates the Root Teams of a TPGLearn population in a noisy Environment by racing them. Every
+// Team first plays minimumEpisodes episodes, and the mean and variance of its rewards are kept
+// as RunningStatistics. The Teams are then ranked by mean reward, and the cut selection() will
+// make is placed halfway between the last Team it keeps and the first Team it removes. A Team
+// whose confidence interval lies wholly on one side of the cut is decided and stops playing.
+// The remaining budget is spent in rounds: in each round, the closest half of the undecided
+// Teams, measured from the cut in standard errors, play one more episode. Racing ends when every
+// Team is decided or has played maximumEpisodes episodes, or when the budget runs out.
+//
+// Each Team's outcome for the label is the mean of its rewards, so selection() afterwards works
+// as usual. When several labels are learned, each label is raced against the same cut even though
+// selection() ranks Teams by Pareto dominance, so racing only approximates the final ranking.
+public class RacingEvaluator
+{
+	// The number of episodes every Team plays before any Team can be decided
+	protected int minimumEpisodes = 3;
+	
+	// The most episodes any one Team plays
+	protected int maximumEpisodes = 20;
+	
+	// The number of episodes available per Root Team on average, shared by all the Teams
+	protected double episodeBudget = 6.0;
+	
+	// The number of standard errors either side of a Team's mean which make up its confidence interval
+	protected double confidence = 1.96;
+	
+	// The statistics of every Team in the last evaluation, in Root Team order
+	protected RunningStatistics[] statistics = new RunningStatistics[0];
+	
+	// The number of episodes played in the last evaluation
+	protected long episodes = 0;
+	
+	// Set the number of episodes every Team plays before racing starts. At least two are needed
+	// to estimate a variance, and no more than the maximum.
+	public void setMinimumEpisodes( int minimumEpisodes )
+	{
+		if( minimumEpisodes < 2 )
+			throw new RuntimeException("Racing needs at least two episodes per Team.");
+		
+		if( minimumEpisodes > maximumEpisodes )
+			throw new RuntimeException("The minimum number of episodes can't be more than the maximum of " + maximumEpisodes + ".");
+		
+		this.minimumEpisodes = minimumEpisodes;
+	}
+	
+	// Set the most episodes any one Team plays, which can't be less than the minimum
+	public void setMaximumEpisodes( int maximumEpisodes )
+	{
+		if( maximumEpisodes < minimumEpisodes )
+			throw new RuntimeException("The maximum number of episodes can't be less than the minimum of " + minimumEpisodes + ".");
+		
+		this.maximumEpisodes = maximumEpisodes;
+	}
+	
+	// Set the number of episodes available per Root Team on average
+	public void setEpisodeBudget( double episodeBudget )
+	{
+		if( episodeBudget < 0 )
+			throw new RuntimeException("The episode budget can't be negative.");
+		
+		this.episodeBudget = episodeBudget;
+	}
+	
+	// Set the number of standard errors used for confidence intervals. Larger values decide fewer
+	// Teams early, which costs more episodes but makes fewer mistakes.
+	public void setConfidence( double confidence )
+	{
+		if( confidence < 0 )
+			throw new RuntimeException("The confidence can't be negative.");
+		
+		this.confidence = confidence;
+	}
+	
+	// Return the statistics of a Team in the last evaluation, by its Root Team index
+	public RunningStatistics getStatistics( int teamIndex )
+	{
+		return statistics[teamIndex];
+	}
+	
+	// Return the number of episodes played in the last evaluation
+	public long getEpisodes()
+	{
+		return episodes;
+	}
+	
+	// Race every Root Team on the task named by the label, using the common ForkJoinPool
+	public void evaluate( TPGLearn tpg, EpisodeFactory factory, String label )
+	{
+		evaluate( tpg, factory, label, ForkJoinPool.commonPool() );
+	}
+	
+	// Race every Root Team on the task named by the label, playing episodes concurrently on the
+	// given executor. Like TPGLearn.evaluate(), this takes the place of the participate()/reward()
+	// cycle, the outcomes are stored in Root Team order and the Team queue is emptied. Teams which
+	// already hold an outcome for the label, such as those restored from a fitness cache, keep it
+	// and don't play. The results don't depend on the number of threads.
+	public void evaluate( TPGLearn tpg, EpisodeFactory factory, String label, ExecutorService executor )
+	{
+		// Take a fixed copy of the Root Teams, so every Team keeps its index for the whole evaluation
+		ArrayList<Team> evaluated = new ArrayList<Team>( tpg.teams.getRoots() );
+		int size = evaluated.size();
+		
+		statistics = new RunningStatistics[size];
+		episodes = 0;
+		
+		// The outcome of every Team, which is its mean reward unless the Team already had one
+		double[] outcomes = new double[size];
+		
+		// Whether each Team is still undecided
+		boolean[] racing = new boolean[size];
+		
+		// The number of episodes each Team plays in the current round
+		int[] rounds = new int[size];
+		
+		OpenDouble outcome = new OpenDouble(0.0);
+		
+		for( int i=0; i < size; i++ )
+		{
+			statistics[i] = new RunningStatistics();
+			
+			if( evaluated.get(i).getOutcome(label, outcome) )
+				outcomes[i] = outcome.getValue();
+			else
+			{
+				racing[i] = true;
+				rounds[i] = minimumEpisodes;
+			}
+		}
+		
+		// Every Team which has to play starts with the minimum number of episodes
+		play( evaluated, factory, rounds, executor );
+		
+		// Every Team stays undecided if selection() keeps them all or removes them all
+		int keep = tpg.survivorCount();
+		long budget = (long)(episodeBudget * size) - episodes;
+		
+		while( budget > 0 && keep > 0 && keep < size )
+		{
+			for( int i=0; i < size; i++ )
+				if( racing[i] )
+					outcomes[i] = statistics[i].getMean();
+			
+			// Place the cut halfway between the last Team kept and the first Team removed
+			int[] order = new TeamRanking( outcomes ).top( keep + 1 );
+			double cut = (outcomes[order[keep - 1]] + outcomes[order[keep]]) / 2;
+			
+			// Find the Teams whose confidence intervals still contain the cut
+			ArrayList<Integer> contenders = new ArrayList<Integer>();
+			final double[] distances = new double[size];
+			
+			for( int i=0; i < size; i++ )
+			{
+				if( !racing[i] )
+					continue;
+				
+				double difference = Math.abs( statistics[i].getMean() - cut );
+				double error = statistics[i].getStandardError();
+				
+				if( statistics[i].getCount() >= maximumEpisodes || difference > confidence * error )
+				{
+					racing[i] = false;
+					continue;
+				}
+				
+				distances[i] = error > 0 ? difference / error : 0.0;
+				contenders.add( i );
+			}
+			
+			if( contenders.isEmpty() )
+				break;
+			
+			// The closest half of the contenders play another episode. The sort is stable, so
+			// contenders at the same distance stay in Root Team order.
+			Collections.sort( contenders, new Comparator<Integer>()
+			{
+				@Override
+				public int compare( Integer a, Integer b )
+				{
+					return Double.compare( distances[a], distances[b] );
+				}
+			});
+			
+			int chosen = (int)Math.min( (contenders.size() + 1) / 2, budget );
+			Arrays.fill( rounds, 0 );
+			
+			for( int i=0; i < chosen; i++ )
+				rounds[contenders.get(i)] = 1;
+			
+			play( evaluated, factory, rounds, executor );
+			budget -= chosen;
+		}
+		
+		for( int i=0; i < size; i++ )
+			if( statistics[i].getCount() > 0 )
+				outcomes[i] = statistics[i].getMean();
+		
+		tpg.storeOutcomes( evaluated, label, outcomes );
+	}
+	
+	// Play the given number of episodes with every Team, each Team on its own task, and add the
+	// rewards to the Teams' statistics. A Team plays its episodes in order, so its statistics are
+	// always built the same way.
+	protected void play( final ArrayList<Team> evaluated, final EpisodeFactory factory, int[] rounds, ExecutorService executor )
+	{
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+		
+		for( int i=0; i < rounds.length; i++ )
+		{
+			if( rounds[i] == 0 )
+				continue;
+			
+			final int teamIndex = i;
+			final int count = rounds[i];
+			
+			results.add( executor.submit( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Team team = evaluated.get( teamIndex );
+					RunningStatistics teamStatistics = statistics[teamIndex];
+					
+					for( int j=0; j < count; j++ )
+					{
+						final RegisterContext teamContext = new RegisterContext();
+						int episode = (int)teamStatistics.getCount();
+						
+						teamStatistics.add( factory.create( teamIndex, episode ).play( new Agent()
+						{
+							@Override
+							public long act( double[] inputFeatures )
+							{
+								return team.getAction( teamContext, inputFeatures );
+							}
+						}));
+					}
+				}
+			}));
+			
+			episodes += count;
+		}
+		
+		// Wait for every Team to finish
+		try
+		{
+			for( Future<?> result : results )
+				result.get();
+		}
+		catch( InterruptedException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while racing Teams.", e);
+		}
+		catch( ExecutionException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			throw new RuntimeException("A Team evaluation failed during racing.", e.getCause());
+		}
+	}
+}
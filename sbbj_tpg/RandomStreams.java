@@ -0,0 +1,36 @@
+package sbbj_tpg;
+
+import java.util.SplittableRandom;
+
+// Derives independent random number streams from the seed of a learning run. Every stream is
+// identified by a (seed, generation, id) triple, so the random decisions made for one Team pair
+// or worker don't depend on how many other streams were used before it, or on which thread
+// runs it. This keeps runs reproducible when the work is spread over several threads.
+//
+// The streams are SplittableRandom generators, which are much faster than java.util.Random
+// and don't share any state, but are not thread-safe: each stream should stay on one thread.
+public class RandomStreams
+{
+	// The golden ratio constant used to spread consecutive generations and ids apart
+	protected static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	
+	// Return the generator for the stream identified by a seed, a generation and an id.
+	// The same three values always give the same sequence of random numbers.
+	public static SplittableRandom stream( long seed, long generation, long id )
+	{
+		long key = mix( seed );
+		key = mix( key + generation * GOLDEN_GAMMA );
+		key = mix( key + id * GOLDEN_GAMMA );
+		
+		return new SplittableRandom( key );
+	}
+	
+	// Scramble the bits of a 64 bit value, so that nearby inputs give unrelated outputs
+	// (the MurmurHash3 finalizer, as refined by David Stafford's variant 13)
+	protected static long mix( long z )
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,102 @@
+package sbbj_tpg;
+
+import java.util.Arrays;
+
+// Holds the general purpose registers of every Learner for one thread of execution. Learners
+// themselves carry no register state, so the same Learners can be evaluated by several threads
+// at once as long as each thread uses its own RegisterContext.
+//
+// The registers live in a single flat array, REGISTERS doubles per Learner, at an offset given
+// by the Learner's compact index. The ID of the Learner which last used each slot is kept
+// alongside, so when an index is handed on to a new Learner its registers start from zero.
+public class RegisterContext
+{
+	// The registers of every Learner seen by this context, REGISTERS doubles per slot
+	protected double[] registers;
+	
+	// The ID of the Learner whose registers are held in each slot, or -1 if the slot is unused
+	protected long[] owners;
+	
+	// Create an empty context
+	public RegisterContext()
+	{
+		this( 64 );
+	}
+	
+	// Create an empty context with room for the given number of Learners. It grows as needed.
+	public RegisterContext( int capacity )
+	{
+		capacity = Math.max( 1, capacity );
+		registers = new double[capacity * Learner.REGISTERS];
+		owners = new long[capacity];
+		Arrays.fill( owners, -1 );
+	}
+	
+	// Return the offset of a Learner's registers in the array returned by getRegisters(), making
+	// room for them first if needed. If the slot last belonged to a different Learner, the registers
+	// are zeroed before they're handed over.
+	public int offset( Learner learner )
+	{
+		int slot = learner.index;
+		
+		// Grow the context if this Learner's index is newer than any seen so far
+		if( slot >= owners.length )
+		{
+			int capacity = Math.max( slot + 1, owners.length * 2 );
+			int oldLength = owners.length;
+			
+			registers = Arrays.copyOf( registers, capacity * Learner.REGISTERS );
+			owners = Arrays.copyOf( owners, capacity );
+			Arrays.fill( owners, oldLength, capacity, -1 );
+		}
+		
+		int offset = slot * Learner.REGISTERS;
+		
+		// A recycled index starts over with zeroed registers
+		if( owners[slot] != learner.ID )
+		{
+			owners[slot] = learner.ID;
+			Arrays.fill( registers, offset, offset + Learner.REGISTERS, 0 );
+		}
+		
+		return offset;
+	}
+	
+	// Return the register array. It's replaced when the context grows, so it should be
+	// retrieved again after every call to offset().
+	public double[] getRegisters()
+	{
+		return registers;
+	}
+	
+	// Return a copy of a Learner's registers in this context
+	public double[] getRegisters( Learner learner )
+	{
+		int offset = offset( learner );
+		return Arrays.copyOfRange( registers, offset, offset + Learner.REGISTERS );
+	}
+	
+	// Zero the registers of every Learner, for example at the start of a new episode
+	public void reset()
+	{
+		Arrays.fill( registers, 0 );
+	}
+	
+	// Return an independent copy of this context, which can later be passed to restore()
+	public RegisterContext snapshot()
+	{
+		RegisterContext snapshot = new RegisterContext( owners.length );
+		
+		System.arraycopy( registers, 0, snapshot.registers, 0, registers.length );
+		System.arraycopy( owners, 0, snapshot.owners, 0, owners.length );
+		
+		return snapshot;
+	}
+	
+	// Return this context to the state held by a snapshot
+	public void restore( RegisterContext snapshot )
+	{
+		registers = Arrays.copyOf( snapshot.registers, snapshot.registers.length );
+		owners = Arrays.copyOf( snapshot.owners, snapshot.owners.length );
+	}
+}
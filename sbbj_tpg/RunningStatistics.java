@@ -0,0 +1,69 @@
+package sbbj_tpg;
+
+// Keeps the mean and variance of a stream of values without storing the values, using Welford's
+// method so the variance stays accurate even when the values are large and close together
+public class RunningStatistics
+{
+	// The number of values seen so far
+	protected long count = 0;
+	
+	// The mean of the values seen so far
+	protected double mean = 0.0;
+	
+	// The sum of squared differences from the mean
+	protected double squares = 0.0;
+	
+	// Add a value to the statistics
+	public void add( double value )
+	{
+		count++;
+		
+		double delta = value - mean;
+		mean += delta / count;
+		squares += delta * (value - mean);
+	}
+	
+	// Return the number of values seen so far
+	public long getCount()
+	{
+		return count;
+	}
+	
+	// Return the mean of the values, or 0 if there are none
+	public double getMean()
+	{
+		return mean;
+	}
+	
+	// Return the sample variance of the values, which is infinite until there are two of them
+	public double getVariance()
+	{
+		if( count < 2 )
+			return Double.POSITIVE_INFINITY;
+		
+		return squares / (count - 1);
+	}
+	
+	// Return the standard error of the mean, which is infinite until there are two values
+	public double getStandardError()
+	{
+		if( count < 2 )
+			return Double.POSITIVE_INFINITY;
+		
+		return Math.sqrt( getVariance() / count );
+	}
+	
+	// Forget every value
+	public void clear()
+	{
+		count = 0;
+		mean = 0.0;
+		squares = 0.0;
+	}
+	
+	// Return the string representation of these statistics
+	public String toString()
+	{
+		return "mean " + mean + " variance " + getVariance() + " count " + count;
+	}
+}
@@ -0,0 +1,186 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.util.*;
+
+// Encodes a root Team, together with every Team and Learner it can reach, in a compact binary
+// form, and decodes it again into new Team and Learner objects. Teams and Learners refer to each
+// other by their position in the encoding rather than by ID, so a subgraph can be decoded on its
+// own, for example by a TPGWorker in another process. The encoding is:
+//
+//   int teamCount,    then for each Team:    long ID, long birthday (the root Team comes first)
+//   int learnerCount, then for each Learner: long ID, long birthday, byte actionType,
+//                                            long action or int team position, int programSize,
+//                                            programSize longs of program
+//   then for each Team: int size, then size ints of Learner positions
+public class SubgraphCodec
+{
+	// Action types stored for each Learner
+	protected static final byte ATOMIC_ACTION = 0;
+	protected static final byte TEAM_ACTION = 1;
+	
+	// Encode a root Team's subgraph into a byte array
+	public static byte[] encode( Team root )
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		try
+		{
+			DataOutputStream out = new DataOutputStream( bytes );
+			write( root, out );
+			out.flush();
+		}
+		catch( IOException e )
+		{
+			// Byte array streams never fail
+			throw new RuntimeException("Could not encode a Team.", e);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	// Decode a subgraph from a byte array and return its root Team
+	public static Team decode( byte[] encoded )
+	{
+		try
+		{
+			return read( new DataInputStream(new ByteArrayInputStream(encoded)) );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not decode a Team.", e);
+		}
+	}
+	
+	// Write a root Team's subgraph to the output
+	public static void write( Team root, DataOutput out ) throws IOException
+	{
+		// Find the subgraph in a fixed order, starting from the root Team
+		LinkedHashSet<Team> found = new LinkedHashSet<Team>();
+		root.findAllTeams( found );
+		
+		// Number the Teams and Learners by their position in the encoding
+		HashMap<Team, Integer> teamPositions = new HashMap<Team, Integer>();
+		LinkedHashMap<Learner, Integer> learnerPositions = new LinkedHashMap<Learner, Integer>();
+		
+		for( Team team : found )
+		{
+			teamPositions.put( team, teamPositions.size() );
+			
+			for( Learner learner : team.getLearners() )
+				if( !learnerPositions.containsKey(learner) )
+					learnerPositions.put( learner, learnerPositions.size() );
+		}
+		
+		out.writeInt( found.size() );
+		
+		for( Team team : found )
+		{
+			out.writeLong( team.getID() );
+			out.writeLong( team.getBirthday() );
+		}
+		
+		out.writeInt( learnerPositions.size() );
+		
+		for( Learner learner : learnerPositions.keySet() )
+		{
+			out.writeLong( learner.getID() );
+			out.writeLong( learner.getBirthday() );
+			
+			Action action = learner.getActionObject();
+			
+			if( action.isAtomic() )
+			{
+				out.writeByte( ATOMIC_ACTION );
+				out.writeLong( action.action );
+			}
+			else
+			{
+				out.writeByte( TEAM_ACTION );
+				out.writeInt( teamPositions.get(action.team) );
+			}
+			
+			out.writeInt( learner.programSize );
+			
+			for( int i=0; i < learner.programSize; i++ )
+				out.writeLong( learner.program[i] );
+		}
+		
+		for( Team team : found )
+		{
+			out.writeInt( team.size() );
+			
+			for( Learner learner : team.getLearners() )
+				out.writeInt( learnerPositions.get(learner) );
+		}
+	}
+	
+	// Read a subgraph from the input and return its root Team. The Teams and Learners read are
+	// new objects with the IDs they were encoded with, and they aren't part of any population.
+	public static Team read( DataInput in ) throws IOException
+	{
+		Team[] teams = new Team[ in.readInt() ];
+		
+		for( int i=0; i < teams.length; i++ )
+			teams[i] = new Team( in.readLong(), in.readLong(), 0 );
+		
+		Learner[] learners = new Learner[ in.readInt() ];
+		
+		for( int i=0; i < learners.length; i++ )
+		{
+			long ID = in.readLong();
+			long birthday = in.readLong();
+			byte actionType = in.readByte();
+			long action = 0;
+			Team team = null;
+			
+			if( actionType == ATOMIC_ACTION )
+				action = in.readLong();
+			else if( actionType == TEAM_ACTION )
+				team = teams[ in.readInt() ];
+			else
+				throw new IOException("Unknown action type " + actionType + " in an encoded Team.");
+			
+			long[] program = new long[ in.readInt() ];
+			
+			for( int j=0; j < program.length; j++ )
+				program[j] = in.readLong();
+			
+			if( team == null )
+				learners[i] = new Learner( ID, birthday, action, 0, program );
+			else
+			{
+				learners[i] = new Learner( ID, birthday, team, 0, program );
+				team.increaseReferences();
+			}
+		}
+		
+		for( Team team : teams )
+		{
+			int size = in.readInt();
+			
+			for( int j=0; j < size; j++ )
+				team.addLearner( learners[in.readInt()] );
+		}
+		
+		return teams[0];
+	}
+	
+	// Erase every Team and Learner of a decoded subgraph, giving back their compact indices
+	public static void erase( Team root )
+	{
+		LinkedHashSet<Team> found = new LinkedHashSet<Team>();
+		root.findAllTeams( found );
+		
+		LinkedHashSet<Learner> learners = new LinkedHashSet<Learner>();
+		
+		for( Team team : found )
+			learners.addAll( team.getLearners() );
+		
+		for( Team team : found )
+			team.erase();
+		
+		for( Learner learner : learners )
+			learner.erase();
+	}
+}
@@ -1,6 +1,7 @@
 package sbbj_tpg;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
 import java.io.*;
 
 public class TPGAlgorithm 
@@ -8,12 +9,14 @@ public class TPGAlgorithm
 	// A map for holding arguments from the parameters file
 	public HashMap<String, String> arguments = null;
 	
-	// A variable for holding a static Random Number Generator 
-	public static Random RNG = null;
+	// A variable for holding a static Random Number Generator. TPGLearn draws from its own
+	// RandomStreams instead, so this is only used by code which doesn't provide a generator.
+	public static RandomGenerator RNG = null;
 	
 	// TPG Framework Objects
 	protected TPGLearn tpgLearn = null;
 	protected TPGPlay tpgPlay = null;
+	protected TPGIslands tpgIslands = null;
 	
 	// Create a new TPGAlgorithm in Learn or Play mode
 	public TPGAlgorithm( String inputFile, String type )
@@ -28,6 +31,11 @@ public class TPGAlgorithm
 			System.out.println("Starting TPG in Play Mode.");
 			startPlaying( inputFile );
 		}
+		else if( type.equals("islands") )
+		{
+			System.out.println("Starting TPG in Island Mode.");
+			startIslands( inputFile );
+		}
 		else
 			throw new RuntimeException("Uh, we had a slight input parameters malfunction, but uh... everything's perfectly all right now. We're fine. We're all fine here now, thank you. How are you?");
 	}
@@ -45,14 +53,31 @@ public class TPGAlgorithm
 		readArgumentsToMap( argumentsFile );
 
 		// Set the seed for the RNG
-		RNG = new Random( Integer.parseInt(arguments.get("seed")) );
+		RNG = new SplittableRandom( Integer.parseInt(arguments.get("seed")) );
 		if( Integer.valueOf(arguments.get("seed")) == 0 )
-			RNG = new Random( System.currentTimeMillis() );
+			RNG = new SplittableRandom( System.currentTimeMillis() );
 		
 		// Create a new TPGLearn object to start the learning process
 		tpgLearn = new TPGLearn(arguments);
 	}
 	
+	// Start an Island session, where several populations learn side by side
+	public void startIslands( String argumentsFile )
+	{
+		// Read the arguments just like a Learn session
+		arguments = new HashMap<String, String>();
+		arguments.put("procedureType", "all");
+		readArgumentsToMap( argumentsFile );
+		
+		// The islands draw from their own random streams, but code without a generator still uses the RNG
+		RNG = new SplittableRandom( Integer.parseInt(arguments.get("seed")) );
+		if( Integer.valueOf(arguments.get("seed")) == 0 )
+			RNG = new SplittableRandom( System.currentTimeMillis() );
+		
+		// Create the islands, one TPGLearn object each
+		tpgIslands = new TPGIslands(arguments);
+	}
+	
 	// Start a Play session
 	public void startPlaying( String modelFile )
 	{
@@ -66,6 +91,12 @@ public class TPGAlgorithm
 		return tpgLearn;
 	}
 	
+	// Get the TPGIslands object. This returns null unless TPGAlgorithm is in Island mode.
+	public TPGIslands getTPGIslands()
+	{
+		return tpgIslands;
+	}
+	
 	// Get the TPGPlay object. This returns null if TPGAlgorithm is in Learn mode.
 	public TPGPlay getTPGPlay()
 	{
@@ -0,0 +1,373 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Evaluates the Root Teams of a TPGLearn population on TPGWorkers running in other processes,
+// possibly on other machines. Workers connect to the coordinator's port, and every Root Team is
+// sent to one of them as a job, encoded with the SubgraphCodec. Each worker plays one job at a
+// time and sends back the reward, and sends a heartbeat every so often while it's connected.
+// A worker which stops sending anything for heartbeatTimeout milliseconds, or whose connection
+// breaks, is dropped, whether or not it has a job, and any job it had is handed to another worker.
+//
+// Selection and reproduction stay in the coordinating process, so this is used just like
+// TPGLearn.evaluate(): call evaluate() once per label in every generation.
+public class TPGCoordinator implements Closeable
+{
+	// Message types. Jobs and the shutdown go from the coordinator to a worker, while results,
+	// errors and heartbeats go from a worker to the coordinator.
+	//   JOB:       int teamIndex, String label, int length, length bytes of encoded Team
+	//   RESULT:    int teamIndex, double reward
+	//   ERROR:     int teamIndex, String message
+	//   HEARTBEAT: nothing else
+	//   SHUTDOWN:  nothing else
+	public static final byte JOB = 1;
+	public static final byte RESULT = 2;
+	public static final byte ERROR = 3;
+	public static final byte HEARTBEAT = 4;
+	public static final byte SHUTDOWN = 5;
+	
+	// The number of milliseconds a worker may stay silent before it's considered lost
+	protected volatile int heartbeatTimeout = 5000;
+	
+	// The socket workers connect to
+	protected ServerSocket server = null;
+	
+	// Jobs waiting for a worker, including jobs taken back from lost workers
+	protected LinkedBlockingQueue<Job> pending = new LinkedBlockingQueue<Job>();
+	
+	// The number of workers currently connected
+	protected AtomicInteger workers = new AtomicInteger( 0 );
+	
+	// False once the coordinator has been closed
+	protected volatile boolean running = true;
+	
+	// One Root Team to be evaluated in one evaluation
+	protected static class Job
+	{
+		// The evaluation this job belongs to
+		Evaluation evaluation;
+		
+		// The position of the Team in the evaluation, which is the team index sent to workers
+		int index;
+		
+		// The Team encoded by the SubgraphCodec
+		byte[] team;
+		
+		Job( Evaluation evaluation, int index, byte[] team )
+		{
+			this.evaluation = evaluation;
+			this.index = index;
+			this.team = team;
+		}
+	}
+	
+	// The state of one call to evaluate()
+	protected static class Evaluation
+	{
+		// The label the Teams are evaluated on
+		String label;
+		
+		// The reward of every Team, and whether it has arrived yet
+		double[] rewards;
+		boolean[] finished;
+		
+		// Counts down as rewards arrive
+		CountDownLatch remaining;
+		
+		// The first error reported by a worker, if any
+		volatile String failure = null;
+		
+		Evaluation( String label, int size )
+		{
+			this.label = label;
+			this.rewards = new double[size];
+			this.finished = new boolean[size];
+			this.remaining = new CountDownLatch( size );
+		}
+		
+		// Store a reward, unless one already arrived for the job from a worker thought to be lost
+		synchronized void finish( int index, double reward )
+		{
+			if( finished[index] )
+				return;
+			
+			finished[index] = true;
+			rewards[index] = reward;
+			remaining.countDown();
+		}
+		
+		synchronized boolean isFinished( int index )
+		{
+			return finished[index];
+		}
+	}
+	
+	// Start a coordinator which accepts workers on the given port. Port 0 picks a free port,
+	// which can be found with getPort().
+	public TPGCoordinator( int port )
+	{
+		try
+		{
+			server = new ServerSocket( port );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException("Could not open the coordinator port.", e);
+		}
+		
+		// Accept workers in the background for as long as the coordinator runs
+		Thread acceptor = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				acceptWorkers();
+			}
+		}, "TPGCoordinator-accept" );
+		
+		acceptor.setDaemon( true );
+		acceptor.start();
+	}
+	
+	// Return the port workers connect to
+	public int getPort()
+	{
+		return server.getLocalPort();
+	}
+	
+	// Return the number of workers currently connected
+	public int getWorkerCount()
+	{
+		return workers.get();
+	}
+	
+	// Set the number of milliseconds a worker may stay silent before its job is handed to another
+	// worker. This should be several times the heartbeat interval of the workers. Workers which
+	// are already connected use the new timeout from their next job on.
+	public void setHeartbeatTimeout( int milliseconds )
+	{
+		heartbeatTimeout = milliseconds;
+	}
+	
+	// Evaluate every Root Team of the population on the task named by the label, using the
+	// connected workers, and wait until every reward has arrived. The rewards are stored as
+	// outcomes in Root Team order, just like TPGLearn.evaluate(), and the Team queue is emptied.
+	// Workers create Environments by team index, so results match a local evaluate() that uses
+	// the same EnvironmentFactory. If no workers are connected, this waits for one to connect.
+	public void evaluate( TPGLearn tpg, String label )
+	{
+		// Take a fixed copy of the Root Teams, so every Team keeps its index for the whole evaluation
+		ArrayList<Team> evaluated = new ArrayList<Team>( tpg.teams.getRoots() );
+		Evaluation evaluation = new Evaluation( label, evaluated.size() );
+		
+		for( int i=0; i < evaluated.size(); i++ )
+		{
+			// Teams restored from the fitness cache already hold their outcome, so they don't play
+			if( evaluated.get(i).hasOutcome(label) )
+				evaluation.finish( i, 0.0 );
+			else
+				pending.add( new Job(evaluation, i, SubgraphCodec.encode(evaluated.get(i))) );
+		}
+		
+		// Wait for every reward, giving up if a worker reports that a Team failed
+		try
+		{
+			while( !evaluation.remaining.await(100, TimeUnit.MILLISECONDS) )
+			{
+				if( evaluation.failure != null )
+					break;
+				
+				if( !running )
+					throw new RuntimeException("The coordinator was closed during an evaluation.");
+			}
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while evaluating Teams remotely.", e);
+		}
+		
+		if( evaluation.failure != null )
+		{
+			// Leave nothing from this evaluation behind for the workers. Jobs of other evaluations
+			// running on this coordinator at the same time stay queued.
+			Iterator<Job> jobs = pending.iterator();
+			
+			while( jobs.hasNext() )
+				if( jobs.next().evaluation == evaluation )
+					jobs.remove();
+			
+			throw new RuntimeException("A remote Team evaluation failed: " + evaluation.failure);
+		}
+		
+		tpg.storeOutcomes( evaluated, label, evaluation.rewards );
+	}
+	
+	// Stop accepting workers and tell every connected worker to shut down
+	@Override
+	public void close()
+	{
+		running = false;
+		
+		try
+		{
+			server.close();
+		}
+		catch( IOException e )
+		{
+			System.err.println(e);
+		}
+	}
+	
+	// Accept new workers until the coordinator is closed, serving each one on its own thread
+	protected void acceptWorkers()
+	{
+		while( running )
+		{
+			try
+			{
+				final Socket socket = server.accept();
+				
+				Thread handler = new Thread( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						serve( socket );
+					}
+				}, "TPGCoordinator-worker" );
+				
+				handler.setDaemon( true );
+				handler.start();
+			}
+			catch( IOException e )
+			{
+				// Closing the server socket ends the loop
+				if( running )
+					System.err.println(e);
+			}
+		}
+	}
+	
+	// Hand jobs to one worker, one at a time, until the coordinator is closed or the worker is lost
+	protected void serve( Socket socket )
+	{
+		workers.incrementAndGet();
+		Job job = null;
+		
+		try
+		{
+			socket.setTcpNoDelay( true );
+			
+			DataInputStream in = new DataInputStream( new BufferedInputStream(socket.getInputStream()) );
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream(socket.getOutputStream()) );
+			
+			// When the worker was last heard from
+			long lastHeard = System.currentTimeMillis();
+			
+			while( running )
+			{
+				job = pending.poll( 100, TimeUnit.MILLISECONDS );
+				
+				// Jobs can be finished already if they were handed out again after a worker seemed lost
+				if( job == null || job.evaluation.isFinished(job.index) || job.evaluation.failure != null )
+				{
+					job = null;
+					
+					// Read the heartbeats sent while idle, so a worker which died without a job is dropped too
+					while( in.available() > 0 )
+					{
+						byte type = in.readByte();
+						
+						if( type != HEARTBEAT )
+							throw new IOException("A worker without a job sent a message of type " + type + ".");
+						
+						lastHeard = System.currentTimeMillis();
+					}
+					
+					if( System.currentTimeMillis() - lastHeard > heartbeatTimeout )
+						throw new IOException("A worker without a job stopped sending heartbeats.");
+					
+					continue;
+				}
+				
+				// Apply the current timeout, which may have changed since the worker connected
+				socket.setSoTimeout( heartbeatTimeout );
+				
+				out.writeByte( JOB );
+				out.writeInt( job.index );
+				out.writeUTF( job.evaluation.label );
+				out.writeInt( job.team.length );
+				out.write( job.team );
+				out.flush();
+				
+				// Wait for the result, skipping heartbeats. A read which times out means the worker is lost.
+				while( true )
+				{
+					byte type = in.readByte();
+					
+					if( type == HEARTBEAT )
+						continue;
+					
+					if( type == RESULT )
+					{
+						int index = in.readInt();
+						double reward = in.readDouble();
+						
+						if( index != job.index )
+							throw new IOException("A worker sent the result of job " + index + " instead of job " + job.index + ".");
+						
+						job.evaluation.finish( index, reward );
+						break;
+					}
+					
+					if( type == ERROR )
+					{
+						in.readInt();
+						job.evaluation.failure = in.readUTF();
+						break;
+					}
+					
+					throw new IOException("A worker sent an unknown message type " + type + ".");
+				}
+				
+				job = null;
+				lastHeard = System.currentTimeMillis();
+			}
+			
+			// The coordinator is closing, so let the worker go
+			out.writeByte( SHUTDOWN );
+			out.flush();
+		}
+		catch( IOException e )
+		{
+			// The worker is lost. Its job, if it had one, goes to another worker.
+			if( job != null )
+				pending.add( job );
+		}
+		catch( InterruptedException e )
+		{
+			if( job != null )
+				pending.add( job );
+			
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			workers.decrementAndGet();
+			
+			try
+			{
+				socket.close();
+			}
+			catch( IOException e )
+			{
+				System.err.println(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,218 @@
+package sbbj_tpg;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Runs several TPGLearn populations (islands) side by side, each evolving on its own thread with
+// its own Teams, Learners and random streams. The islands only wait for each other every
+// migrationInterval generations, when copies of the best root Teams of every island, together
+// with everything those Teams can reach, are sent to other islands as chosen by the topology.
+//
+// Migration happens on one thread in island order, and every island draws from its own random
+// streams, so a run with a fixed seed evolves the same way every time. Team and Learner IDs are
+// drawn from shared counters, so the IDs themselves can differ between runs.
+public class TPGIslands
+{
+	// The populations, one per island
+	protected TPGLearn[] islands = null;
+	
+	// The number of generations each island runs between migrations
+	protected int migrationInterval = 10;
+	
+	// The number of root Teams each island sends to every destination when migrating
+	protected int migrationCount = 1;
+	
+	// Decides where each island's migrants go
+	protected MigrationTopology topology = MigrationTopology.RING;
+	
+	// Create the islands from a map of arguments. On top of the usual TPGLearn arguments, these
+	// optional arguments are read: islandCount (defaults to the number of processors),
+	// migrationInterval, migrationCount and migrationTopology (ring or fullyConnected).
+	public TPGIslands( Map<String, String> arguments )
+	{
+		int islandCount = Runtime.getRuntime().availableProcessors();
+		
+		if( arguments.containsKey("islandCount") )
+			islandCount = Integer.valueOf( arguments.get("islandCount") );
+		
+		if( arguments.containsKey("migrationInterval") )
+			migrationInterval = Integer.valueOf( arguments.get("migrationInterval") );
+		
+		if( arguments.containsKey("migrationCount") )
+			migrationCount = Integer.valueOf( arguments.get("migrationCount") );
+		
+		if( arguments.containsKey("migrationTopology") )
+		{
+			String name = arguments.get("migrationTopology");
+			
+			if( name.equals("ring") )
+				topology = MigrationTopology.RING;
+			else if( name.equals("fullyConnected") )
+				topology = MigrationTopology.FULLY_CONNECTED;
+			else
+				throw new RuntimeException("Unknown migration topology " + name + ".");
+		}
+		
+		if( islandCount < 1 || migrationInterval < 1 || migrationCount < 0 )
+			throw new RuntimeException("Island counts and migration intervals must be positive.");
+		
+		islands = new TPGLearn[islandCount];
+		
+		for( int i=0; i < islandCount; i++ )
+		{
+			islands[i] = new TPGLearn( arguments );
+			
+			// Every island gets its own random streams, all derived from the first island's seed
+			if( i > 0 )
+				islands[i].streamSeed = RandomStreams.mix( islands[0].streamSeed + i * RandomStreams.GOLDEN_GAMMA );
+			
+			// Keep the models saved by each island apart
+			islands[i].outputSuffix = "_island_" + i;
+		}
+		
+		System.out.println("arg islandCount " + islandCount);
+		System.out.println("arg migrationInterval " + migrationInterval);
+		System.out.println("arg migrationCount " + migrationCount);
+	}
+	
+	// Provide every island with the list of available actions
+	public boolean setActions( long[] acts )
+	{
+		for( TPGLearn island : islands )
+			if( !island.setActions(acts) )
+				return false;
+		
+		return true;
+	}
+	
+	// Create the initial populations, one island after another so their IDs are always the same
+	public boolean initialize()
+	{
+		for( TPGLearn island : islands )
+			if( !island.initialize() )
+				return false;
+		
+		return true;
+	}
+	
+	// Change the topology used for migration
+	public void setTopology( MigrationTopology topology )
+	{
+		this.topology = topology;
+	}
+	
+	// Evolve every island for the given number of generations on the task named by the label,
+	// migrating after every migrationInterval generations. In each generation an island evaluates
+	// its root Teams with TPGLearn.evaluate(), then runs selection(), generateNewTeams() and
+	// nextEpoch(). The islands create their Environments from the same factory at the same
+	// time, so the factory has to be safe to use from several threads.
+	public void evolve( EnvironmentFactory factory, String label, int generations )
+	{
+		// Every island gets a thread of its own
+		ExecutorService executor = Executors.newFixedThreadPool( islands.length );
+		
+		try
+		{
+			int done = 0;
+			
+			while( done < generations )
+			{
+				int steps = Math.min( migrationInterval, generations - done );
+				
+				runIslands( executor, factory, label, steps );
+				done += steps;
+				
+				// The islands are all waiting now, so this is when Teams move between them
+				if( steps == migrationInterval )
+					migrate();
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+	
+	// Run the given number of generations on every island concurrently and wait for them all to finish
+	protected void runIslands( ExecutorService executor, EnvironmentFactory factory, String label, int steps )
+	{
+		final EnvironmentFactory environments = factory;
+		final String task = label;
+		final int generations = steps;
+		
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>( islands.length );
+		
+		for( final TPGLearn island : islands )
+		{
+			results.add( executor.submit( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for( int i=0; i < generations; i++ )
+					{
+						island.evaluate( environments, task );
+						island.selection();
+						island.generateNewTeams();
+						island.nextEpoch();
+					}
+				}
+			}));
+		}
+		
+		// Wait for every island to finish
+		try
+		{
+			for( Future<?> result : results )
+				result.get();
+		}
+		catch( InterruptedException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while evolving islands.", e);
+		}
+		catch( ExecutionException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			throw new RuntimeException("An island failed to evolve.", e.getCause());
+		}
+	}
+	
+	// Send copies of the first migrationCount root Teams of every island to its destinations. Root
+	// Teams stay in rank order through selection and collection, so these are the best survivors
+	// of each island's last selection. The islands must not be evolving while this runs.
+	public void migrate()
+	{
+		// Choose every island's migrants before any island receives immigrants
+		ArrayList<ArrayList<Team>> migrants = new ArrayList<ArrayList<Team>>( islands.length );
+		
+		for( TPGLearn island : islands )
+		{
+			int count = Math.min( migrationCount, island.teams.rootCount() );
+			migrants.add( new ArrayList<Team>( island.teams.getRoots().subList(0, count) ) );
+		}
+		
+		// Copy the migrants into their destinations, in island order
+		for( int i=0; i < islands.length; i++ )
+			for( int destination : topology.destinations(i, islands.length) )
+				for( Team migrant : migrants.get(i) )
+					islands[destination].immigrate( migrant );
+	}
+	
+	// Return the number of islands
+	public int getIslandCount()
+	{
+		return islands.length;
+	}
+	
+	// Return the population of one island
+	public TPGLearn getIsland( int island )
+	{
+		return islands[island];
+	}
+}
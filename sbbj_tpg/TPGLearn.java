@@ -1,31 +1,39 @@
 package sbbj_tpg;
 
 import java.util.*;
-import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.random.RandomGenerator;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
 public class TPGLearn
 {
-	// Create a population list for all Teams
-	protected ArrayList<Team> teams = new ArrayList<Team>();
+	// Create a population for all Teams, which also tracks the Root Teams
+	protected TeamPopulation teams = new TeamPopulation();
 	
-	// Create a population list for Root Teams
-	protected ArrayList<Team> rootTeams = new ArrayList<Team>();
+	// Create a population for Learners
+	protected LearnerPopulation learners = new LearnerPopulation();
 	
-	// Create a population list for Learners
-	protected ArrayList<Learner> learners = new ArrayList<Learner>();
+	// The collector which removes unreachable Teams and Learners from the populations
+	protected PopulationCollector collector = new PopulationCollector();
 
 	// Create a list for holding actions
 	protected ArrayList<Long> actions = new ArrayList<Long>();
 
-	// Create a list for holding task labels
-	protected HashSet<String> labels = new HashSet<String>();
+	// The outcomes of every Team, by label ID. A label gets its ID the first time a Team is rewarded
+	// for it, so the matrix also holds the set of task labels.
+	protected OutcomeMatrix outcomes = teams.getOutcomes();
 	
-	// Create a queue for Teams during the learning process
-	LinkedList<Team> teamQueue = new LinkedList<Team>();
+	// Create a queue for Teams during the learning process. It's lock-free so that
+	// TeamHandles can be acquired from many threads at once.
+	ConcurrentLinkedQueue<Team> teamQueue = new ConcurrentLinkedQueue<Team>();
+	
+	// The number of TeamHandles which have been acquired but not yet released
+	protected AtomicInteger activeHandles = new AtomicInteger( 0 );
+	
+	// The registers used by the Learners during the learning process
+	protected RegisterContext context = new RegisterContext();
 	
 	// Team Population Size
 	protected int teamPopSize = 0;
@@ -68,7 +76,27 @@ public class TPGLearn
 
 	// Random seed value from the parameters file
 	protected int seed = 0;
+	
+	// The seed every RandomStreams stream of this run is derived from. It's the seed
+	// value from the parameters file, or taken from the clock if that value is 0.
+	protected long streamSeed = 0;
 
+	// Added to the name of the folder models are saved in, so that runs sharing a seed and a
+	// start time, such as the islands of a TPGIslands run, don't overwrite each other's models
+	protected String outputSuffix = "";
+
+	// Remembers the outcomes of unchanged Root Teams across generations, or null if outcomes are
+	// always earned again. Only use one with deterministic Environments (see FitnessCache).
+	protected FitnessCache fitnessCache = null;
+	
+	// Writes the models saved by saveBestTeam() on a background thread
+	protected ModelWriter modelWriter = new ModelWriter( 4 );
+	
+	// Whether saveBestTeam() saves into a content-addressed ModelStore instead of a full folder
+	// per generation, and the store in use, which is made for the run folder when first needed
+	protected boolean useModelStore = false;
+	protected ModelStore modelStore = null;
+	
 	// Create a date format and store it for saving files later
 	DateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy-hh-mm-ss");
 	Date currentDate = new Date();
@@ -90,6 +118,20 @@ public class TPGLearn
 		probProgramSwap = Double.valueOf( arguments.get("probProgramSwap") );
 		probProgramMutate = Double.valueOf( arguments.get("probProgramMutate") );	
 		seed = Integer.valueOf( arguments.get("seed") );
+		streamSeed = seed != 0 ? seed : System.currentTimeMillis();
+		
+		// The Learner compile threshold is optional, so only change it if it was provided
+		if( arguments.containsKey("compileThreshold") )
+			Learner.compileThreshold = Integer.valueOf( arguments.get("compileThreshold") );
+		
+		// The fitness cache is optional too. Its value is the maximum age of a cached outcome in
+		// generations, or -1 for outcomes which never expire.
+		if( arguments.containsKey("fitnessCacheAge") )
+			fitnessCache = new FitnessCache( Long.valueOf(arguments.get("fitnessCacheAge")) );
+		
+		// Saving into a model store is optional as well
+		if( arguments.containsKey("modelStore") )
+			useModelStore = Boolean.valueOf( arguments.get("modelStore") );
 		
 		// Print all the arguments to the screen to confirm they were read properly
 		System.out.println("arg teamPopSize " + teamPopSize);
@@ -105,6 +147,13 @@ public class TPGLearn
 		System.out.println("arg probProgramSwap " + probProgramSwap);
 		System.out.println("arg probProgramMutate " + probProgramMutate);
 		System.out.println("arg seed " + seed);
+		System.out.println("arg compileThreshold " + Learner.compileThreshold);
+		
+		if( fitnessCache != null )
+			System.out.println("arg fitnessCacheAge " + fitnessCache.maximumAge);
+		
+		if( useModelStore )
+			System.out.println("arg modelStore " + useModelStore);
 	}
 	
 	// Provide the list of available actions as a set of numbers
@@ -125,11 +174,11 @@ public class TPGLearn
 		if( !initializePopulations() ) 
 			return false;
 
-		// Create a new linked list to act as a queue for the remaining Teams to act
-		teamQueue = new LinkedList<Team>();
+		// Create a new queue for the remaining Teams to act
+		teamQueue = new ConcurrentLinkedQueue<Team>();
 		
 		// Add all the current root Teams to the Team queue
-		teamQueue.addAll(rootTeams);
+		teamQueue.addAll(teams.getRoots());
 				
 		// All the Teams are generated, so move to generation 0
 		epochs++;
@@ -148,6 +197,9 @@ public class TPGLearn
 		// Create a team and learner variable
 		Team team = null;
 		Learner learner = null;
+		
+		// The initial population gets its own random stream
+		RandomGenerator rng = randomStream( 0 );
 
 		int teamsToKeep = (int)teamPopSize;
 		
@@ -155,12 +207,12 @@ public class TPGLearn
 		for( int i=0; i < teamsToKeep; i++ )
 		{
 			// Get two different random actions
-			action1 = (long)(TPGAlgorithm.RNG.nextDouble() * actions.size());
+			action1 = (long)(rng.nextDouble() * actions.size());
 			
 			// Generate actions until action1 and action2 are different
 			do
 			{
-				action2 = (long)(TPGAlgorithm.RNG.nextDouble() * actions.size());
+				action2 = (long)(rng.nextDouble() * actions.size());
 			}
 			while( action1 == action2 );
 
@@ -169,31 +221,30 @@ public class TPGLearn
 			
 			// Create a Learner with the first action and add it to the Team
 			// as well as the Learner population.
-			learner = new Learner(-1, actions.get((int)action1), maximumProgramSize );
+			learner = new Learner(-1, actions.get((int)action1), maximumProgramSize, rng );
 			team.addLearner(learner);
 			learners.add(learner);
 			
 			// Create a Learner with the second action and add it to the Team
 			// as well as the Learner population.
-			learner = new Learner(-1, actions.get((int)action1), maximumProgramSize );
+			learner = new Learner(-1, actions.get((int)action1), maximumProgramSize, rng );
 			team.addLearner(learner);
 			learners.add(learner);
 			
 			// Since teams can be initialized with any number of Learners
 			// up to the maximumTeamSize, we randomize more here.
-			//long learnerThreshold = (long)(TPGAlgorithm.RNG.nextDouble() * (maximumTeamSize-2));
+			//long learnerThreshold = (long)(rng.nextDouble() * (maximumTeamSize-2));
 			long learnerThreshold = (long)maximumTeamSize-2;
 			
 			for( int j=0; j < learnerThreshold; j++ )
 			{
-				learner = new Learner(-1, actions.get((int)(TPGAlgorithm.RNG.nextDouble() * actions.size())), maximumProgramSize);
+				learner = new Learner(-1, actions.get((int)(rng.nextDouble() * actions.size())), maximumProgramSize, rng);
 				team.addLearner(learner);
 				learners.add(learner);
 			}
 			
-			// Add the final Team to the Team Population
-			teams.add(team);
-			rootTeams.add(team);
+			// Add the final Team to the Team Population as a Root Team
+			teams.add(team, true);
 		}
 		
 		// We've generated all the teams successfully; return true
@@ -203,30 +254,34 @@ public class TPGLearn
 	// Given an input feature set, produce an action
 	public long participate( double[] inputFeatures )
 	{
+		// Get the next Team
+		Team team = teamQueue.peek();
+		
 		// If we have no Teams left during this learning phase, then we can't learn anything
-		if( teamQueue.isEmpty() )
+		if( team == null )
 			return -1;
 		
-		// Otherwise get the next Team
-		Team team = teamQueue.getFirst();
-		
 		// Give the team the input features to find an action
-		return team.getAction(new HashSet<Team>(), inputFeatures);
+		return team.getAction(context, inputFeatures);
 	}
 	
 	// Given an input feature set and required action set, produce an action
 	public long participate( double[] inputFeatures, long[] actions )
 	{
+		// Get the next Team
+		Team team = teamQueue.peek();
+		
 		// If we have no Teams left during this learning phase, then we can't learn anything
-		if( teamQueue.isEmpty() )
+		if( team == null )
 			return -1;
 		
-		// Otherwise get the next Team
-		Team team = teamQueue.getFirst();
-		
-		// Give the team the input features to find an action
-		long action = team.getAction(new HashSet<Team>(), inputFeatures);
-		
+		// Give the team the input features to find an action, making sure it's an allowed one
+		return allowedAction( team.getAction(context, inputFeatures), actions );
+	}
+	
+	// If an action is in the action list, return it. Otherwise return a default of 0.
+	protected static long allowedAction( long action, long[] actions )
+	{
 		// If the team's action is in the action list, return it
 		for( int i=0; i < actions.length; i++ )
 			if( action == actions[i] )
@@ -236,22 +291,217 @@ public class TPGLearn
 		return 0L;
 	}
 	
+	// Given a whole set of input feature sets, produce an action for each of them. The rows are
+	// evaluated in batches with every Learner's registers starting from zero for each row, which
+	// suits classification tasks where the rows are independent of each other.
+	public long[] participate( double[][] inputFeatures )
+	{
+		// Get the next Team
+		Team team = teamQueue.peek();
+		
+		// If we have no Teams left during this learning phase, then we can't learn anything
+		if( team == null )
+			return null;
+		
+		// Give the team every row of input features to find an action for each
+		long[] actions = new long[inputFeatures.length];
+		team.getActions( inputFeatures, actions );
+		
+		return actions;
+	}
+	
 	// Provide a reward to the current Team after a participation cycle has ended
 	public boolean reward( String label, double reward )
 	{
+		// Remove the current Team from the queue
+		Team team = teamQueue.poll();
+		
 		// If there's no Team to reward, we don't bother
-		if( teamQueue.isEmpty() )
+		if( team == null )
 			return false;
 		
-		// If there's a Team, remove it from the queue and set its outcome
-		teamQueue.pop().setOutcome(label, reward);
-		
-		// Add this label to the label set, duplicates are automatically discarded
-		labels.add(label);		
+		// If there's a Team, set its outcome. A new label is added to the label set here.
+		team.setOutcome(label, reward);
+		cacheOutcome(team, label, reward);
 				
 		// Return true if the reward was successful
 		return true;
 	}
+	
+	// Take the next Team out of the Team queue so it can play on the calling thread. This is the
+	// concurrent alternative to the participate()/reward() cycle: any number of threads can each
+	// acquire a handle, play with participate( handle, ... ), report with reward( handle, ... ),
+	// and then release the handle. Returns null if there are no Teams left to play.
+	//
+	// Don't mix handles with the serial participate( double[] ) and reward( String, double )
+	// methods in the same generation, since both take Teams from the same queue.
+	public TeamHandle acquire()
+	{
+		// Count the handle before taking the Team off the queue, so remainingTeams() never misses it
+		activeHandles.incrementAndGet();
+		
+		Team team = teamQueue.poll();
+		
+		// If we have no Teams left during this learning phase, there's nothing to hand out
+		if( team == null )
+		{
+			activeHandles.decrementAndGet();
+			return null;
+		}
+		
+		return new TeamHandle( team );
+	}
+	
+	// Given a handle and an input feature set, produce an action from the handle's Team
+	public long participate( TeamHandle handle, double[] inputFeatures )
+	{
+		// A released handle can't play
+		if( handle.isReleased() )
+			return -1;
+		
+		// Give the team the input features to find an action
+		return handle.team.getAction(handle.context, inputFeatures);
+	}
+	
+	// Given a handle, an input feature set and a required action set, produce an action from the handle's Team
+	public long participate( TeamHandle handle, double[] inputFeatures, long[] actions )
+	{
+		// A released handle can't play
+		if( handle.isReleased() )
+			return -1;
+		
+		// Give the team the input features to find an action, making sure it's an allowed one
+		return allowedAction( handle.team.getAction(handle.context, inputFeatures), actions );
+	}
+	
+	// Provide a reward to a handle's Team for the task named by the provided label. A Team
+	// can be rewarded once for every label before its handle is released.
+	public boolean reward( TeamHandle handle, String label, double reward )
+	{
+		// A released handle can't be rewarded
+		if( handle.isReleased() )
+			return false;
+		
+		// Only the thread holding the handle touches its Team's outcomes. A new label is added to the label set here.
+		handle.team.setOutcome(label, reward);
+		cacheOutcome(handle.team, label, reward);
+		
+		// Return true if the reward was successful
+		return true;
+	}
+	
+	// Give a handle back once its Team has finished playing. Returns false if it was already released.
+	public boolean release( TeamHandle handle )
+	{
+		if( !handle.released.compareAndSet( false, true ) )
+			return false;
+		
+		activeHandles.decrementAndGet();
+		return true;
+	}
+	
+	// Evaluate every Root Team on the task named by the provided label, using the common ForkJoinPool
+	public void evaluate( EnvironmentFactory factory, String label )
+	{
+		evaluate( factory, label, ForkJoinPool.commonPool() );
+	}
+	
+	// Evaluate every Root Team on the task named by the provided label, running the Teams
+	// concurrently on the given executor. Each Team plays one episode in its own Environment
+	// and with its own RegisterContext, so no Team can affect another Team's result. The rewards
+	// are stored as outcomes once every Team has finished, in Root Team order, which makes the
+	// results the same no matter how many threads the executor uses.
+	//
+	// This takes the place of the participate()/reward() cycle for the current generation, so
+	// the Team queue is emptied. Call it once per label when learning multiple tasks. Teams which
+	// already hold an outcome for the label, such as those restored from the fitness cache, keep
+	// it and don't play, but every Team keeps its index so Environments are created the same way.
+	public void evaluate( EnvironmentFactory factory, String label, ExecutorService executor )
+	{
+		// Take a fixed copy of the Root Teams, so every Team keeps its index for the whole evaluation
+		final ArrayList<Team> evaluated = new ArrayList<Team>( teams.getRoots() );
+		final double[] rewards = new double[evaluated.size()];
+		final EnvironmentFactory environments = factory;
+		int labelID = outcomes.labelID( label );
+		
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>( evaluated.size() );
+		
+		// Start an evaluation task for every Team. Each task only writes its own reward slot.
+		for( int i=0; i < evaluated.size(); i++ )
+		{
+			final int teamIndex = i;
+			
+			if( evaluated.get(i).hasOutcome(labelID) )
+				continue;
+			
+			results.add( executor.submit( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					final Team team = evaluated.get( teamIndex );
+					final RegisterContext teamContext = new RegisterContext();
+					
+					rewards[teamIndex] = environments.create( teamIndex ).play( new Agent()
+					{
+						@Override
+						public long act( double[] inputFeatures )
+						{
+							return team.getAction( teamContext, inputFeatures );
+						}
+					});
+				}
+			}));
+		}
+		
+		// Wait for every Team to finish
+		try
+		{
+			for( Future<?> result : results )
+				result.get();
+		}
+		catch( InterruptedException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while evaluating Teams.", e);
+		}
+		catch( ExecutionException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			throw new RuntimeException("A Team evaluation failed.", e.getCause());
+		}
+		
+		// Store the outcomes in a fixed order now that all the Teams are done
+		storeOutcomes( evaluated, label, rewards );
+	}
+	
+	// Store the reward earned by every evaluated Team against the label, in the order of the
+	// list, after an evaluation which took the place of the participate()/reward() cycle. Teams
+	// which already held an outcome for the label didn't play, so their rewards are ignored.
+	protected void storeOutcomes( List<Team> evaluated, String label, double[] rewards )
+	{
+		// Add this label to the label set, duplicates are automatically discarded
+		int labelID = outcomes.intern( label );
+		
+		for( int i=0; i < evaluated.size(); i++ )
+		{
+			Team team = evaluated.get(i);
+			
+			if( team.hasOutcome(labelID) )
+				continue;
+			
+			team.setOutcome( labelID, rewards[i] );
+			cacheOutcome( team, label, rewards[i] );
+		}
+		
+		// Every Team in the queue has now been evaluated
+		teamQueue.clear();
+	}
 
 	// Generate new Teams from the current Root Team population.
 	// This generates Teams regardless of what is in the current root list, so if
@@ -259,9 +509,112 @@ public class TPGLearn
 	// is executed once before executing the generateTeams() method.
 	public void generateNewTeams()
 	{
-		// Create a list to hold the parent Teams
-		ArrayList<Team> parents = new ArrayList<Team>();
-		int size = 0;
+		generateNewTeams( ForkJoinPool.commonPool() );
+	}
+	
+	// Generate new Teams as above, building the pairs of children concurrently on the given executor.
+	// Every pair draws from its own random stream, takes its parents and Action Teams from the
+	// population as it was before reproduction started, and uses IDs reserved for it up front.
+	// The pairs are merged into the population in a fixed order once they're all done, which
+	// makes the new population the same no matter how many threads the executor uses.
+	public void generateNewTeams( ExecutorService executor )
+	{
+		// Take a fixed copy of the parent Teams
+		final ArrayList<Team> parents = new ArrayList<Team>( teams.getRoots() );
+		
+		// Every pair of children adds two Teams, so work out how many pairs reach the required population size
+		int pairs = Math.max( 0, (teamPopSize - teams.size() + 1) / 2 );
+		
+		// Reserve two Team IDs for every pair. A pair's children can gain at most
+		// maximumTeamSize new Learners each from mutation, so reserve that many Learner IDs too.
+		final long firstTeamID = Team.reserveIDs( 2 * pairs );
+		final int learnerIDs = 2 * maximumTeamSize;
+		final long firstLearnerID = Learner.reserveIDs( pairs * learnerIDs );
+		
+		final Offspring[] offspring = new Offspring[pairs];
+		
+		ArrayList<Future<?>> results = new ArrayList<Future<?>>( pairs );
+		
+		// Start a task for every pair. Each task only writes its own offspring slot.
+		for( int i=0; i < pairs; i++ )
+		{
+			final int pair = i;
+			
+			results.add( executor.submit( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// Stream 0 belongs to the initial population, so pairs start counting from 1
+					Offspring children = new Offspring( firstLearnerID + pair * learnerIDs, learnerIDs );
+					
+					// A pair which fails gives back the indices of everything it made
+					try
+					{
+						reproduce( parents, firstTeamID + 2 * pair, children, randomStream(pair + 1) );
+					}
+					catch( RuntimeException e )
+					{
+						children.erase();
+						throw e;
+					}
+					
+					offspring[pair] = children;
+				}
+			}));
+		}
+		
+		// Wait for every pair to finish
+		try
+		{
+			for( Future<?> result : results )
+				result.get();
+		}
+		catch( InterruptedException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while generating Teams.", e);
+		}
+		catch( ExecutionException e )
+		{
+			for( Future<?> result : results )
+				result.cancel( true );
+			
+			// The pairs which finished are never merged, so their indices are given back too
+			for( int i=0; i < pairs; i++ )
+				if( results.get(i).isDone() && !results.get(i).isCancelled() && offspring[i] != null )
+					offspring[i].erase();
+			
+			// Pass on the reason a pair failed, such as broken team boundary rules, as it is
+			if( e.getCause() instanceof RuntimeException )
+				throw (RuntimeException)e.getCause();
+			
+			throw new RuntimeException("Team generation has failed.", e.getCause());
+		}
+		
+		// Merge the children into the population in pair order
+		for( Offspring children : offspring )
+		{
+			// Add the new Learners to the Learner population
+			for( Learner learner : children.learners )
+				learners.add( learner );
+			
+			// Insert the new Teams into the Team population as Root Teams
+			teams.add( children.child1, true );
+			teams.add( children.child2, true );
+		}
+	}
+	
+	// Build one pair of children from two parents chosen from the given list. The children get the
+	// Team IDs firstTeamID and firstTeamID + 1, and they're stored in the offspring together with
+	// any new Learners. Nothing is added to the populations, so many pairs can be built at once.
+	protected void reproduce( ArrayList<Team> parents, long firstTeamID, Offspring offspring, RandomGenerator rng )
+	{
+		// Keep a count of the number of parents we have
+		int size = parents.size();
 		
 		// Create variables for parents and various child Teams
 		Team parent1 = null, parent2 = null;
@@ -279,118 +632,100 @@ public class TPGLearn
 		ArrayList<Learner> learnerIntersection = new ArrayList<Learner>();
 		ArrayList<Learner> learnerDifference = new ArrayList<Learner>();
 		
-		// Get parent teams into list
-		for( Team team : rootTeams )
-			parents.add( team );
+		// To start, retrieve one parent from the 
+		parent1 = parents.get((int)(rng.nextDouble() * size));
 		
-		// Keep a count of the number of parents we have
-		size = parents.size();
+		// Retrieve a second parent which is not the same as the first
+		do
+		{
+			parent2 = parents.get((int)(rng.nextDouble() * size));
+		}
+		while( parent1 == parent2 );
+		
+		// Retrieve the current Learner lists from the parents
+		parent1Learners.addAll( parent1.getLearners() );
+		parent2Learners.addAll( parent2.getLearners() );
 		
-		// Keep creating children until we reach the required population size
-		while( teams.size() < teamPopSize )
+		// Calculate the Intersection and Difference of the two Learner lists
+		learnerIntersection = Miscellaneous.intersectionLearner(parent1Learners, parent2Learners);
+		learnerDifference = Miscellaneous.symmetricDifferenceLearner(parent1Learners, parent2Learners);
+		
+		// Create children Teams with their reserved IDs. They're stored in the offspring
+		// straight away, so their indices can be given back if building them fails.
+		child1 = new Team(firstTeamID, epochs, 0);
+		child2 = new Team(firstTeamID + 1, epochs, 0);
+		
+		offspring.child1 = child1;
+		offspring.child2 = child2;
+		
+		// Both children get all the Learners from the Intersection list
+		for( Learner learner : learnerIntersection )
 		{
-			// To start, retrieve one parent from the 
-			parent1 = parents.get((int)(TPGAlgorithm.RNG.nextDouble() * size));
-			
-			// Retrieve a second parent which is not the same as the first
-			do
-			{
-				parent2 = parents.get((int)(TPGAlgorithm.RNG.nextDouble() * size));
-			}
-			while( parent1 == parent2 );
-			
-			// Empty the current parent Learner lists
-			parent1Learners.clear();
-			parent2Learners.clear();
-			
-			// Retrieve the current Learner lists from the parents
-			parent1Learners.addAll( parent1.getLearners() );
-			parent2Learners.addAll( parent2.getLearners() );
-			
-			// Calculate the Intersection and Difference of the two Learner lists
-			learnerIntersection = Miscellaneous.intersectionLearner(parent1Learners, parent2Learners);
-			learnerDifference = Miscellaneous.symmetricDifferenceLearner(parent1Learners, parent2Learners);
-			
-			// Create children Teams
-			child1 = new Team(epochs);
-			child2 = new Team(epochs);
-			
-			// Both children get all the Learners from the Intersection list
-			for( Learner learner : learnerIntersection )
+			child1.addLearner( learner );
+			child2.addLearner( learner );
+		}
+		
+		// Add each Learner in the Difference list to one of the children
+		for( Learner learner : learnerDifference )
+		{
+			// We decide the child priority, where X is higher priority than Y
+			if( rng.nextDouble() < 0.5 )
 			{
-				child1.addLearner( learner );
-				child2.addLearner( learner );
+				childX = child1;
+				childY = child2;
 			}
-			
-			// Add each Learner in the Difference list to one of the children
-			for( Learner learner : learnerDifference )
+			else
 			{
-				// We decide the child priority, where X is higher priority than Y
-				if( TPGAlgorithm.RNG.nextDouble() < 0.5 )
-				{
-					childX = child1;
-					childY = child2;
-				}
-				else
-				{
-					childX = child2;
-					childY = child1;
-				}
-				
-				// We add the current Learner to child X, except under these conditions:
-				// 		1. We can't add a Learner if the child's Team is already full.
-				//		2. We can't add more than two Learners to child X if child Y has less than two.
-				// If either of these conditions are met, we add the Learner to child Y instead.
-				if( childX.size() < maximumTeamSize && !( childX.size() >= 2 && childY.size() < 2 ) )
-					childX.addLearner(learner);
-				else
-					childY.addLearner(learner);
+				childX = child2;
+				childY = child1;
 			}
 			
-			// If, somehow, we've broken the team boundary rules then we have to crash. What happened?
-			if( (child1.size() > maximumTeamSize || child2.size() > maximumTeamSize) || (child1.size() < 2 && child2.size() < 2) )
-				throw new RuntimeException("Team generation has failed.");
-			
-			// Empty the current child Learner lists
-			child1Learners.clear();
-			child2Learners.clear();
-			
-			// Retrieve the current Learner lists from the children
-			child1Learners.addAll(child1.getLearners());
-			child2Learners.addAll(child2.getLearners());
-			
-			// If the first child has the same Learner set as either parent, they MUST be mutated
-			if( Miscellaneous.equalLists(child1Learners, parent1Learners) || Miscellaneous.equalLists(child1Learners, parent2Learners) )
-				while( !mutate(epochs , child1) );
+			// We add the current Learner to child X, except under these conditions:
+			// 		1. We can't add a Learner if the child's Team is already full.
+			//		2. We can't add more than two Learners to child X if child Y has less than two.
+			// If either of these conditions are met, we add the Learner to child Y instead.
+			if( childX.size() < maximumTeamSize && !( childX.size() >= 2 && childY.size() < 2 ) )
+				childX.addLearner(learner);
 			else
-				mutate(epochs, child1);
-			
-			// If the second child has the same Learner set as either parent, they MUST be mutated
-			if( Miscellaneous.equalLists(child2Learners, parent1Learners) || Miscellaneous.equalLists(child2Learners, parent2Learners) )
-				while( !mutate(epochs , child2) );
-			else
-				mutate(epochs, child2);
-			
-			// Empty the current child Learner lists
-			child1Learners.clear();
-			child2Learners.clear();
-			
-			// Retrieve the current Learner lists from the children
-			child1Learners.addAll(child1.getLearners());
-			child2Learners.addAll(child2.getLearners());
-
-			// Insert the new Teams into the Root Team population
-			rootTeams.add( child1 );
-			rootTeams.add( child2 );
-			
-			// Also insert the new Teams into the regular Team population
-			teams.add( child1 );
-			teams.add( child2 );			
+				childY.addLearner(learner);
 		}
+		
+		// If, somehow, we've broken the team boundary rules then we have to crash. What happened?
+		if( (child1.size() > maximumTeamSize || child2.size() > maximumTeamSize) || (child1.size() < 2 && child2.size() < 2) )
+			throw new RuntimeException("Team generation has failed.");
+		
+		// Retrieve the current Learner lists from the children
+		child1Learners.addAll(child1.getLearners());
+		child2Learners.addAll(child2.getLearners());
+		
+		// If the first child has the same Learner set as either parent, they MUST be mutated
+		if( Miscellaneous.equalLists(child1Learners, parent1Learners) || Miscellaneous.equalLists(child1Learners, parent2Learners) )
+			while( !mutate(epochs, child1, rng, offspring) );
+		else
+			mutate(epochs, child1, rng, offspring);
+		
+		// If the second child has the same Learner set as either parent, they MUST be mutated
+		if( Miscellaneous.equalLists(child2Learners, parent1Learners) || Miscellaneous.equalLists(child2Learners, parent2Learners) )
+			while( !mutate(epochs, child2, rng, offspring) );
+		else
+			mutate(epochs, child2, rng, offspring);
 	}
 	
 	// Mutate a Team and the Learners it references
 	public boolean mutate( long epoch, Team team )
+	{
+		return mutate( epoch, team, TPGAlgorithm.RNG );
+	}
+	
+	// Mutate a Team and the Learners it references, drawing every random decision from the given generator
+	public boolean mutate( long epoch, Team team, RandomGenerator rng )
+	{
+		return mutate( epoch, team, rng, null );
+	}
+	
+	// Mutate a Team as above. If offspring is given, new Learners take their IDs from the offspring's
+	// reserved range and are kept in the offspring instead of being added to the Learner population.
+	protected boolean mutate( long epoch, Team team, RandomGenerator rng, Offspring offspring )
 	{
 		// Create a flag for whether or not this Team has mutated
 		boolean changedTeam = false;
@@ -408,7 +743,7 @@ public class TPGLearn
 		learnerSet.addAll( team.getLearners() );
 		
 		// We want to consider the Learners in arbitrary order, so shuffle the list
-		Collections.shuffle( learnerSet );
+		Miscellaneous.shuffle( learnerSet, rng );
 		
 		// For every Learner attached to this Team, we will try to perform a Learner (Program) Delete
 		for( int i=0; i < learnerSet.size(); i++ )
@@ -426,7 +761,7 @@ public class TPGLearn
 				continue;
 			
 			// Mutation: Learner Deletion Event
-			if( TPGAlgorithm.RNG.nextDouble() < probLearnerDelete )
+			if( rng.nextDouble() < probLearnerDelete )
 			{
 				// Remove the Learner from the team (but not the learnerSet here)
 				team.removeLearner(learner);
@@ -444,35 +779,40 @@ public class TPGLearn
 				break;
 			
 			// Mutation: Learner (Program) Add Event
-			if( TPGAlgorithm.RNG.nextDouble() < probLearnerAdd )
+			if( rng.nextDouble() < probLearnerAdd )
 			{
 				// We haven't changed this Learner yet
 				changedLearner = false;
 				
 				// Create a new Learner based on the one in the current for loop iteration
-				learner = new Learner(epoch, l);
+				if( offspring == null )
+					learner = new Learner(epoch, l);
+				else
+					learner = new Learner(offspring.nextLearnerID(), epoch, l);
 				
 				// Mutation: Learner's Program. The mutateProgram() method returns true if changes were made. False otherwise.
-				changedLearner = learner.mutateProgram(probProgramDelete, probProgramAdd, probProgramSwap, probProgramMutate, maximumProgramSize);
+				changedLearner = learner.mutateProgram(probProgramDelete, probProgramAdd, probProgramSwap, probProgramMutate, maximumProgramSize, rng);
 				
 				// Mutation: Mutate the Learner's Action
-				if( TPGAlgorithm.RNG.nextDouble() < probMutateAction )
+				if( rng.nextDouble() < probMutateAction )
 				{
 					// Create a variable for holding an Action
 					Action action = null;
 					
 					// Randomly choose between the Action being a Team or an Atomic
-					if( TPGAlgorithm.RNG.nextDouble() < probActionIsTeam )
+					if( rng.nextDouble() < probActionIsTeam )
 					{
 						// Create a variable for holding a random Team
 						Team actionTeam = null;
 						
-						// Grab a random Team from the list, making sure not to
+						// Grab a random Team from the population, making sure not to
 						// choose a root team if the root teams are too small
-						do
-						{
-							actionTeam = teams.get((int)(TPGAlgorithm.RNG.nextDouble() * teams.size()));
-						} while( rootTeams.size() <= 5 && rootTeams.contains(actionTeam) );
+						if( teams.rootCount() <= 5 )
+							actionTeam = teams.sampleNonRoot(rng);
+						
+						// If there are no non-root Teams to choose from, any Team will do
+						if( actionTeam == null )
+							actionTeam = teams.sample(rng);
 						
 						// Create a new Action with the Team as the action
 						action = new Action( actionTeam );
@@ -481,7 +821,7 @@ public class TPGLearn
 						actionTeam.increaseReferences();						
 					}
 					else
-						action = new Action( actions.get((int)(TPGAlgorithm.RNG.nextDouble() * actions.size())) );
+						action = new Action( actions.get((int)(rng.nextDouble() * actions.size())) );
 					
 					// Attempt to mutate the Learner's Action. If successful, mutateAction() returns true. False otherwise.
 					// If this Learner was changed earlier, OR it with the previous result to ensure it doesn't disappear.
@@ -491,6 +831,13 @@ public class TPGLearn
 				// If the Learner didn't mutate when we don't bother keeping it
 				if( !changedLearner )
 				{
+					// The copy holds a reference to its Team action, taken when it was copied or
+					// when its action was mutated, which has to be given back along with its index
+					if( !learner.getActionObject().isAtomic() )
+						learner.getActionObject().team.decreaseReferences();
+					
+					learner.erase();
+					
 					// Setting learner to null will force the unreferenced one to be garbage collected
 					learner = null;
 				}
@@ -499,8 +846,11 @@ public class TPGLearn
 					// Add the mutated Learner to the Team's Learner list
 					team.addLearner(learner);
 					
-					// Add the mutated Learner to the Learner population
-					learners.add(learner);
+					// Add the mutated Learner to the Learner population, or hold on to it until the offspring is merged
+					if( offspring == null )
+						learners.add(learner);
+					else
+						offspring.learners.add(learner);
 					
 					// The Team has changed, so make sure we flag it
 					changedTeam = true;
@@ -518,257 +868,347 @@ public class TPGLearn
 
 	public void selection()
 	{
-		// Crate a hash map to store the Team outcome map
-		HashMap<Team, ArrayList<Double>> outcomeMap = new HashMap<Team, ArrayList<Double>>();
-		
-		// Create a list for storing Teams marked for deletion
-		ArrayList<Team> selectedForDeletion = new ArrayList<Team>();
-		
 		// Number of root teams that make it to the next generation
-		int keep = (int)Math.floor(rootTeams.size() * teamGap);
+		int keep = survivorCount();
 		
-		// Create an OpenDouble for holding outcome values
-		OpenDouble outcome = new OpenDouble(0.0);
+		// Create a variable for holding the ranking of the root Teams
+		IndexRanking ranking = null;
+		
+		// Determine how to rank the Teams
+		int labelCount = outcomes.labelCount();
 		
-		// For every root Team, store their outcomes in the outcome map
-		for( Team team : rootTeams )
+		if( labelCount == 1 )
 		{
-			// Create a list for holding outcomes
-			ArrayList<Double> outcomeList = new ArrayList<Double>();
-			
-			// Store that list in the outcome map with the current Team as the key
-			outcomeMap.put( team, outcomeList );
+			// Gather every root Team's outcome into a score column, in root Team order
+			double[] scores = outcomeColumn( 0, "selection" );
 			
-			// For every outcome label seen, retrieve that label's outcome from the Team and store it in their list
-			for( String label : labels )
-			{
-				// When updating the outcome object value, if this Team didn't receive a reward for the label, something is broken
-				if( !team.getOutcome(label, outcome) )
-					throw new RuntimeException("Cannot find outcome " + label + " on a Team during selection.");
-				
-				// Otherwise we add the outcome's value to this Team's outcome list
-				outcomeList.add( outcome.getValue() );
-			}
+			// Rank the root Teams by their outcomes
+			ranking = new TeamRanking( scores );
 		}
-		
-		// Determine which Teams need to be marked for deletion during the algorithm cleanup phase.
-		if( labels.size() == 1 )
+		else if( labelCount > 1 )
 		{
-			// Rank the root Teams by their outcomes
-			Miscellaneous.sortTeamsBySingleOutcome( rootTeams, outcomeMap );			
+			// Gather one score column per label, in label ID order
+			double[][] columns = new double[labelCount][];
 			
-			// Save the number one ranked Team to a file
-			saveBestTeam(rootTeams.get(0));
+			for( int labelID=0; labelID < labelCount; labelID++ )
+				columns[labelID] = outcomeColumn( labelID, "selection" );
 			
-			// Since the Teams are ranked, starting at the index after the last Team to be kept, place the remaining Teams in the deletion list
-			for( int i=keep; i < rootTeams.size(); i++ )
-				selectedForDeletion.add( rootTeams.get(i) );
-		}
-		else
-		{
-			// We won't reach here in this single-task implementation. Once you introduce more tasks
-			// or dimensions, you will need to add the ability to handle those dimensions here.
-			// Classically, SBB and TPG use pareto dominance to handle multiple dimensions, but there
-			// are other methods of handling this problem.
+			// Classically, SBB and TPG use pareto dominance to handle multiple dimensions. The root
+			// Teams are ranked by Pareto front, then by crowding distance within each front.
+			ParetoRanking pareto = new ParetoRanking( columns );
+			
+			// Store each Team's combined rank as its key (see Team.sortListByKey())
+			for( int i=0; i < teams.rootCount(); i++ )
+				teams.getRoot(i).setKey( pareto.getKey(i) );
+			
+			ranking = pareto;
 		}
 		
-		// Delete any Teams found in the deletion list
-		for( Team team : selectedForDeletion )
+		// Determine which Teams stay root Teams. The rest are deleted by the collector, unless a kept Team still reaches them.
+		if( ranking != null )
 		{
-			// Make sure this Team dereferences its Learners before it's deleted
-			team.erase();
+			// Only the kept Teams need to be put in order, and the best Team is always put first even if no Teams are kept.
+			int[] order = ranking.top( Math.max(keep, 1) );
+			
+			// Save the number one ranked Team to a file
+			saveBestTeam(teams.getRoot(order[0]));
+			
+			// Gather the kept Teams before the root Team flags change
+			ArrayList<Team> ranked = new ArrayList<Team>( keep );
+			
+			for( int i=0; i < keep; i++ )
+				ranked.add( teams.getRoot(order[i]) );
 			
-			// Remove the Team from all Team-related Populations
-			teams.remove(team);
-			rootTeams.remove(team);
+			// Only the kept Teams remain root Teams, in rank order
+			teams.clearRoots();
+			
+			for( Team team : ranked )
+				teams.setRoot( team, true );
+			
+			// Delete everything the kept Teams can't reach
+			collect();
 		}
-
-		// Force the outcome map to be flagged for garbage collection
-		outcomeMap = null;
 	}
 	
-	// Use this method for cleaning up any "extra" data. This method
-	// always removes any Learners without a reference.
+	// Return the number of root Teams selection() keeps, which is also the cut a RacingEvaluator races against
+	protected int survivorCount()
+	{
+		return (int)Math.floor(teams.rootCount() * teamGap);
+	}
+	
+	// Return the outcome of every root Team for the label ID as a score column, in root Team order,
+	// read straight from the outcome matrix. The activity is named in the error thrown if a Team
+	// didn't receive a reward for the label.
+	protected double[] outcomeColumn( int labelID, String activity )
+	{
+		double[] scores = new double[teams.rootCount()];
+		
+		// If a Team didn't receive a reward for the label, something is broken
+		if( outcomes.column(labelID, teams.getRoots(), scores) >= 0 )
+			throw new RuntimeException("Cannot find outcome " + outcomes.label(labelID) + " on a Team during " + activity + ".");
+		
+		return scores;
+	}
+	
+	// Use this method for cleaning up any "extra" data. This method always removes any
+	// Teams and Learners which can't be reached from a root Team.
 	public void cleanup()
 	{
-		// Make a copy of the Learner population list. If you don't do this, you'll
-		// make all kinds of crazy errors happen as the population list changes size while you iterate.
-		ArrayList<Learner> allLearners = new ArrayList<Learner>(learners);
-
-		// Iterate through all Learners...
-		for( Learner learner : allLearners )
-		{
-			// If a Learner has zero references...
-			if( learner.getReferences() == 0 )
-			{
-				// Remove it from the Learner population
-				learners.remove( learner );
-				
-				// If this Learner references a Team, make sure we de-reference it
-				if( !learner.getActionObject().isAtomic() )
-					learner.getActionObject().team.decreaseReferences();
-			}
-		}
+		collect();
+	}
+	
+	// Remove every Team and Learner which can't be reached from the current root Teams, then
+	// recompute the reference counts and root Team flags of everything left. Returns the number
+	// of Teams and Learners reclaimed.
+	public int collect()
+	{
+		return collector.collect( teams, learners );
 	}
 
 	// Roll over to the next learning session
 	public long nextEpoch()
 	{
-		// Run the cleanup() method once to ensure everything is tidy
+		// Run the cleanup() method once to ensure everything is tidy. This also
+		// recomputes which Teams are root Teams.
 		cleanup();
 		
-		// Clear the outcome maps of all Teams
-		for( Team team : teams )
-			team.outcomes.clear();
+		// Clear the outcomes of all Teams
+		outcomes.clear();
 		
-		// Clear the current root Team population
-		rootTeams.clear();
-				
-		// If a Team has no references to it (aka an in-degree of zero), then it's a root Team
-		for( Team team : teams )
-			if( team.getReferences() == 0 )
-				rootTeams.add(team);
+		// The number of epochs increases
+		epochs++;
+		
+		// Forget cached outcomes which are too old, or which belong to a different set of labels
+		if( fitnessCache != null )
+		{
+			fitnessCache.prune( epochs );
+			fitnessCache.labelsUsed( new HashSet<String>(outcomes.getLabels()) );
+		}
 		
-		// Reset the Team queue and add all the root Teams to it
+		// Reset the Team queue and add all the root Teams to it, except those whose outcomes
+		// were all restored from the fitness cache
 		teamQueue.clear();
-		teamQueue.addAll(rootTeams);
 				
-		// The number of epochs increases and is returned
-		return ++epochs;
+		for( Team team : teams.getRoots() )
+			if( !restoreOutcomes(team) )
+				teamQueue.add(team);
+				
+		// The new number of epochs is returned
+		return epochs;
 	}
 	
-	// Save the current best model
-	public void saveBestTeam(Team team)
+	// Use a fitness cache to skip playing Root Teams which are unchanged since they last earned
+	// their outcomes, or stop using one by passing null. Teams whose outcomes are restored are
+	// left out of the Team queue, and evaluate() skips them.
+	public void setFitnessCache( FitnessCache cache )
+	{
+		fitnessCache = cache;
+	}
+	
+	// Return the fitness cache, or null if there isn't one
+	public FitnessCache getFitnessCache()
+	{
+		return fitnessCache;
+	}
+	
+	// Give a Root Team the cached outcome of every label learned so far. Returns true only if an
+	// outcome was found for every label, otherwise the Team is left without outcomes so it plays.
+	protected boolean restoreOutcomes( Team team )
 	{
-		// Create a String for holding the folder name.
-		String folder = dateFormat.format(currentDate) + "_" + seed + "/generation_" + epochs + "/";
+		int labelCount = outcomes.labelCount();
 		
-		// If the appropriate directory doesn't exist, create it.
-		if(!Files.isDirectory(Paths.get(folder)))
-			new File(folder).mkdirs();
-				
-		// Attempt to write the root team and the root team ID to the folder.
-		try
+		if( fitnessCache == null || labelCount == 0 )
+			return false;
+		
+		long hash = FitnessCache.structuralHash( team );
+		OpenDouble outcome = new OpenDouble(0.0);
+		
+		for( int labelID=0; labelID < labelCount; labelID++ )
 		{
-			// Store the root team in its own file and note the ID in the root file.
-			File filePath = new File(folder + "root.txt");
-			FileWriter writer = new FileWriter(filePath);
-			writer.write("" + team.getID());
-			writer.close();
-			
-			// Create sets for holding unique teams and learners
-			HashSet<Team> teamSet = new HashSet<Team>();
-			HashSet<Learner> learnerSet = new HashSet<Learner>();
-			
-			// Recursively find all Teams attached to the current root team
-			team.findAllTeams(teamSet);
-			
-			// Add all of the learners from each discovered team to the 
-			// learner set. Since Learners and Teams have custom hashes
-			// and equals methods, no duplicates will be stored.
-			for(Team T: teamSet)
-				learnerSet.addAll(T.getLearners());
-			
-			// Store every Team in the team set to its own file. The team
-			// files are named team_#.txt, where # is the team's ID.
-			for(Team T: teamSet)				
+			if( !fitnessCache.lookup(hash, outcomes.label(labelID), epochs, outcome) )
 			{
-				filePath = new File(folder + "team_" + T.getID() + ".txt");
-				writer = new FileWriter(filePath);
-				writer.write(T.storageOutput());
-				writer.close();
+				team.clearOutcomes();
+				return false;
 			}
-						
-			// Store every Learner in the learner set to its own file.
-			// The learner files are named learner_#.txt, where # is 
-			// the learner's ID.
-			for(Learner L: learnerSet)
+			
+			team.setOutcome( labelID, outcome.getValue() );
+		}
+		
+		return true;
+	}
+	
+	// Remember an outcome a Team just earned, if there's a fitness cache
+	protected void cacheOutcome( Team team, String label, double outcome )
+	{
+		if( fitnessCache != null )
+			fitnessCache.store( FitnessCache.structuralHash(team), label, epochs, outcome );
+	}
+	
+	// Copy a root Team from another population into this one, along with every Team and Learner
+	// it can reach. The copies get new IDs and keep nothing from the original population except
+	// their programs and actions. The copied root Team becomes a root Team here and joins the Team
+	// queue, and it's returned. This must not be called while this population is changing.
+	public Team immigrate( Team root )
+	{
+		// Find the root Team's subgraph. The linked set keeps the order the Teams were found in,
+		// so the copies are always made in the same order.
+		LinkedHashSet<Team> found = new LinkedHashSet<Team>();
+		root.findAllTeams( found );
+		
+		// Gather the Learners of the subgraph in the same way
+		LinkedHashSet<Learner> foundLearners = new LinkedHashSet<Learner>();
+		
+		for( Team team : found )
+			foundLearners.addAll( team.getLearners() );
+		
+		// Copy every Team first, so the copied Learners can point at the copied Teams
+		HashMap<Team, Team> teamCopies = new HashMap<Team, Team>();
+		long teamID = Team.reserveIDs( found.size() );
+		
+		for( Team team : found )
+			teamCopies.put( team, new Team(teamID++, team.getBirthday(), 0) );
+		
+		// Copy every Learner, pointing Team actions at the copied Teams
+		HashMap<Learner, Learner> learnerCopies = new HashMap<Learner, Learner>();
+		long learnerID = Learner.reserveIDs( foundLearners.size() );
+		
+		for( Learner learner : foundLearners )
+		{
+			long[] program = Arrays.copyOf( learner.program, learner.programSize );
+			Learner copy = null;
+			
+			if( learner.getActionObject().isAtomic() )
+				copy = new Learner( learnerID++, learner.getBirthday(), learner.getActionObject().action, 0, program );
+			else
 			{
-				filePath = new File(folder + "learner_" + L.getID() + ".txt");
-				writer = new FileWriter(filePath);
-				writer.write(L.storageOutput());
-				writer.close();
+				Team target = teamCopies.get( learner.getActionObject().team );
+				copy = new Learner( learnerID++, learner.getBirthday(), target, 0, program );
+				target.increaseReferences();
 			}
 			
-			// Store all of the team IDs in a teamIDs.txt file. The IDs
-			// are stored one per line. There is no guarantee of order.
-			filePath = new File(folder + "teamIDs.txt");
-			writer = new FileWriter(filePath);
-			for(Team T: teamSet)				
-				writer.write(T.getID() + "\n");
-			writer.close();
-			
-			// Store all of the learner IDs in a learnerIDs.txt file. 
-			// The IDs are stored one per line. There is no guarantee of order.
-			filePath = new File(folder + "learnerIDs.txt");
-			writer = new FileWriter(filePath);
-			for(Learner L: learnerSet)				
-				writer.write(L.getID() + "\n");
-			writer.close();						
-		} 
-		catch(IOException e) 
+			learnerCopies.put( learner, copy );
+			learners.add( copy );
+		}
+		
+		// Give the copied Teams their Learners and add them to the Team population
+		for( Team team : found )
+		{
+			Team copy = teamCopies.get( team );
+			
+			for( Learner learner : team.getLearners() )
+				copy.addLearner( learnerCopies.get(learner) );
+			
+			teams.add( copy, team == root );
+		}
+		
+		// The copied root Team still has to be evaluated this generation
+		Team copy = teamCopies.get( root );
+		teamQueue.add( copy );
+		
+		return copy;
+	}
+	
+	// Save the current best model
+	public void saveBestTeam(Team team)
+	{
+		// Create a String for holding the run folder name.
+		String runFolder = dateFormat.format(currentDate) + "_" + seed + outputSuffix + "/";
+		
+		// Take a snapshot of the Team's subgraph now, and let the writer thread put it on disk
+		if( !useModelStore )
 		{
-			System.err.println(e); 
+			modelWriter.submit( new ModelWriter.Model(team, runFolder + "generation_" + epochs + "/") );
+			return;
 		}
 		
-		// Explicit return to signify the end of the method.
-		return;
+		// The run folder changes when a checkpoint is restored, and the store moves with it
+		if( modelStore == null || !modelStore.getFolder().equals(runFolder) )
+			modelStore = new ModelStore( runFolder );
+		
+		// Nothing is saved if the Team is the same as the last one saved
+		ModelWriter.Model model = modelStore.snapshot( team, epochs );
+		
+		if( model != null )
+			modelWriter.submit( model );
+	}
+	
+	// Choose whether saveBestTeam() saves every generation's best Team into a content-addressed
+	// ModelStore, which writes each Team and Learner only once, instead of into a folder of its own
+	public void setModelStore( boolean useModelStore )
+	{
+		this.useModelStore = useModelStore;
+	}
+	
+	// Return the model store saved into so far, or null if nothing has been saved into one
+	public ModelStore getModelStore()
+	{
+		return modelStore;
+	}
+	
+	// Wait until every model saved so far has been written to disk. Throws if any model
+	// couldn't be written since the last call.
+	public void flushSaves()
+	{
+		modelWriter.flush();
 	}
 	
 	// Print the current status of the TPG algorithm
 	public void printStats( int teamCount )
 	{
 		// If the input value is out of bounds, set it to the proper amount
-		if( teamCount > rootTeams.size() )
-			teamCount = rootTeams.size();
+		if( teamCount > teams.rootCount() )
+			teamCount = teams.rootCount();
 		else if( teamCount <= 0 )
 			return;
 		
-		// Crate a hash map to store the Team outcome map
-		HashMap<Team, ArrayList<Double>> outcomeMap = new HashMap<Team, ArrayList<Double>>();
+		// Print some general information
+		System.out.println("Generation: " + epochs + "\n\tRoot Teams: " + teams.rootCount() + ", Teams: " + teams.size() + ", \n\tLearners: " + learners.size() + ", Labels: " + outcomes.labelCount());
 		
-		// Create a copy of the root Teams list
-		ArrayList<Team> rootCopy = new ArrayList<Team>(rootTeams);
+		// Compact indices only belong to live Teams and Learners, so these should stay close to
+		// the population sizes above. A number which keeps growing means objects are leaking.
+		System.out.println("\tTeam indices in use: " + collector.getTeamIndicesInUse() + " of " + Team.indices.capacity() + ", Learner indices in use: " + collector.getLearnerIndicesInUse() + " of " + Learner.indices.capacity());
 		
-		// Print some general information
-		System.out.println("Generation: " + epochs + "\n\tRoot Teams: " + rootTeams.size() + ", Teams: " + teams.size() + ", \n\tLearners: " + learners.size() + ", Labels: " + labels.size());
-				
-		// Create an OpenDouble for holding outcome values
-		OpenDouble outcome = new OpenDouble(0.0);
+		// Make sure every Team received a reward for every label, and rank by the first one
+		double[] scores = null;
 		
-		// For every root Team, store their outcomes in the outcome map
-		for( Team team : rootTeams )
+		for( int labelID=0; labelID < outcomes.labelCount(); labelID++ )
 		{
-			// Create a list for holding outcomes
-			ArrayList<Double> outcomeList = new ArrayList<Double>();
-			
-			// Store that list in the outcome map with the current Team as the key
-			outcomeMap.put( team, outcomeList );
+			double[] column = outcomeColumn( labelID, "stats gathering" );
 			
-			// For every outcome label seen, retrieve that label's outcome from the Team and store it in their list
-			for( String label : labels )
-			{
-				// When updating the outcome object value, if this Team didn't receive a reward for the label, something is broken
-				if( !team.getOutcome(label, outcome) )
-					throw new RuntimeException("Cannot find outcome " + label + " on a Team during stats gathering.");
-							
-				// Otherwise we add the outcome's value to this Team's outcome list
-				outcomeList.add( outcome.getValue() );
-			}
+			if( scores == null )
+				scores = column;
 		}
 		
-		// Rank the root Teams by their outcomes
-		Miscellaneous.sortTeamsBySingleOutcome( rootCopy, outcomeMap );
+		// Without any outcomes there's nothing to rank
+		if( scores == null )
+			return;
+		
+		// Rank just the top Teams by their outcomes
+		int[] order = new TeamRanking( scores ).top( teamCount );
 		
 		// Print the top Teams based on the provided teamCount value
 		for( int i=0; i < teamCount; i++ )
-			System.out.println("\tTeam " + rootCopy.get(i).getID() + ": " + outcomeMap.get(rootCopy.get(i)).get(0));
+			System.out.println("\tTeam " + teams.getRoot(order[i]).getID() + ": " + scores[order[i]]);
+	}
+	
+	// Write the whole state of this population to a checkpoint file, which restore() can read back
+	// to carry on with the run exactly where it was left. No Team may be playing through a TeamHandle.
+	public void checkpoint( String file )
+	{
+		Checkpoint.write( this, file );
+	}
+	
+	// Replace the whole state of this population with the state held in a checkpoint file
+	public void restore( String file )
+	{
+		Checkpoint.read( this, file );
 	}
 	
-	// Return the number of Teams still in the Team queue
+	// Return the number of Teams still in the Team queue, plus the number of Teams
+	// which are still playing through TeamHandles
 	public int remainingTeams()
 	{
-		return teamQueue.size();
+		return teamQueue.size() + activeHandles.get();
 	}
 	
 	// Return the total number of Teams in the Team population
@@ -788,4 +1228,64 @@ public class TPGLearn
 	{
 		return epochs;
 	}
+	
+	// Return the registers used by the Learners during the learning process
+	public RegisterContext getRegisterContext()
+	{
+		return context;
+	}
+	
+	// Return the random stream with the given id for the current generation
+	protected RandomGenerator randomStream( long id )
+	{
+		return RandomStreams.stream( streamSeed, epochs, id );
+	}
+	
+	// The children of one pair of parents, kept apart from the populations until they're merged
+	protected static class Offspring
+	{
+		// The two child Teams
+		Team child1 = null, child2 = null;
+		
+		// The Learners created for the children by mutation
+		ArrayList<Learner> learners = new ArrayList<Learner>();
+		
+		// The range of Learner IDs reserved for this pair
+		long firstLearnerID;
+		int learnerIDs;
+		
+		protected Offspring( long firstLearnerID, int learnerIDs )
+		{
+			this.firstLearnerID = firstLearnerID;
+			this.learnerIDs = learnerIDs;
+		}
+		
+		// Return the ID for the next Learner kept by this pair. A Learner which isn't kept
+		// doesn't use up its ID, so the next Learner gets the same one.
+		long nextLearnerID()
+		{
+			if( learners.size() >= learnerIDs )
+				throw new RuntimeException("A pair of children ran out of reserved Learner IDs.");
+			
+			return firstLearnerID + learners.size();
+		}
+		
+		// Give back the indices and references of children which will never join the population
+		void erase()
+		{
+			if( child1 != null )
+				child1.erase();
+			
+			if( child2 != null )
+				child2.erase();
+			
+			for( Learner learner : learners )
+			{
+				if( !learner.getActionObject().isAtomic() )
+					learner.getActionObject().team.decreaseReferences();
+				
+				learner.erase();
+			}
+		}
+	}
 }
@@ -1,34 +1,78 @@
 package sbbj_tpg;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class TPGPlay
 {
 	// Create a variable for holding a Team
 	protected Team team = null;
 	
+	// The registers used by the Learners when playing through participate( double[] )
+	protected RegisterContext context = new RegisterContext();
+	
 	// Given a folder name as an input, read in a model and prepare it to play
 	public TPGPlay( String modelFolder )
 	{
-		// Load a model and store it as the sole team.
-		team = loadModel(modelFolder);		
+		// Load a model and store it as the sole team. A single file is a ModelFile, and
+		// a folder holding a manifest belongs to a ModelStore, whose objects are read.
+		if( new File(modelFolder).isFile() )
+			team = ModelFile.read(modelFolder);
+		else if( new File(modelFolder, "manifest.txt").exists() )
+			team = ModelStore.load(modelFolder);
+		else
+			team = loadModel(modelFolder);		
+	}
+	
+	// Read in the model a ModelStore in the given run folder holds for a generation. If the
+	// generation's champion was unchanged, the model of the last generation saved before it is used.
+	public TPGPlay( String runFolder, long generation )
+	{
+		team = ModelStore.load( ModelStore.findGeneration(runFolder, generation) );
 	}
 		
 	// Given an input feature set, produce an action
 	public long participate( double[] inputFeatures )
+	{
+		return participate( context, inputFeatures );
+	}
+	
+	// Given an input feature set, produce an action using the registers in the given context.
+	// The model can be played by several threads at once if each of them has its own context.
+	public long participate( RegisterContext context, double[] inputFeatures )
 	{
 		// If we don't have a Team, it can't play
 		if( team == null )
 			return -1;
 
 		// Give the team the input features to find an action
-		return team.getAction(new HashSet<Team>(), inputFeatures);
+		return team.getAction(context, inputFeatures);
+	}
+	
+	// Return the registers used by participate( double[] )
+	public RegisterContext getRegisterContext()
+	{
+		return context;
+	}
+
+	// Given a whole set of input feature sets, produce an action for each of them. The rows are
+	// evaluated in batches with every Learner's registers starting from zero for each row.
+	public long[] participate( double[][] inputFeatures )
+	{
+		// If we don't have a Team, it can't play
+		if( team == null )
+			return null;
+		
+		// Give the team every row of input features to find an action for each
+		long[] actions = new long[inputFeatures.length];
+		team.getActions( inputFeatures, actions );
+		
+		return actions;
 	}
 
 	// Print the current status of the TPG algorithm
@@ -38,213 +82,257 @@ public class TPGPlay
 		// but you could include outcomes as they're generated.
 	}
 	
+	// Read the Learners with the given IDs from their files in a model folder, parsing the files
+	// in parallel. A Learner whose action is a Team is given the atomic action -ID-1 in its place,
+	// where ID is the Team's ID, for the caller to replace. loadModel() links Team actions itself.
 	public HashSet<Learner> createLearnerSet(String folder, Set<Long> idList)
 	{
-		// Create a scanner variable.
-		Scanner reader = null;
+		// Parse every Learner file at once
+		long[][] files = readFiles(folder, "learner_", toArray(idList), true);
 		
-		// Create a new Array List for holding Learners
+		// Create a new set for holding Learners
 		HashSet<Learner> learners = new HashSet<Learner>();
 		
-		// Iterate through every Learner ID
-		for(Long ID: idList)
+		// Construct every Learner from the values read in
+		for(long[] file: files)
 		{
-			try
-			{
-				// Open the relevant Learner file by ID
-				reader = new Scanner(new File(folder + "learner_" + ID + ".txt"));
-				
-				// Read in the first line of values, in the order of
-				// ID, birthday, references, and action.
-				long id = reader.nextLong();
-				long birthday = reader.nextLong();
-				int references = reader.nextInt();
-				String actString = reader.next();
-				
-				// Create an Array List for holding Instructions
-				ArrayList<Instruction> instructions = new ArrayList<Instruction>();
-				
-				// As long as there are Instructions left to read in, do so.
-				while(reader.hasNextLong())
-					instructions.add(new Instruction(reader.nextLong()));
-				
-				// Close the scanner.
-				reader.close();
-				
-				// Create a long variable to hold an action.
-				long action = 0;
-				
-				// If the action is a Team reference, set it to a negative number
-				// and subtract 1 from it. This becomes relevant in the final part 
-				// of the read-in process.				
-				if(actString.charAt(0) == 'T')
-				{
-					action = -1 * Long.valueOf(actString.substring(1)) - 1;
-				}
-				else
-				{
-					action = Long.valueOf(actString);
-				}
-				
-				// Construct the new Learner from the values read in.
-				Learner learner = new Learner(id, birthday, action, 0, instructions);
-				
-				// Add the new Learner to the list.
-				learners.add(learner);
-			}
-			catch(FileNotFoundException e)
-			{
-				System.err.print(e);
-				System.exit(0);
-			}
+			long action = file[3] != 0 ? -1 * file[4] - 1 : file[4];
+			learners.add(new Learner(file[0], file[1], action, 0, Arrays.copyOfRange(file, 5, file.length)));
 		}
 		
-		// Return the completed Learner list.
+		// Return the completed Learner set.
 		return learners;
 	}
 	
+	// Read the Teams with the given IDs from their files in a model folder, parsing the files in
+	// parallel, and give each Team its Learners from the Learner set.
 	public HashSet<Team> createTeamSet(String folder, Set<Long> idList, Set<Learner> learnerList)
 	{
-		// Create a scanner variable.
-		Scanner reader = null;
+		// Index the Learners by ID, so each one is found without a search
+		HashMap<Long, Learner> learners = new HashMap<Long, Learner>(learnerList.size() * 2);
 		
-		// Create a new Array List for holding Teams
+		for(Learner L: learnerList)
+			learners.put(L.getID(), L);
+		
+		// Parse every Team file at once
+		long[][] files = readFiles(folder, "team_", toArray(idList), false);
+		
+		// Create a new set for holding Teams
 		HashSet<Team> teams = new HashSet<Team>();
 		
-		// Iterate through every Team ID
-		for(Long ID: idList)
+		// Create every Team and give it its Learners
+		for(long[] file: files)
 		{
-			try
-			{
-				// Open the relevant Team file by ID
-				reader = new Scanner(new File(folder + "team_" + ID + ".txt"));
-				
-				// Read in the first line of values, in the order of
-				// ID, birthday, and references.
-				long id = reader.nextLong();
-				long birthday = reader.nextLong();
-				int references = reader.nextInt();
-				
-				// Create a new Team from this information
-				Team team = new Team(id, birthday, 0);
-				
-				// As long as there are Learner IDs left to read in, do so.
-				while(reader.hasNextLong())
-				{
-					// Store the current ID we've read in.
-					long currentID = reader.nextLong();
-
-					// Check the Learner set for the ID. When we find it,
-					// add the associated Learner to the Team.
-					for(Learner L: learnerList)
-					{
-						if(L.getID() == currentID)
-						{
-							team.addLearner(L);
-							break;
-						}
-					}
-				}				
-				
-				// Close the scanner.
-				reader.close();
-				
-				// Add the new Team to the set.
-				teams.add(team);
-			}
-			catch(FileNotFoundException e)
-			{
-				System.err.print(e);
-				System.exit(0);
-			}
+			Team team = new Team(file[0], file[1], 0);
+			addLearners(team, file, learners);
+			teams.add(team);
 		}
 		
 		// Return the completed Team set.
 		return teams;
 	}
 	
+	// Read the model saved in a folder and return its root Team. Every Team and Learner file is
+	// parsed in parallel, and the Teams and Learners are then linked through maps keyed by ID.
+	// A Team or Learner referring to an ID which isn't part of the model is reported as an error.
 	public Team loadModel(String folder)
 	{
-		// Attempt to write the root team and the root team ID to the folder.
+		long rootTeamID;
+		long[] learnerIDs;
+		long[] teamIDs;
+		
+		// Read the root Team ID and the IDs of every Learner and Team in the model
 		try
 		{
-			// Create a scanner for capturing the root team ID.
-			Scanner reader = new Scanner(new File(folder + "root.txt"));
-			
-			// Get the root team ID from the file.
-			long rootTeamID = reader.nextLong();
-			
-			// Close the scanner for this file.
-			reader.close();
-			
-			// Create a new hash set for storing IDs.
-			HashSet<Long> idSet = new HashSet<Long>();
-			
-			// Create a scanner for capturing the learner IDs.
-			reader = new Scanner(new File(folder + "learnerIDs.txt"));
+			long[] root = readLongs(folder + "root.txt");
 			
-			// As long as the file has input, add longs to the ID set.
-			while(reader.hasNextLong())
-				idSet.add(reader.nextLong());
+			if(root.length == 0)
+				throw new RuntimeException("The file " + folder + "root.txt holds no root Team ID.");
 			
-			// Close the scanner for this file.
-			reader.close();
-			
-			// Using the IDs and Learner files, create a set of Learners
-			Set<Learner> learners = createLearnerSet(folder, idSet);
+			rootTeamID = root[0];
+			learnerIDs = readLongs(folder + "learnerIDs.txt");
+			teamIDs = readLongs(folder + "teamIDs.txt");
+		}
+		catch(IOException e)
+		{
+			System.err.println(e);
 			
-			// Reset the ID List
-			idSet.clear();
+			// If we got here, something broke in the read-in process.
+			return null;
+		}
+		
+		// Parse every Learner and Team file at once
+		long[][] learnerFiles = readFiles(folder, "learner_", learnerIDs, true);
+		long[][] teamFiles = readFiles(folder, "team_", teamIDs, false);
+		
+		// Create the Teams first, so Learners can point to their Teams as soon as they're made
+		HashMap<Long, Team> teams = new HashMap<Long, Team>(teamFiles.length * 2);
+		
+		for(long[] file: teamFiles)
+			if(teams.put(file[0], new Team(file[0], file[1], 0)) != null)
+				throw new RuntimeException("Team " + file[0] + " is listed more than once in " + folder + "teamIDs.txt.");
+		
+		// Create the Learners, linking every Team action to its Team
+		HashMap<Long, Learner> learners = new HashMap<Long, Learner>(learnerFiles.length * 2);
+		
+		for(long[] file: learnerFiles)
+		{
+			long[] program = Arrays.copyOfRange(file, 5, file.length);
+			Learner learner;
 			
-			// Create a scanner for capturing the learner IDs.
-			reader = new Scanner(new File(folder + "teamIDs.txt"));
+			if(file[3] == 0)
+				learner = new Learner(file[0], file[1], file[4], 0, program);
+			else
+			{
+				Team team = teams.get(file[4]);
+				
+				if(team == null)
+					throw new RuntimeException("Learner " + file[0] + " points to Team " + file[4] + ", which isn't in " + folder + "teamIDs.txt.");
+				
+				learner = new Learner(file[0], file[1], team, 0, program);
+			}
 			
-			// As long as the file has input, add longs to the ID set.
-			while(reader.hasNextLong())
-				idSet.add(reader.nextLong());
+			if(learners.put(file[0], learner) != null)
+				throw new RuntimeException("Learner " + file[0] + " is listed more than once in " + folder + "learnerIDs.txt.");
+		}
+		
+		// Give every Team its Learners
+		for(long[] file: teamFiles)
+			addLearners(teams.get(file[0]), file, learners);
+		
+		// Find and return the root team
+		Team root = teams.get(rootTeamID);
+		
+		if(root == null)
+			throw new RuntimeException("The root Team " + rootTeamID + " isn't in " + folder + "teamIDs.txt.");
+		
+		return root;
+	}
+	
+	// Give a Team the Learners listed in its parsed file, which follow its ID, birthday and references
+	protected static void addLearners(Team team, long[] file, HashMap<Long, Learner> learners)
+	{
+		for(int i=3; i < file.length; i++)
+		{
+			Learner learner = learners.get(file[i]);
 			
-			// Close the scanner for this file.
-			reader.close();
+			if(learner == null)
+				throw new RuntimeException("Team " + file[0] + " holds Learner " + file[i] + ", which isn't part of the model.");
 			
-			// Using the IDs and Team files, create a set of Teams
-			Set<Team> teams = createTeamSet(folder, idSet, learners);
-						
-			// Finally, make sure all the Learners have the correct action.
-			for(Learner L: learners)
+			team.addLearner(learner);
+		}
+	}
+	
+	// Parse the files of the Learners or Teams with the given IDs in parallel on the common
+	// ForkJoinPool. The values of each file are returned in ID order. A Learner file gives its
+	// ID, birthday, references, 1 if its action is a Team or 0 if not, its action and its program.
+	// A Team file gives its ID, birthday, references and the IDs of its Learners.
+	protected static long[][] readFiles(final String folder, final String prefix, long[] ids, final boolean learnerFiles)
+	{
+		ArrayList<Future<long[]>> results = new ArrayList<Future<long[]>>(ids.length);
+		
+		for(final long ID: ids)
+		{
+			results.add(ForkJoinPool.commonPool().submit(new Callable<long[]>()
 			{
-				// Create a long variable and retrieve the action from the current Learner.
-				long action = L.getActionObject().getAction(null, null);
-				
-				// If that action is negative, then we know it's actually a Team reference.
-				if(action < 0)
+				@Override
+				public long[] call() throws IOException
 				{
-					// Search every Team:
-					for(Team T: teams)
-					{
-						// When we find the Team that has the matching ID:
-						if(T.getID() == -1*(action+1))
-						{
-							// Create a new Action holding the Team reference and
-							// add it to the Learner with the mutateAction method,
-							// then break the inside loop.
-							L.mutateAction(new Action(T));
-							break;
-						}
-					}
-				}					
-			}
+					String file = folder + prefix + ID + ".txt";
+					long[] values = learnerFiles ? readLearner(file) : readLongs(file);
+					
+					// Every file must hold the ID it's named after
+					if(values.length < 3 || values[0] != ID)
+						throw new RuntimeException("The file " + file + " doesn't hold " + (learnerFiles ? "Learner " : "Team ") + ID + ".");
+					
+					return values;
+				}
+			}));
+		}
+		
+		long[][] files = new long[ids.length][];
+		
+		// Wait for every file to be parsed
+		try
+		{
+			for(int i=0; i < ids.length; i++)
+				files[i] = results.get(i).get();
+		}
+		catch(InterruptedException e)
+		{
+			for(Future<long[]> result: results)
+				result.cancel(true);
 			
-			// Find and return the root team
-			for(Team T: teams)
-				if(T.getID() == rootTeamID)
-					return T;
-		} 
-		catch(FileNotFoundException e) 
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading the model in " + folder + ".", e);
+		}
+		catch(ExecutionException e)
 		{
-			System.err.println(e); 
+			for(Future<long[]> result: results)
+				result.cancel(true);
+			
+			throw new RuntimeException("Could not load the model in " + folder + ".", e.getCause());
 		}
 		
-		// If we got here, something broke in the read-in process.
-		return null;		
+		return files;
+	}
+	
+	// Parse a Learner file: the ID, birthday and references, then the action, which is a Team ID
+	// if it starts with T, then one Instruction per line
+	protected static long[] readLearner(String file) throws IOException
+	{
+		LongTokenizer reader = new LongTokenizer(Files.readAllBytes(Paths.get(file)), file);
+		
+		long[] values = new long[64];
+		values[0] = reader.next();
+		values[1] = reader.next();
+		values[2] = reader.next();
+		values[3] = reader.skip('T') ? 1 : 0;
+		values[4] = reader.next();
+		
+		int size = 5;
+		
+		while(reader.hasNext())
+		{
+			// Grow the array if it's full
+			if(size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			
+			values[size++] = reader.next();
+		}
+		
+		return Arrays.copyOf(values, size);
+	}
+	
+	// Parse every value in a file
+	protected static long[] readLongs(String file) throws IOException
+	{
+		LongTokenizer reader = new LongTokenizer(Files.readAllBytes(Paths.get(file)), file);
+		
+		long[] values = new long[16];
+		int size = 0;
+		
+		while(reader.hasNext())
+		{
+			// Grow the array if it's full
+			if(size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			
+			values[size++] = reader.next();
+		}
+		
+		return Arrays.copyOf(values, size);
+	}
+	
+	// Copy a set of IDs into an array
+	protected static long[] toArray(Set<Long> idList)
+	{
+		long[] ids = new long[idList.size()];
+		int i = 0;
+		
+		for(Long ID: idList)
+			ids[i++] = ID;
+		
+		return ids;
 	}
 }
@@ -0,0 +1,199 @@
+package sbbj_tpg;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+// Plays Teams sent by a TPGCoordinator. A worker connects to the coordinator, then receives one
+// job at a time: an encoded Root Team, a label and a team index. It decodes the Team, lets it play
+// one episode in an Environment created for the team index, and sends the reward back. While it's
+// connected, it also sends a heartbeat every heartbeatInterval milliseconds, so the coordinator
+// can tell a busy worker from a lost one.
+//
+// Environments are created by the factory registered for the job's label, or by the default
+// factory if there isn't one. A worker can run on a thread, or as the main thread of a process of
+// its own (see APIExecutionExample5).
+public class TPGWorker implements Runnable
+{
+	// Where the coordinator is listening
+	protected String host;
+	protected int port;
+	
+	// The factory used for labels without a factory of their own
+	protected EnvironmentFactory defaultFactory;
+	
+	// Factories for particular labels
+	protected HashMap<String, EnvironmentFactory> factories = new HashMap<String, EnvironmentFactory>();
+	
+	// The number of milliseconds between heartbeats
+	protected int heartbeatInterval = 1000;
+	
+	// The connection to the coordinator, kept so stop() can close it
+	protected volatile Socket socket = null;
+	
+	// Create a worker which plays every label in Environments from the given factory
+	public TPGWorker( String host, int port, EnvironmentFactory defaultFactory )
+	{
+		this.host = host;
+		this.port = port;
+		this.defaultFactory = defaultFactory;
+	}
+	
+	// Use a different factory for one label
+	public void setEnvironmentFactory( String label, EnvironmentFactory factory )
+	{
+		factories.put( label, factory );
+	}
+	
+	// Set the number of milliseconds between heartbeats
+	public void setHeartbeatInterval( int milliseconds )
+	{
+		heartbeatInterval = milliseconds;
+	}
+	
+	// Connect to the coordinator and play jobs until it shuts the worker down or the connection ends
+	@Override
+	public void run()
+	{
+		Thread heartbeat = null;
+		
+		try( Socket connection = new Socket(host, port) )
+		{
+			socket = connection;
+			connection.setTcpNoDelay( true );
+			
+			DataInputStream in = new DataInputStream( new BufferedInputStream(connection.getInputStream()) );
+			final DataOutputStream out = new DataOutputStream( new BufferedOutputStream(connection.getOutputStream()) );
+			
+			// Send heartbeats from a thread of their own, so they keep going during long episodes
+			heartbeat = new Thread( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					sendHeartbeats( out );
+				}
+			}, "TPGWorker-heartbeat" );
+			
+			heartbeat.setDaemon( true );
+			heartbeat.start();
+			
+			while( true )
+			{
+				byte type = in.readByte();
+				
+				if( type == TPGCoordinator.SHUTDOWN )
+					break;
+				
+				if( type != TPGCoordinator.JOB )
+					throw new IOException("The coordinator sent an unknown message type " + type + ".");
+				
+				int teamIndex = in.readInt();
+				String label = in.readUTF();
+				byte[] encoded = new byte[ in.readInt() ];
+				in.readFully( encoded );
+				
+				// Play the job, and report a failure rather than dropping the connection, since
+				// playing the same Team on another worker would only fail again
+				try
+				{
+					double reward = play( SubgraphCodec.decode(encoded), label, teamIndex );
+					
+					synchronized( out )
+					{
+						out.writeByte( TPGCoordinator.RESULT );
+						out.writeInt( teamIndex );
+						out.writeDouble( reward );
+						out.flush();
+					}
+				}
+				catch( RuntimeException e )
+				{
+					synchronized( out )
+					{
+						out.writeByte( TPGCoordinator.ERROR );
+						out.writeInt( teamIndex );
+						out.writeUTF( String.valueOf(e) );
+						out.flush();
+					}
+				}
+			}
+		}
+		catch( IOException e )
+		{
+			// The coordinator went away, which ends the worker just like a shutdown
+		}
+		finally
+		{
+			if( heartbeat != null )
+				heartbeat.interrupt();
+		}
+	}
+	
+	// Disconnect from the coordinator. Any job being played is handed to another worker.
+	public void stop()
+	{
+		Socket connection = socket;
+		
+		if( connection == null )
+			return;
+		
+		try
+		{
+			connection.close();
+		}
+		catch( IOException e )
+		{
+			System.err.println(e);
+		}
+	}
+	
+	// Let a decoded Team play one episode and return its reward, then erase the Team
+	protected double play( final Team team, String label, int teamIndex )
+	{
+		EnvironmentFactory factory = factories.containsKey(label) ? factories.get(label) : defaultFactory;
+		final RegisterContext context = new RegisterContext();
+		
+		try
+		{
+			return factory.create( teamIndex ).play( new Agent()
+			{
+				@Override
+				public long act( double[] inputFeatures )
+				{
+					return team.getAction( context, inputFeatures );
+				}
+			});
+		}
+		finally
+		{
+			SubgraphCodec.erase( team );
+		}
+	}
+	
+	// Send a heartbeat every heartbeatInterval milliseconds until the connection ends
+	protected void sendHeartbeats( DataOutputStream out )
+	{
+		try
+		{
+			while( !Thread.currentThread().isInterrupted() )
+			{
+				synchronized( out )
+				{
+					out.writeByte( TPGCoordinator.HEARTBEAT );
+					out.flush();
+				}
+				
+				Thread.sleep( heartbeatInterval );
+			}
+		}
+		catch( IOException e )
+		{
+			// The connection is gone, so there's nobody left to tell
+		}
+		catch( InterruptedException e )
+		{
+			// The worker is finished
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package sbbj_tpg;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public class Team implements Comparable<Team>
 {
@@ -16,15 +17,26 @@ public class Team implements Comparable<Team>
 	// An array list of Learners attached to this Team
 	protected ArrayList<Learner> learners = new ArrayList<Learner>();
 	
-	// A mapping of String -> Double, where an input session is named by the String and the score is stored as a Double
-	protected HashMap<String, Double> outcomes = new HashMap<String, Double>();
+	// The matrix holding this Team's outcomes, where an input session is named by a label and the score is
+	// stored as a double in this Team's row. It's shared by the whole population this Team belongs to.
+	protected OutcomeMatrix outcomes = OutcomeMatrix.DETACHED;
 	
 	// This key is used for sorting during Pareto calculations. Pareto calculation has been removed
 	// from this version of TPG, but will be added as a support method at a later date.
 	protected double key = 0;
 	
-	// The number of Learners currently referencing this Team
-	protected int learnerReferenceCount = 0;
+	// The number of Learners currently referencing this Team. Learners created on different
+	// threads can reference the same Team, so increases and decreases go through the updater below.
+	protected volatile int learnerReferenceCount = 0;
+	
+	// Updates learnerReferenceCount atomically
+	protected static final AtomicIntegerFieldUpdater<Team> references = AtomicIntegerFieldUpdater.newUpdater( Team.class, "learnerReferenceCount" );
+	
+	// The pool of compact indices shared by all Teams
+	protected static final IndexPool indices = new IndexPool();
+	
+	// A compact index for this Team, used by TeamTraversal to mark visited Teams
+	protected int index = indices.acquire();
 		
 	// Reconstruct a Team from primary data. WE'VE CREATED A MONSTER!
 	public Team( long ID, long birthday, double key, ArrayList<Learner> learners, HashMap<String, Double> outcomes )
@@ -122,68 +134,123 @@ public class Team implements Comparable<Team>
 	// that label, return false.
 	public boolean getOutcome( String name, OpenDouble out )
 	{
-		// If we haven't tried this activity, return false.
-		if( !outcomes.containsKey(name) )
-			return false;
-		
-		// Otherwise get the score and store it in the out object
-		out.setValue( outcomes.get(name) );
-		
-		// Return true if we returned a value in the out object
-		return true;
+		// If we haven't tried this activity, return false. Otherwise the score is stored in the out object.
+		return outcomes.get( index, outcomes.labelID(name), out );
+	}
+	
+	// Get the outcome for a label ID interned by this Team's outcome matrix
+	public boolean getOutcome( int labelID, OpenDouble out )
+	{
+		return outcomes.get( index, labelID, out );
+	}
+	
+	// Return true if this Team already has an outcome for the label
+	public boolean hasOutcome( String name )
+	{
+		return outcomes.has( index, outcomes.labelID(name) );
+	}
+	
+	// Return true if this Team already has an outcome for a label ID interned by this Team's outcome matrix
+	public boolean hasOutcome( int labelID )
+	{
+		return outcomes.has( index, labelID );
 	}
 	
 	// This Team is receiving a reward value. Store it in the outcomes map.
 	// This version can't perform the same labelled activity more than once.
 	// Change the map activity (or incoming label) to do something different.
-	public void setOutcome( String name, Double out )
+	public void setOutcome( String name, double out )
 	{
-		// We can't do the same activity more than once. If we do, throw an error.
-		if( outcomes.containsKey(name) )  
-			throw new RuntimeException("Tried to add a duplicate activity label to an outcomes map.");
-		
-		// If we haven't done this before, store it.
-		outcomes.put(name, out);
+		// We can't do the same activity more than once. If we do, the matrix throws an error.
+		outcomes.set( index, outcomes.intern(name), out );
+	}
+	
+	// Store an outcome for a label ID interned by this Team's outcome matrix
+	public void setOutcome( int labelID, double out )
+	{
+		outcomes.set( index, labelID, out );
 	}
 	
 	// Remove a score from a Team's outcomes map. If it doesn't exist, that's bad. Something is very broken.
 	public void deleteOutcome( String name )
 	{
 		// If we didn't do this activity, throw an error. This is a very bad thing. The code needs to be fixed.
-		if( !outcomes.containsKey(name) )
+		if( !outcomes.remove(index, outcomes.labelID(name)) )
 			throw new RuntimeException("Tried to delete an activity label that does not exist from an outcomes map.");
-		
-		// If it does exist, remove it.
-		outcomes.remove(name);
+	}
+	
+	// Remove every outcome this Team has
+	public void clearOutcomes()
+	{
+		outcomes.clearRow( index );
 	}
 	
 	// Return the number of scores this Team has stored so far.
 	public int numOutcomes()
 	{
-		return outcomes.size();
+		return outcomes.count( index );
 	}
 	
 	// Retrieve all outcomes along with the corresponding points
 	public void outcomes( ArrayList<String> names, ArrayList<Double> scores )
 	{		
-		// For every name->score pair in the map, store the name and score in a list.
+		// For every label this Team has a score for, store the name and score in a list.
 		// The lists are updated in-place in memory and don't need to be returned.
-		for( String name : outcomes.keySet() )
+		OpenDouble score = new OpenDouble(0.0);
+		
+		for( String name : outcomes.getLabels() )
 		{
-			names.add( name );
-			scores.add( outcomes.get(name) );
+			if( getOutcome(name, score) )
+			{
+				names.add( name );
+				scores.add( score.getValue() );
+			}
 		}
 	}
 	
-	// Provide this Team with an input state set and return an action
-	public long getAction( HashSet<Team> visited, double[] state )
+	// Provide this Team with an input state set and return an action. The Learners bid using
+	// their registers in the given context. The graph is walked iteratively, and visited Teams
+	// are tracked by a TeamTraversal rather than a set, so nothing is allocated no matter how
+	// deep the graph is.
+	public long getAction( RegisterContext context, double[] state )
+	{
+		// Start a new traversal on this thread
+		TeamTraversal traversal = TeamTraversal.begin();
+		
+		Team team = this;
+		Action action = null;
+		
+		// Keep following Team actions until a Learner chooses an atomic action
+		while( true )
+		{
+			// Add this Team to the visited set
+			traversal.visit(team);
+			
+			// Find the action of the best Learner on the current Team
+			Learner best = team.getBestLearner( context, traversal, state );
+			
+			// Following any Learner from here would walk around a cycle forever
+			if( best == null )
+				throw new RuntimeException("Team " + team.getID() + " has no Learner with an atomic action or an unvisited Team action.");
+			
+			action = best.getActionObject();
+			
+			// An atomic action is the final answer. Otherwise, move on to the chosen Team.
+			if( action.isAtomic() )
+				return action.action;
+			
+			team = action.team;
+		}
+	}
+	
+	// Return the Learner on this Team with the highest bid for an input state set,
+	// skipping any Learner whose Team action has already been visited. Returns null
+	// if every Learner was skipped.
+	protected Learner getBestLearner( RegisterContext context, TeamTraversal traversal, double[] state )
 	{
 		Learner bestLearner = null;
 		double maxBid = 0;
 		double nextBid = 0;
-
-		// Add this Team to the visited set
-		visited.add(this);
 		
 		// Create an integer for iteration
 		int i = 0;
@@ -191,15 +258,13 @@ public class Team implements Comparable<Team>
 		// Get the first bid from the Learners based on their Action object
 		for( i=0; i < learners.size(); i++ )
 		{
-			// Get the next Learner from the list
-			bestLearner = learners.get(i);
-			
 			// If this Learner's Action is a Team and we've visited that Team before, skip this Learner
-			if( !bestLearner.getActionObject().isAtomic() && visited.contains(bestLearner.getActionObject().team) )
+			if( !learners.get(i).getActionObject().isAtomic() && traversal.visited(learners.get(i).getActionObject().team) )
 				continue;
-						
-			// Otherwise we can get the Learner's bid
-			maxBid = learners.get(i).bid( state );
+			
+			// Otherwise this is our starting Learner, so get its bid
+			bestLearner = learners.get(i);
+			maxBid = bestLearner.bid( context, state );
 
 			// We've found our starting Learner, so break
 			break;			
@@ -209,11 +274,11 @@ public class Team implements Comparable<Team>
 		for( i += 1 ; i < learners.size(); i++ )
 		{
 			// If this Learner's Action is a Team and we've visited that Team before, skip this Learner
-			if( !learners.get(i).getActionObject().isAtomic() && visited.contains(learners.get(i).getActionObject().team) )
+			if( !learners.get(i).getActionObject().isAtomic() && traversal.visited(learners.get(i).getActionObject().team) )
 				continue;
 			
 			// Otherwise get the bid from this Learner
-			nextBid = learners.get(i).bid( state );
+			nextBid = learners.get(i).bid( context, state );
 
 			// If this bid is higher than the previous highest bid, store it and the Learner
 			if( nextBid > maxBid )
@@ -223,8 +288,110 @@ public class Team implements Comparable<Team>
 			}
 		}
 
-		// Return the action of the best Learner
-		return bestLearner.getActionObject().getAction(visited,state);
+		// Return the best Learner
+		return bestLearner;
+	}
+	
+	// Provide this Team with a whole set of input rows and store the action chosen for each
+	// row in the actions array. Rows are run through the Learners in batches (see Learner.bid()),
+	// so every row is evaluated as if the Learners' registers started from zero.
+	public void getActions( double[][] rows, long[] actions )
+	{
+		// Create the working space shared by every Learner in the graph
+		double[][] lanes = new double[Learner.BATCH_LANES][Learner.BATCH_SIZE];
+		int[] rowIndices = new int[Learner.BATCH_SIZE];
+		ArrayList<Team> visited = new ArrayList<Team>();
+		
+		// Evaluate the rows one batch at a time
+		for( int start=0; start < rows.length; start += Learner.BATCH_SIZE )
+		{
+			int count = Math.min( Learner.BATCH_SIZE, rows.length - start );
+			
+			for( int k=0; k < count; k++ )
+				rowIndices[k] = start + k;
+			
+			getActions( visited, rows, rowIndices, count, actions, lanes );
+		}
+	}
+	
+	// Find the actions for the batch of rows rows[rowIndices[k]], k < count, which have reached
+	// this Team through the Teams in the visited list. Each row follows the same path through the
+	// graph that getAction() would take for it: rows won by a Learner with a Team action are passed
+	// on to that Team together, so Learners further down only bid on the rows that reach them.
+	protected void getActions( ArrayList<Team> visited, double[][] rows, int[] rowIndices, int count, long[] actions, double[][] lanes )
+	{
+		// The highest bid for each row, and the index of the Learner that made it
+		double[] bids = new double[count];
+		double[] maxBids = new double[count];
+		int[] winners = new int[count];
+		
+		// Add this Team to the visited list
+		visited.add(this);
+		
+		// Keep track of whether we've found our starting Learner yet
+		boolean first = true;
+		
+		// Query every Learner to get the highest bid for each row
+		for( int i=0; i < learners.size(); i++ )
+		{
+			Action action = learners.get(i).getActionObject();
+			
+			// If this Learner's Action is a Team and we've visited that Team before, skip this Learner
+			if( !action.isAtomic() && visited.contains(action.team) )
+				continue;
+			
+			// Get this Learner's bid for every row in the batch
+			learners.get(i).bid( rows, rowIndices, count, lanes, bids );
+			
+			// The first Learner starts with every row. After that, a bid has to be
+			// higher than the previous highest bid to take the row, just like in getAction().
+			for( int k=0; k < count; k++ )
+			{
+				if( first || bids[k] > maxBids[k] )
+				{
+					maxBids[k] = bids[k];
+					winners[k] = i;
+				}
+			}
+			
+			first = false;
+		}
+		
+		// If no Learner could bid, getAction() fails, so we do the same
+		if( first )
+			throw new RuntimeException("Team " + getID() + " has no Learner with an atomic action or an unvisited Team action.");
+		
+		// Hand every row to the action of the Learner that won it
+		int[] group = new int[count];
+		
+		for( int i=0; i < learners.size(); i++ )
+		{
+			// Gather the rows this Learner won
+			int size = 0;
+			
+			for( int k=0; k < count; k++ )
+				if( winners[k] == i )
+					group[size++] = rowIndices[k];
+			
+			if( size == 0 )
+				continue;
+			
+			Action action = learners.get(i).getActionObject();
+			
+			// Atomic actions are final. Otherwise the rows move on to the Learner's Team.
+			if( action.isAtomic() )
+			{
+				for( int k=0; k < size; k++ )
+					actions[ group[k] ] = action.action;
+			}
+			else
+			{
+				action.team.getActions( visited, rows, group, size, actions, lanes );
+			}
+		}
+		
+		// Remove this Team from the visited list on the way back out
+		visited.remove( visited.size() - 1 );
 	}
 	
 	// This Team is being deleted. Make sure Learner references are decreased before it's gone!
@@ -233,6 +400,12 @@ public class Team implements Comparable<Team>
 		// For each Learner attached to this Team, reduce their number of references by 1.
 		for( Learner learner : learners )
 			learner.decreaseReferences();
+		
+		// The next Team to use this compact index must start without outcomes
+		outcomes.clearRow( index );
+		
+		// Give this Team's compact index back so a new Team can use it
+		indices.release( index );
 	}
 	
 	// Find every team attached to this team and return the complete set
@@ -265,13 +438,22 @@ public class Team implements Comparable<Team>
 	// Increase the number of references to this Team and return the new value
 	public int increaseReferences()
 	{
-		return ++learnerReferenceCount;
+		return references.incrementAndGet( this );
 	}
 	
 	// Decrease the number of references to this Team and return the new value
 	public int decreaseReferences()
 	{		
-		return --learnerReferenceCount;
+		return references.decrementAndGet( this );
+	}
+	
+	// Reserve a range of consecutive Team IDs and return the first one, so that Teams
+	// created on other threads can be given IDs which don't depend on the order they're made in
+	public static synchronized long reserveIDs( int amount )
+	{
+		long first = count;
+		count += amount;
+		return first;
 	}
 	
 	// Return the number of references to this Learner
@@ -297,18 +479,26 @@ public class Team implements Comparable<Team>
 	// Return a string representation of this Team,
 	// designed to be stored in a file.
 	public String storageOutput()
+	{
+		return storageOutput( learnerReferenceCount );
+	}
+	
+	// Return the same representation with the given reference count in its place. The count
+	// changes as the population changes even though the Team doesn't, so ModelStore stores 0.
+	public String storageOutput( int references )
 	{
 		// Provide the basic Team information as the
 		// first line, followed by a single empty line
-		String out = ID + " " + birthday + " " + learnerReferenceCount + "\n\n";
+		StringBuilder out = new StringBuilder();
+		out.append( ID ).append( ' ' ).append( birthday ).append( ' ' ).append( references ).append( "\n\n" );
 		
 		// For each Learner in this Team's learner list,
 		// store a Learner ID on its own line.
 		for( Learner L: learners )
-			out += L.getID() + "\n";
+			out.append( L.getID() ).append( '\n' );
 		
 		// Return the representative string
-		return out;
+		return out.toString();
 	}
 	
 	// Compare two Teams by key. 
@@ -0,0 +1,42 @@
+package sbbj_tpg;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A Root Team taken out of the Team queue by TPGLearn.acquire(), along with the registers
+// its Learners use while it plays. A handle belongs to the thread which acquired it until
+// it's given back with TPGLearn.release(), so many handles can play at the same time.
+public class TeamHandle
+{
+	// The Team playing through this handle
+	protected final Team team;
+	
+	// The registers used by the Team's Learners while it plays through this handle
+	protected final RegisterContext context = new RegisterContext();
+	
+	// Whether this handle has been released
+	protected final AtomicBoolean released = new AtomicBoolean( false );
+	
+	// Create a handle for a Team
+	protected TeamHandle( Team team )
+	{
+		this.team = team;
+	}
+	
+	// Return the ID of the Team playing through this handle
+	public long getTeamID()
+	{
+		return team.getID();
+	}
+	
+	// Return the registers used by the Team's Learners, for example to reset() them between episodes
+	public RegisterContext getRegisterContext()
+	{
+		return context;
+	}
+	
+	// Return true once this handle has been released
+	public boolean isReleased()
+	{
+		return released.get();
+	}
+}
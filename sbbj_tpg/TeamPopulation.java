@@ -0,0 +1,175 @@
+package sbbj_tpg;
+
+import java.util.List;
+import java.util.random.RandomGenerator;
+
+// A population of Teams, indexed by each Team's compact index. Every Team in the population is
+// either a root Team or a non-root Team, and the two groups are kept as populations of their
+// own, so a Team's root flag can be checked or changed in constant time and either group can
+// be sampled directly.
+public class TeamPopulation extends Population<Team>
+{
+	// The root Teams, in the order they were flagged
+	protected Population<Team> roots = new Members();
+	
+	// Every Team which isn't a root Team
+	protected Population<Team> nonRoots = new Members();
+	
+	// The outcomes of every Team in the population
+	protected OutcomeMatrix outcomes = new OutcomeMatrix();
+	
+	@Override
+	protected int indexOf( Team team )
+	{
+		return team.index;
+	}
+	
+	// Add a non-root Team to the population
+	@Override
+	public boolean add( Team team )
+	{
+		return add( team, false );
+	}
+	
+	// Add a Team to the population as a root or non-root Team
+	public boolean add( Team team, boolean root )
+	{
+		if( !super.add(team) )
+			return false;
+		
+		// The Team keeps its outcomes in the population's matrix from now on
+		outcomes.moveRow( team.outcomes, team.index );
+		team.outcomes = outcomes;
+		
+		if( root )
+			roots.add( team );
+		else
+			nonRoots.add( team );
+		
+		return true;
+	}
+	
+	// Add Teams in the given order, with the root and non-root Teams put in orders of their own, as
+	// when a checkpoint is restored. Every Team must appear in exactly one of the root and non-root lists.
+	public void addAll( List<Team> members, List<Team> rootOrder, List<Team> nonRootOrder )
+	{
+		if( rootOrder.size() + nonRootOrder.size() != members.size() )
+			throw new RuntimeException("Every Team must be either a root Team or a non-root Team.");
+		
+		for( Team team : members )
+		{
+			if( !super.add(team) )
+				throw new RuntimeException("Tried to add a Team to a population twice.");
+			
+			outcomes.moveRow( team.outcomes, team.index );
+			team.outcomes = outcomes;
+		}
+		
+		for( Team team : rootOrder )
+			roots.add( team );
+		
+		for( Team team : nonRootOrder )
+			nonRoots.add( team );
+	}
+	
+	// Remove a Team from the population, whether it's a root Team or not
+	@Override
+	public boolean remove( Team team )
+	{
+		if( !super.remove(team) )
+			return false;
+		
+		if( !roots.remove(team) )
+			nonRoots.remove( team );
+		
+		return true;
+	}
+	
+	@Override
+	public void clear()
+	{
+		super.clear();
+		roots.clear();
+		nonRoots.clear();
+	}
+	
+	// Return the matrix holding the outcomes of every Team in the population
+	public OutcomeMatrix getOutcomes()
+	{
+		return outcomes;
+	}
+	
+	// Return true if the Team is flagged as a root Team of this population
+	public boolean isRoot( Team team )
+	{
+		return roots.contains( team );
+	}
+	
+	// Flag a Team in the population as a root Team or not. A Team which becomes a root Team
+	// goes to the end of the root Team order.
+	public void setRoot( Team team, boolean root )
+	{
+		if( !contains(team) || isRoot(team) == root )
+			return;
+		
+		if( root )
+		{
+			nonRoots.remove( team );
+			roots.add( team );
+		}
+		else
+		{
+			roots.remove( team );
+			nonRoots.add( team );
+		}
+	}
+	
+	// Flag every Team as a non-root Team
+	public void clearRoots()
+	{
+		for( int i=0; i < roots.size(); i++ )
+			nonRoots.add( roots.get(i) );
+		
+		roots.clear();
+	}
+	
+	// Return the root Team at the given position in the root Team order
+	public Team getRoot( int position )
+	{
+		return roots.get( position );
+	}
+	
+	// Return the number of root Teams
+	public int rootCount()
+	{
+		return roots.size();
+	}
+	
+	// Return a read-only view of the root Teams in root Team order
+	public List<Team> getRoots()
+	{
+		return roots.asList();
+	}
+	
+	// Return a uniformly random root Team, or null if there are none
+	public Team sampleRoot( RandomGenerator rng )
+	{
+		return roots.sample( rng );
+	}
+	
+	// Return a uniformly random non-root Team, or null if there are none
+	public Team sampleNonRoot( RandomGenerator rng )
+	{
+		return nonRoots.sample( rng );
+	}
+	
+	// The plain Team populations used for the root and non-root groups
+	protected static class Members extends Population<Team>
+	{
+		@Override
+		protected int indexOf( Team team )
+		{
+			return team.index;
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package sbbj_tpg;
+
+// Ranks Teams by a column of scores, highest score first. Teams are referred to by their
+// index in the score column, which is normally their index in the Root Team list.
+//
+// Teams with equal scores keep their original relative order, exactly as a stable sort would
+// leave them, and a score which is not a number ranks below every other score.
+public class TeamRanking extends IndexRanking
+{
+	// The score of every Team, indexed by Team index
+	protected double[] scores;
+	
+	// Create a ranking over a column of scores
+	public TeamRanking( double[] scores )
+	{
+		super( scores.length );
+		this.scores = scores;
+	}
+	
+	// Return true if Team a ranks ahead of Team b
+	@Override
+	public boolean ahead( int a, int b )
+	{
+		double x = scores[a];
+		double y = scores[b];
+		
+		if( x > y )
+			return true;
+		
+		if( x < y )
+			return false;
+		
+		// Scores which are not numbers go to the back
+		boolean xNaN = Double.isNaN( x );
+		boolean yNaN = Double.isNaN( y );
+		
+		if( xNaN != yNaN )
+			return yNaN;
+		
+		// Equal scores keep their original order
+		return a < b;
+	}
+}
@@ -0,0 +1,58 @@
+package sbbj_tpg;
+
+import java.util.Arrays;
+
+// Tracks which Teams have been visited while a Team graph is being traversed, without
+// allocating anything per traversal. Every Team holds a compact index from an IndexPool,
+// and each thread keeps its own array of marks indexed by it. Starting a new traversal just moves the
+// thread on to a new stamp, so the marks left by earlier traversals stop counting
+// without ever having to be cleared.
+public class TeamTraversal
+{
+	// Every thread gets its own traversal, so threads never see each other's marks
+	protected static final ThreadLocal<TeamTraversal> traversals = new ThreadLocal<TeamTraversal>()
+	{
+		@Override
+		protected TeamTraversal initialValue()
+		{
+			return new TeamTraversal();
+		}
+	};
+	
+	// The stamp of the last traversal to visit each Team, indexed by Team index
+	protected int[] marks = new int[64];
+	
+	// The stamp of the current traversal on this thread
+	protected int stamp = 0;
+	
+	// Start a new traversal on the current thread and return it
+	public static TeamTraversal begin()
+	{
+		TeamTraversal traversal = traversals.get();
+		
+		// When the stamp wraps around, old marks could match it again, so clear them once
+		if( ++traversal.stamp == 0 )
+		{
+			Arrays.fill( traversal.marks, 0 );
+			traversal.stamp = 1;
+		}
+		
+		return traversal;
+	}
+	
+	// Mark a Team as visited by the current traversal
+	public void visit( Team team )
+	{
+		// Make room for the Team's index if it's newer than any seen on this thread
+		if( team.index >= marks.length )
+			marks = Arrays.copyOf( marks, Math.max(team.index + 1, marks.length * 2) );
+		
+		marks[team.index] = stamp;
+	}
+	
+	// Return true if the current traversal has already visited a Team
+	public boolean visited( Team team )
+	{
+		return team.index < marks.length && marks[team.index] == stamp;
+	}
+}
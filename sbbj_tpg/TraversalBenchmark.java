@@ -0,0 +1,57 @@
+package sbbj_tpg;
+
+import java.lang.management.ManagementFactory;
+
+public class TraversalBenchmark
+{
+	public static void main(String[] args)
+	{
+		// Load the sample model, or a model folder given on the command line
+		String modelFolder = args.length > 0 ? args[0] : "16-10-2019-05-03-45_0/generation_12/";
+		
+		// Create a TPG instance in play mode and grab the play interface
+		TPGAlgorithm tpgAlgorithm = new TPGAlgorithm(modelFolder, "play");
+		TPGPlay tpg = tpgAlgorithm.getTPGPlay();
+		
+		// The thread MXBean on HotSpot can report the bytes allocated by a single thread
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		
+		// Set some data boundaries for the benchmark
+		int dataCount = 1000;
+		int dataLength = 25;
+		int warmupRounds = 200;
+		int measuredRounds = 200;
+		
+		// Create the input set ahead of time so it isn't counted as an allocation
+		double[][] input = new double[dataCount][dataLength];
+		
+		for( int i=0; i < dataCount; i++ )
+			input[i][(int)(Math.random()*dataLength)] = 1.0;
+		
+		// Keep a running total of actions so the calls can't be optimized away
+		long total = 0;
+		
+		// Warm up: decode (and compile) the Learner programs and let the JIT settle
+		for( int i=0; i < warmupRounds; i++ )
+			for( int j=0; j < dataCount; j++ )
+				total += tpg.participate( input[j] );
+		
+		// Measure the time taken and the bytes allocated by the participate calls alone
+		long startBytes = threads.getThreadAllocatedBytes(thread);
+		long startTime = System.nanoTime();
+		
+		for( int i=0; i < measuredRounds; i++ )
+			for( int j=0; j < dataCount; j++ )
+				total += tpg.participate( input[j] );
+		
+		long time = System.nanoTime() - startTime;
+		long bytes = threads.getThreadAllocatedBytes(thread) - startBytes;
+		long calls = (long)measuredRounds * dataCount;
+		
+		// Print the results
+		System.out.println("Calls: " + calls + " (action total " + total + ")");
+		System.out.println("Time per participate call: " + (time / calls) + " ns");
+		System.out.println("Bytes allocated per participate call: " + ((double)bytes / calls));
+	}
+}
@@ -87,6 +87,13 @@ public class Instruction extends BitSet
 	
 	public static final int OPERATION_COUNT = 9;
 	
+	// Mask values as primitive longs. These match the Instruction masks above and are
+	// used to decode an Instruction's long value without creating any new objects.
+	public static final long MODE_MASK_VALUE = 0x3L;
+	public static final long OP_MASK_VALUE = 0x3CL;
+	public static final long DEST_MASK_VALUE = 0x1C0L;
+	public static final long SRC_MASK_VALUE = 0x1FFFFFE00L;
+	
 	// Shift Amounts
 	public static final short MODE_SHIFT = 0;
 	public static final short OP_SHIFT = (short)(modeMask.cardinality());
@@ -190,6 +197,46 @@ public class Instruction extends BitSet
 		return this.getRegister( srcMask, SRC_SHIFT );
 	}
 
+	/**
+	 * Retrieves the Mode section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Mode section of the binary string as an int.
+	 */
+	public static int getMode( long value )
+	{
+		return (int)( (value & MODE_MASK_VALUE) >>> MODE_SHIFT );
+	}
+	
+	/**
+	 * Retrieves the Operation section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Operation section of the binary string as an int.
+	 */
+	public static int getOperation( long value )
+	{
+		return (int)( (value & OP_MASK_VALUE) >>> OP_SHIFT );
+	}
+	
+	/**
+	 * Retrieves the Destination section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Destination section of the binary string as an int.
+	 */
+	public static int getDestination( long value )
+	{
+		return (int)( (value & DEST_MASK_VALUE) >>> DEST_SHIFT );
+	}
+	
+	/**
+	 * Retrieves the Source section of an instruction stored as a long value.
+	 * @param value the long value of an Instruction, as returned by getLongValue().
+	 * @return the Source section of the binary string as an int.
+	 */
+	public static int getSource( long value )
+	{
+		return (int)( (value & SRC_MASK_VALUE) >>> SRC_SHIFT );
+	}
+
 	/**
 	 * Returns this instruction in its binary string representation.
 	 * @return the binary string representation of this object.
@@ -210,15 +257,25 @@ public class Instruction extends BitSet
 	 */
 	public static Instruction newRandom()
 	{
-		Instruction instruction = new Instruction();
+		return new Instruction( newRandomValue() );
+	}
+	
+	/**
+	 * Returns the long value of a randomly created Instruction of size INSTRUCTION_SIZE.
+	 * Each bit has a 50% chance of being set to 1.
+	 * @return the long value of a randomly created Instruction.
+	 */
+	public static long newRandomValue()
+	{
+		long value = 0;
 		
 		for( int j=0; j < INSTRUCTION_SIZE; j++ )
 		{
 			if( TPGAlgorithm.RNG.nextDouble() < 0.5 )
-				instruction.flip(j);
+				value |= 1L << j;
 		}
 		
-		return instruction;		
+		return value;
 	}
 	
 	/**
@@ -1,6 +1,6 @@
 package sbbj_tpg_mem;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Learner
 {
@@ -25,30 +25,44 @@ public class Learner
 	// The number of Teams currently referencing this Learner
 	protected int teamReferenceCount = 0;
 	
-	// This Learner's program for calculating a bid based on an input
-	ArrayList<Instruction> program = new ArrayList<Instruction>();
+	// This Learner's program for calculating a bid based on an input. Every Instruction is
+	// stored as its long value in a single array, of which the first programSize entries are used.
+	long[] program = null;
+	
+	// The number of Instructions in this Learner's program
+	protected int programSize = 0;
+	
+	// The number of primitive fields stored for each Instruction in a decoded program
+	protected static final int DECODED_FIELDS = 4;
+	
+	// This Learner's program decoded into operation, mode, destination and source fields,
+	// stored one Instruction after another. It is rebuilt the next time the program runs
+	// after a mutation has changed the program, and null until then.
+	protected volatile int[] decodedProgram = null;
 	
 	// Reconstruct a learner with an atomic action: we can build it, we have the technology
-	public Learner( long ID, long birthday, long action, int nRefs, ArrayList<Instruction> program )
+	public Learner( long ID, long birthday, long action, int nRefs, long[] program )
 	{
 		this.ID = ID;
 		this.birthday = birthday;
 		this.action = new Action(action);
 		this.teamReferenceCount = nRefs;
 		this.program = program;
+		this.programSize = program.length;
 		
 		// Initialize a new set of general purpose registers
 		registers = new double[REGISTERS];
 	}
 	
 	// Reconstruct a learner with a Team action: we can build it, we have the technology
-	public Learner( long ID, long birthday, Team action, int nRefs, ArrayList<Instruction> program )
+	public Learner( long ID, long birthday, Team action, int nRefs, long[] program )
 	{
 		this.ID = ID;
 		this.birthday = birthday;
 		this.action = new Action(action);
 		this.teamReferenceCount = nRefs;
 		this.program = program;
+		this.programSize = program.length;
 		
 		// Initialize a new set of general purpose registers
 		registers = new double[REGISTERS];
@@ -72,27 +86,14 @@ public class Learner
 		// Initialize a new set of general purpose registers
 		registers = new double[REGISTERS];
 		
-		// Create a new Instruction variable and make sure it's initialized to null
-		Instruction in = null;
-		
 		// Generate a program up to maxProgSize, with a minimum of 1 instruction.
-		int progSize = 1 + ((int)(TPGAlgorithm.RNG.nextDouble() * maxProgSize));
+		programSize = 1 + ((int)(TPGAlgorithm.RNG.nextDouble() * maxProgSize));
+		program = new long[programSize];
 		
-		// Randomize progSize many instructions and store them as the current Learner's program
-		for( int i=0; i < progSize; i++ )
-		{
-			// Create a new empty Instruction (binary string of all 0's.
-			in = new Instruction();
-			
-			// There's a 50% chance for each bit to be set to 1.
-			// See the Instruction class for default lengths.
-			for( int j=0; j < in.size(); j++ )
-				if( TPGAlgorithm.RNG.nextDouble() < 0.5 )
-					in.flip(j);
-			
-			// Add the randomly generated instruction to the Learner's program
-			program.add(in);
-		}
+		// Randomize progSize many instructions and store them as the current Learner's program.
+		// See the Instruction class for default lengths.
+		for( int i=0; i < programSize; i++ )
+			program[i] = Instruction.newRandomValue();
 	}
 		
 	// Create a new uniquely ID'd Learner which is otherwise a copy of another Learner
@@ -113,9 +114,11 @@ public class Learner
 		// Initialize a new set of general purpose registers
 		registers = new double[REGISTERS];
 		
-		// Copy the other Learner's program
-		for( Instruction in : other.program )
-			program.add( new Instruction(in) );
+		// Copy the other Learner's program. The decoded program is never modified
+		// in place, so it can be shared until this copy is mutated.
+		program = Arrays.copyOf( other.program, other.programSize );
+		programSize = other.programSize;
+		decodedProgram = other.decodedProgram;
 		
 		// If the Learner we're copying is holding a pointer to a Team,
 		// we have to increment it here because this new Learner is
@@ -138,69 +141,98 @@ public class Learner
 		return 1 / ( 1 + Math.exp( -run( inputFeatures ) ) );
 	}
 	
+	// Decode this Learner's program into a flat array of primitive fields. Each Instruction
+	// is stored as its operation, mode, destination register and source, in that order.
+	protected int[] decode()
+	{
+		int[] decoded = new int[programSize * DECODED_FIELDS];
+		
+		long value;
+		int mode;
+		int i = 0;
+		
+		// For every instruction in this Learner's program:
+		for( int j=0; j < programSize; j++ )
+		{
+			// Split the instruction into its sections once, so they never have to be extracted during a run
+			value = program[j];
+			mode = Instruction.getMode(value) % Instruction.MODE_COUNT;
+			
+			decoded[i++] = Instruction.getOperation(value) % Instruction.OPERATION_COUNT;
+			decoded[i++] = mode;
+			decoded[i++] = Instruction.getDestination(value);
+			
+			// A register source can be reduced to a register index once here, but input
+			// and memory sources depend on the size of the input feature set and memory.
+			if( mode == Instruction.mode0_VALUE )
+				decoded[i++] = Instruction.getSource(value) % REGISTERS;
+			else
+				decoded[i++] = Instruction.getSource(value);
+		}
+		
+		return decoded;
+	}
+	
 	// Run the program on the given input feature set and return a pre-bid output
 	protected double run( double[] inputFeatures )
 	{
-		int mode;
-		int operation;
+		// Retrieve the decoded program, decoding it first if the program has changed
+		int[] code = decodedProgram;
+		
+		if( code == null )
+			decodedProgram = code = decode();
 		
 		int destinationRegister;
 		double sourceValue;
 
-		// For every instruction in this Learner's program:
-		for( Instruction instruction : program )
+		// For every decoded instruction in this Learner's program:
+		for( int i=0; i < code.length; i += DECODED_FIELDS )
 		{
-			// Retrieve the mode register
-			mode = (int)(instruction.getModeRegister().getLongValue() % Instruction.MODE_COUNT);
-			
-			// Retrieve the operation register
-			operation = (int)(instruction.getOperationRegister().getLongValue() % Instruction.OPERATION_COUNT);
-			
 			// Retrieve the destination register
-			destinationRegister = (int) instruction.getDestinationRegister().getLongValue();
+			destinationRegister = code[i+2];
 			
 			// Mode0 lets an instruction decide between using the input feature set or the general purpose registers
-			if(mode == Instruction.mode0_VALUE)
-			{
-				sourceValue = registers[ (int) instruction.getSourceRegister().getLongValue() % REGISTERS ];
-			}
-			else if(mode == Instruction.mode1_VALUE)
-			{
-				sourceValue = inputFeatures[ (int) (instruction.getSourceRegister().getLongValue() % inputFeatures.length) ];
-			}
+			if( code[i+1] == Instruction.mode0_VALUE )
+				sourceValue = registers[ code[i+3] ];
+			else if( code[i+1] == Instruction.mode1_VALUE )
+				sourceValue = inputFeatures[ code[i+3] % inputFeatures.length ];
 			else
-			{
-				sourceValue = TPGAlgorithm.memory.read( (int) (instruction.getSourceRegister().getLongValue()) );	
-			}
+				sourceValue = TPGAlgorithm.memory.read( code[i+3] );
 			
 			// Perform the appropriate operation
-			if( operation == Instruction.SUM_VALUE )
-				registers[destinationRegister] += sourceValue;
-			else if( operation == Instruction.DIFF_VALUE )
-				registers[destinationRegister] -= sourceValue;
-			else if( operation == Instruction.PROD_VALUE )
-				registers[destinationRegister] *= sourceValue;
-			else if( operation == Instruction.DIV_VALUE )
-				registers[destinationRegister] /= sourceValue;
-			else if( operation == Instruction.COS_VALUE )
-				registers[destinationRegister] = Math.cos( sourceValue );
-			else if( operation == Instruction.LOG_VALUE )
-				registers[destinationRegister] = Math.log( Math.abs(sourceValue) );
-			else if( operation == Instruction.EXP_VALUE )
-				registers[destinationRegister] = Math.exp( sourceValue );
-			else if( operation == Instruction.COND_VALUE )
-			{	
-				if( registers[destinationRegister] < sourceValue )
-					registers[destinationRegister] *= -1;
-			}
-			else if( operation == Instruction.WRIT_VALUE )
+			switch( code[i] )
 			{
-				TPGAlgorithm.memory.write(registers);
-			}
-			else
-			{	
-				System.err.println("LEARNER: UNKNOWN_OP: " + operation);
-				throw new RuntimeException("Invalid Operation found in Learner.run()");
+				case Instruction.SUM_VALUE:
+					registers[destinationRegister] += sourceValue;
+					break;
+				case Instruction.DIFF_VALUE:
+					registers[destinationRegister] -= sourceValue;
+					break;
+				case Instruction.PROD_VALUE:
+					registers[destinationRegister] *= sourceValue;
+					break;
+				case Instruction.DIV_VALUE:
+					registers[destinationRegister] /= sourceValue;
+					break;
+				case Instruction.COS_VALUE:
+					registers[destinationRegister] = Math.cos( sourceValue );
+					break;
+				case Instruction.LOG_VALUE:
+					registers[destinationRegister] = Math.log( Math.abs(sourceValue) );
+					break;
+				case Instruction.EXP_VALUE:
+					registers[destinationRegister] = Math.exp( sourceValue );
+					break;
+				case Instruction.COND_VALUE:
+					if( registers[destinationRegister] < sourceValue )
+						registers[destinationRegister] *= -1;
+					break;
+				case Instruction.WRIT_VALUE:
+					TPGAlgorithm.memory.write(registers);
+					break;
+				default:
+					System.err.println("LEARNER: UNKNOWN_OP: " + code[i]);
+					throw new RuntimeException("Invalid Operation found in Learner.run()");
 			}
 			
 			// If the value of registers[destination] is infinite or not a number, zero it
@@ -214,7 +246,7 @@ public class Learner
 	
 	public int size()
 	{
-		return program.size();
+		return programSize;
 	}
 	
 	public long getID()
@@ -257,21 +289,31 @@ public class Learner
 		int j = 0;
 		
 		// Choose a random instruction from the program set and remove it.
-		if( program.size() > 1 && TPGAlgorithm.RNG.nextDouble() < programDelete )
+		if( programSize > 1 && TPGAlgorithm.RNG.nextDouble() < programDelete )
 		{
-			i = (int) (TPGAlgorithm.RNG.nextDouble() * program.size());
-			program.remove(i);
+			i = (int) (TPGAlgorithm.RNG.nextDouble() * programSize);
+			
+			// Shift every instruction after i down by one
+			System.arraycopy( program, i+1, program, i, programSize-i-1 );
+			programSize--;
 			
 			changed = true;
 		}
 		
 		// Insert a random instruction into the program set.
-		if( program.size() < maxProgramSize && TPGAlgorithm.RNG.nextDouble() < programAdd )
+		if( programSize < maxProgramSize && TPGAlgorithm.RNG.nextDouble() < programAdd )
 		{
-			Instruction instruction = Instruction.newRandom();
+			long instruction = Instruction.newRandomValue();
+			
+			i = (int) (TPGAlgorithm.RNG.nextDouble() * (programSize+1) );
 			
-			i = (int) (TPGAlgorithm.RNG.nextDouble() * (program.size()+1) );
-			program.add( i, instruction );
+			// Grow the program array if it's full, then shift every instruction from i up by one
+			if( programSize == program.length )
+				program = Arrays.copyOf( program, programSize + (programSize >> 1) + 1 );
+			
+			System.arraycopy( program, i, program, i+1, programSize-i );
+			program[i] = instruction;
+			programSize++;
 			
 			changed = true;
 		}
@@ -279,34 +321,38 @@ public class Learner
 		// Flip a single bit of a random instruction from the program set.
 		if( TPGAlgorithm.RNG.nextDouble() < programMutate )
 		{
-			i = (int) TPGAlgorithm.RNG.nextDouble() * program.size();
+			i = (int) TPGAlgorithm.RNG.nextDouble() * programSize;
 			j = (int) TPGAlgorithm.RNG.nextDouble() * Instruction.INSTRUCTION_SIZE;
 			
-			program.get(i).flip(j);
+			program[i] ^= 1L << j;
 			
 			changed = true;
 		}
 		
 		// Swap the positions of two instructions in the bid se.
-		if( program.size() > 1 && TPGAlgorithm.RNG.nextDouble() < programSwap )
+		if( programSize > 1 && TPGAlgorithm.RNG.nextDouble() < programSwap )
 		{
-			i = (int) (TPGAlgorithm.RNG.nextDouble() * program.size());
+			i = (int) (TPGAlgorithm.RNG.nextDouble() * programSize);
 			
 			// Keep randomizing a second integer until it's not equal to the first
 			do
 			{
-				j = (int) (TPGAlgorithm.RNG.nextDouble() * program.size());
+				j = (int) (TPGAlgorithm.RNG.nextDouble() * programSize);
 			}
 			while( i == j );
 			
 			// Swap the two instructions
-			Instruction temp = program.get(i);
-			program.set(i, program.get(j));
-			program.set(j, temp);
+			long temp = program[i];
+			program[i] = program[j];
+			program[j] = temp;
 				
 			changed = true;
 		}
 		
+		// A changed program has to be decoded again before it next runs
+		if( changed )
+			decodedProgram = null;
+		
 		// If this Learner's program was mutated, return true
 		return changed;		
 	}
@@ -348,8 +394,8 @@ public class Learner
 		// For each Instruction in this Learner's program list,
 		// store the long value representation of the Instruction
 		// on its own line.
-		for( Instruction I: program )
-			out += I.getLongValue() + "\n";
+		for( int i=0; i < programSize; i++ )
+			out += program[i] + "\n";
 		
 		// Return the representative string
 		return out;
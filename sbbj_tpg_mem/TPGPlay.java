@@ -61,12 +61,22 @@ public class TPGPlay
 				int references = reader.nextInt();
 				String actString = reader.next();
 				
-				// Create an Array List for holding Instructions
-				ArrayList<Instruction> instructions = new ArrayList<Instruction>();
+				// Create an array for holding Instructions, along with a count of those read in
+				long[] instructions = new long[64];
+				int size = 0;
 				
 				// As long as there are Instructions left to read in, do so.
 				while(reader.hasNextLong())
-					instructions.add(new Instruction(reader.nextLong()));
+				{
+					// Grow the array if it's full
+					if(size == instructions.length)
+						instructions = Arrays.copyOf(instructions, size * 2);
+					
+					instructions[size++] = reader.nextLong();
+				}
+				
+				// Trim the array down to the Instructions read in.
+				instructions = Arrays.copyOf(instructions, size);
 				
 				// Close the scanner.
 				reader.close();